@@ -133,7 +133,12 @@ public class ApiClient {
 				"Errors: 101 - Invalid signature. 311 - Transaction does not exist."
 			},
 			{
-				"GET transactions/network", 
+				"GET transactions/verified",
+				"Returns the hits, misses and hit rate of the cache of verified signatures.",
+				""
+			},
+			{
+				"GET transactions/network",
 				"Returns an array of all the unconfirmed transactions known to the client.",
 				""
 			},
@@ -572,6 +577,11 @@ public class ApiClient {
 				"Returns full information about asset with the given key.",
 				"Errors: 601 - Invalid asset ID."
 			},
+			{
+				"GET assets/<key>/richlist/<offset>/<limit>", 
+				"Returns the total supply and the amount in open orders of the asset with the given key, and up to <limit> holders with their balances, highest first, skipping the first <offset>. A limit of -1 returns all holders with a positive balance, -2 all holders.",
+				"Errors: 601 - Invalid asset ID."
+			},
 			{
 				"POST blogpost/<blogname> {\"fee\": \"<fee>\", \"creator\": \"<creator>\", \"author\": \"<author>\", \"title\": \"<title>\", \"body\": \"<body>\", \"share\": \"<share>\", \"delete\": \"<delete>\"}",
 				"Posts to a blog.  <blogname>, \"author\", \"share\", and \"delete\" are optional.",
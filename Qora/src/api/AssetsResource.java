@@ -76,4 +76,28 @@ public class AssetsResource
 		
 		return JSONValue.toJSONString(BlockExplorer.getInstance().jsonQueryAsset(assetAsLong));
 	}	
+	
+	@GET
+	@Path("/{key}/richlist/{offset}/{limit}")	
+	public String getRichList(@PathParam("key") String key, @PathParam("offset") int offset, @PathParam("limit") int limit)
+	{
+		Long assetAsLong = null;
+		
+		// HAS ASSET NUMBERFORMAT
+		try {
+			assetAsLong = Long.valueOf(key);
+
+		} catch (NumberFormatException e) {
+			throw ApiErrorFactory.getInstance().createError(
+					ApiErrorFactory.ERROR_INVALID_ASSET_ID);
+		}
+
+		// DOES ASSETID EXIST
+		if (!DBSet.getInstance().getAssetMap().contains(assetAsLong)) {
+			throw ApiErrorFactory.getInstance().createError(
+					ApiErrorFactory.ERROR_INVALID_ASSET_ID);
+		}
+		
+		return JSONValue.toJSONString(BlockExplorer.getInstance().jsonQueryTopRichest(limit, Math.max(0, offset), assetAsLong));
+	}
 }
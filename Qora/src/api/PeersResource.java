@@ -24,8 +24,10 @@ import org.json.simple.JSONValue;
 import controller.Controller;
 import database.DBSet;
 import database.PeerMap.PeerInfo;
+import network.MessageFilter;
 import network.Peer;
 import network.PeerManager;
+import network.PeerScores;
 import ntp.NTP;
 import settings.Settings;
 import utils.APIUtils;
@@ -105,6 +107,21 @@ public class PeersResource
 		return array.toJSONString();
 	}
 
+	@SuppressWarnings("unchecked")
+	@GET
+	@Path("handled")
+	public String getHandledMessages()
+	{
+		MessageFilter filter = Controller.getInstance().getHandledMessages();
+		JSONObject o = new JSONObject();
+		
+		o.put("checked", filter.getCheckedCount());
+		o.put("duplicates", filter.getDuplicateCount());
+		o.put("hitRate", filter.getHitRate());
+		
+		return o.toJSONString();
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@GET
 	@Path("detail")
@@ -184,6 +201,11 @@ public class PeersResource
 		}
 		if(peer.hasPinger())	{
 			o.put("ping", peer.getPing());
+			o.put("queuedMessages", peer.getQueuedMessages());
+			o.put("queuedBytes", peer.getQueuedBytes());
+			o.put("droppedMessages", peer.getDroppedMessages());
+			o.put("requestsInFlight", peer.getRequestsInFlight());
+			o.put("score", PeerScores.getInstance().getScore(peer));
 		}
 		if(peer.getConnectionTime()>0) {
 			o.put("onlineTime", (NTP.getTime() - peer.getConnectionTime())/1000);
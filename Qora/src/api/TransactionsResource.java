@@ -184,7 +184,23 @@ public class TransactionsResource {
 		
 		return transaction.toJson().toJSONString();
 	}
-	
+
+	@SuppressWarnings("unchecked")
+	@GET
+	@Path("/verified")
+	public String getVerifiedSignatures()
+	{
+		long hits = Crypto.getInstance().getVerifiedCacheHits();
+		long misses = Crypto.getInstance().getVerifiedCacheMisses();
+		JSONObject o = new JSONObject();
+
+		o.put("hits", hits);
+		o.put("misses", misses);
+		o.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+
+		return o.toJSONString();
+	}
+
 	@SuppressWarnings("unchecked")
 	@GET
 	@Path("/network")
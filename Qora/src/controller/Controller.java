@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.security.SecureRandom;
 import java.text.DateFormat;
@@ -27,6 +28,12 @@ import java.util.Observer;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.swing.JOptionPane;
@@ -49,12 +56,21 @@ import database.SortableList;
 import gui.Gui;
 import gui.SplashFrame;
 import lang.Lang;
+import network.InventoryManager;
+import network.MessageFilter;
 import network.Network;
 import network.Peer;
+import network.PeerScores;
 import network.message.BlockMessage;
+import network.message.BlockTransactionsMessage;
+import network.message.CompactBlockMessage;
+import network.message.GetBlockHeadersMessage;
 import network.message.GetBlockMessage;
+import network.message.GetBlockTransactionsMessage;
+import network.message.GetTransactionsMessage;
 import network.message.GetSignaturesMessage;
 import network.message.HeightMessage;
+import network.message.InventoryMessage;
 import network.message.Message;
 import network.message.MessageFactory;
 import network.message.TransactionMessage;
@@ -63,6 +79,7 @@ import ntp.NTP;
 import qora.BlockChain;
 import qora.BlockGenerator;
 import qora.BlockGenerator.ForgingStatus;
+import qora.SignatureVerifier;
 import qora.Synchronizer;
 import qora.TransactionCreator;
 import qora.account.Account;
@@ -71,6 +88,7 @@ import qora.assets.Asset;
 import qora.assets.Order;
 import qora.assets.Trade;
 import qora.block.Block;
+import qora.block.CompactBlock;
 import qora.crypto.Base58;
 import qora.crypto.Crypto;
 import qora.naming.Name;
@@ -95,11 +113,22 @@ public class Controller extends Observable {
 	
 	
 	private static final Logger LOGGER = LogManager.getLogger(Controller.class);
-	private String version = "0.26.5";
+	private String version = "0.26.6";
 	private String buildTime = "2018-01-17 16:46:00 UTC";
 	private long buildTimestamp;
 	
+	// VERSION OF THE DATA FORMAT, A DIFFERENT ONE ON DISK STARTS THE CHAIN FROM SCRATCH
 	public static final String releaseVersion = "0.26.5";
+	
+	// FIRST VERSIONS THAT UNDERSTAND COMPACT BLOCKS AND TRANSACTION INVENTORIES
+	private static final String COMPACT_BLOCKS_VERSION = "0.26.6";
+	private static final String INVENTORY_VERSION = "0.26.6";
+	public static final String HEADERS_VERSION = "0.26.6";
+	private static final int MAX_PENDING_COMPACT_BLOCKS = 16;
+
+	// BLOCKS AND TRANSACTIONS WAITING FOR THE MESSAGE WRITER, TRANSACTIONS LEAVE ROOM FOR BLOCKS
+	private static final int MAX_QUEUED_WRITES = 1024;
+	private static final int MAX_QUEUED_TRANSACTIONS = 768;
 
 //	TODO ENUM would be better here
 	public static final int STATUS_NO_CONNECTIONS = 0;
@@ -119,6 +148,27 @@ public class Controller extends Observable {
 	private boolean needSync = false;
 	private Timer timer = new Timer();
 	private Timer timerPeerHeightUpdate = new Timer();
+	private ThreadPoolExecutor messageWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(MAX_QUEUED_WRITES), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "MessageWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}, new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			// WAIT FOR ROOM, THROTTLING THE DISPATCH THREAD OF THE PEER
+			if (!executor.isShutdown()) {
+				try {
+					executor.getQueue().put(runnable);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	});
 	private Random random = new SecureRandom();
 	private byte[] foundMyselfID = new byte[128];
 	private byte[] messageMagic;
@@ -127,6 +177,16 @@ public class Controller extends Observable {
 	private Map<Peer, Integer> peerHeight;
 
 	private Map<Peer, Pair<String, Long>> peersVersions;
+	
+	// COMPACT BLOCKS WAITING FOR MISSING TRANSACTIONS, ONLY USED BY THE MESSAGE WRITER
+	private Map<ByteBuffer, CompactBlockMessage> pendingCompactBlocks = new LinkedHashMap<ByteBuffer, CompactBlockMessage>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CompactBlockMessage> eldest) {
+			return this.size() > MAX_PENDING_COMPACT_BLOCKS;
+		}
+	};
 
 	private static Controller instance;
 
@@ -632,6 +692,7 @@ public class Controller extends Observable {
 			// STOP MESSAGE PROCESSOR
 			LOGGER.info(Lang.getInstance().translate("Stopping message processor"));
 			this.network.stop();
+			this.messageWriter.shutdown();
 
 			// STOP BLOCK PROCESSOR
 			LOGGER.info(Lang.getInstance().translate("Stopping block processor"));
@@ -693,6 +754,11 @@ public class Controller extends Observable {
 		return this.network.getActiveConnections();
 	}
 
+	public MessageFilter getHandledMessages() {
+		// BLOCKS AND TRANSACTIONS RECEIVED RECENTLY
+		return this.network.getHandledMessages();
+	}
+
 	public void walletSyncStatusUpdate(int height) {
 		this.setChanged();
 		this.notifyObservers(new ObserverMessage(
@@ -813,173 +879,389 @@ public class Controller extends Observable {
 		this.onDisconnect(peer);
 	}
 
-	// SYNCHRONIZED DO NOT PROCESSS MESSAGES SIMULTANEOUSLY
-	public void onMessage(Message message) {
+	/**
+	 * Handle a message from a peer.
+	 * <p>
+	 * Called on the dispatch threads of the network, for many peers at once.
+	 * Requests that only read the chain are answered straight away. Blocks and
+	 * transactions change the state and are handed to a single writer thread
+	 * so they are processed one at a time, in order of arrival. When the
+	 * writer falls behind, blocks wait for room and transactions are dropped.
+	 */
+	public void onMessage(final Message message) {
 		Message response;
 		Block block;
 
-		synchronized (this) {
-			switch (message.getType()) {
-			case Message.PING_TYPE:
+		switch (message.getType()) {
+		case Message.PING_TYPE:
 
-				// CREATE PING
-				response = MessageFactory.getInstance().createPingMessage();
+			// CREATE PING
+			response = MessageFactory.getInstance().createPingMessage();
 
-				// SET ID
-				response.setId(message.getId());
+			// SET ID
+			response.setId(message.getId());
 
-				// SEND BACK TO SENDER
-				message.getSender().sendMessage(response);
+			// SEND BACK TO SENDER
+			message.getSender().sendMessage(response);
 
-				break;
+			break;
 
-			case Message.HEIGHT_TYPE:
+		case Message.HEIGHT_TYPE:
 
-				HeightMessage heightMessage = (HeightMessage) message;
+			HeightMessage heightMessage = (HeightMessage) message;
 
-				// ADD TO LIST
-				synchronized (this.peerHeight) {
-					this.peerHeight.put(heightMessage.getSender(),
-							heightMessage.getHeight());
-				}
+			// ADD TO LIST
+			synchronized (this.peerHeight) {
+				this.peerHeight.put(heightMessage.getSender(),
+						heightMessage.getHeight());
+			}
 
-				break;
+			// SYNCHRONIZE IF PEER IS AHEAD
+			if (heightMessage.getHeight() > this.blockChain.getHeight()) {
+				this.blockGenerator.wakeUp();
+			}
 
-			case Message.GET_SIGNATURES_TYPE:
+			break;
 
-				GetSignaturesMessage getHeadersMessage = (GetSignaturesMessage) message;
+		case Message.GET_SIGNATURES_TYPE:
 
-				// ASK SIGNATURES FROM BLOCKCHAIN
-				List<byte[]> headers = this.blockChain
-						.getSignatures(getHeadersMessage.getParent());
+			GetSignaturesMessage getHeadersMessage = (GetSignaturesMessage) message;
 
-				// CREATE RESPONSE WITH SAME ID
-				response = MessageFactory.getInstance().createHeadersMessage(
-						headers);
-				response.setId(message.getId());
+			// ASK SIGNATURES FROM BLOCKCHAIN, NOT HALFWAY A BLOCK
+			List<byte[]> headers;
+			Lock lock = DBSet.getInstance().getReadLock();
+			lock.lock();
+			try {
+				headers = this.blockChain.getSignatures(getHeadersMessage
+						.getParent());
+			} finally {
+				lock.unlock();
+			}
 
-				// SEND RESPONSE BACK WITH SAME ID
-				message.getSender().sendMessage(response);
+			// CREATE RESPONSE WITH SAME ID
+			response = MessageFactory.getInstance().createHeadersMessage(
+					headers);
+			response.setId(message.getId());
 
-				break;
+			// SEND RESPONSE BACK WITH SAME ID
+			message.getSender().sendMessage(response);
+
+			break;
+
+		case Message.GET_BLOCK_HEADERS_TYPE:
 
-			case Message.GET_BLOCK_TYPE:
+			GetBlockHeadersMessage getBlockHeadersMessage = (GetBlockHeadersMessage) message;
+
+			// ASK HEADERS FROM BLOCKCHAIN, NOT HALFWAY A BLOCK
+			List<Block> blockHeaders;
+			Lock headersLock = DBSet.getInstance().getReadLock();
+			headersLock.lock();
+			try {
+				blockHeaders = this.blockChain.getHeaders(getBlockHeadersMessage
+						.getParent());
+			} finally {
+				headersLock.unlock();
+			}
 
-				GetBlockMessage getBlockMessage = (GetBlockMessage) message;
+			// CREATE RESPONSE WITH SAME ID
+			response = MessageFactory.getInstance().createBlockHeadersMessage(
+					blockHeaders);
+			response.setId(message.getId());
 
-				// ASK BLOCK FROM BLOCKCHAIN
-				block = this.blockChain
-						.getBlock(getBlockMessage.getSignature());
+			// SEND RESPONSE BACK WITH SAME ID
+			message.getSender().sendMessage(response);
+
+			break;
+
+		case Message.GET_BLOCK_TYPE:
+
+			GetBlockMessage getBlockMessage = (GetBlockMessage) message;
+
+			// ASK BLOCK FROM BLOCKCHAIN, NOT HALFWAY A BLOCK
+			Lock blockLock = DBSet.getInstance().getReadLock();
+			blockLock.lock();
+			try {
+				block = this.blockChain.getBlock(getBlockMessage.getSignature());
+
+				// UNKNOWN BLOCK, PEER WILL ASK SOMEONE ELSE
+				if (block == null) {
+					break;
+				}
 
 				// CREATE RESPONSE WITH SAME ID
-				response = MessageFactory.getInstance().createBlockMessage(
-						block);
+				response = MessageFactory.getInstance().createBlockMessage(block);
 				response.setId(message.getId());
 
-				// SEND RESPONSE BACK WITH SAME ID
-				message.getSender().sendMessage(response);
+				// SERIALIZE NOW, THE HEIGHT IS READ FROM THE CHAIN
+				response.getWireBuffer();
+			} finally {
+				blockLock.unlock();
+			}
 
-				break;
+			// SEND RESPONSE BACK WITH SAME ID
+			message.getSender().sendMessage(response);
 
-			case Message.BLOCK_TYPE:
+			break;
 
-				BlockMessage blockMessage = (BlockMessage) message;
+		case Message.GET_BLOCK_TRANSACTIONS_TYPE:
 
-				// ASK BLOCK FROM BLOCKCHAIN
-				block = blockMessage.getBlock();
+			GetBlockTransactionsMessage getTransactionsMessage = (GetBlockTransactionsMessage) message;
 
-				boolean isNewBlockValid = this.blockChain.isNewBlockValid(block);
-				
-				if(isNewBlockValid)	{
-					synchronized (this.peerHeight) {
-						this.peerHeight.put(message.getSender(),
-								blockMessage.getHeight());
-					}
-				}
-					
-				if(this.isProcessingWalletSynchronize()) {
-					
+			// ASK BLOCK FROM BLOCKCHAIN, NOT HALFWAY A BLOCK
+			Lock transactionsLock = DBSet.getInstance().getReadLock();
+			transactionsLock.lock();
+			try {
+				block = this.blockChain.getBlock(getTransactionsMessage.getSignature());
+			} finally {
+				transactionsLock.unlock();
+			}
+
+			// UNKNOWN BLOCK, PEER WILL ASK FOR THE FULL BLOCK
+			if (block == null) {
+				break;
+			}
+
+			// TAKE THE REQUESTED TRANSACTIONS
+			List<Transaction> blockTransactions = block.getTransactions();
+			List<Transaction> requested = new ArrayList<Transaction>();
+			for (int index : getTransactionsMessage.getIndexes()) {
+				if (index < 0 || index >= blockTransactions.size()) {
+					requested = null;
 					break;
 				}
-				
-				// CHECK IF VALID
-				if (isNewBlockValid
-						&& this.synchronizer.process(block)) {
-					LOGGER.info(Lang.getInstance().translate("received new valid block"));
-
-					// PROCESS
-					// this.synchronizer.process(block);
-
-					// BROADCAST
-					List<Peer> excludes = new ArrayList<Peer>();
-					excludes.add(message.getSender());
-					this.network.broadcast(message, excludes);
-
-					// UPDATE ALL PEER HEIGHTS TO OUR HEIGHT
-					/*
-					 * synchronized(this.peerHeight) { for(Peer peer:
-					 * this.peerHeight.keySet()) { this.peerHeight.put(peer,
-					 * this.blockChain.getHeight()); } }
-					 */
-				} 
 
-				break;
+				requested.add(blockTransactions.get(index));
+			}
 
-			case Message.TRANSACTION_TYPE:
+			// SEND BACK TO SENDER, UNLESS ASKED FOR TRANSACTIONS THE BLOCK DOES NOT HAVE
+			if (requested != null) {
+				message.getSender().sendMessage(
+						MessageFactory.getInstance().createBlockTransactionsMessage(
+								block.getSignature(), requested));
+			}
 
-				TransactionMessage transactionMessage = (TransactionMessage) message;
+			break;
 
-				// GET TRANSACTION
-				Transaction transaction = transactionMessage.getTransaction();
+		case Message.BLOCK_TYPE:
+
+			this.messageWriter.execute(new Runnable() {
+				@Override
+				public void run() {
+					BlockMessage blockMessage = (BlockMessage) message;
+					onNewBlock(blockMessage.getBlock(), blockMessage.getHeight(), message.getSender());
+				}
+			});
 
-				// CHECK IF SIGNATURE IS VALID OR GENESIS TRANSACTION
-				if (!transaction.isSignatureValid()
-						|| transaction.getType() == Transaction.GENESIS_TRANSACTION) {
-					// DISHONEST PEER
-					this.network.onError(message.getSender(), Lang.getInstance().translate("invalid transaction signature"));
+			break;
 
-					return;
+		case Message.COMPACT_BLOCK_TYPE:
+
+			this.messageWriter.execute(new Runnable() {
+				@Override
+				public void run() {
+					onCompactBlock((CompactBlockMessage) message);
 				}
+			});
+
+			break;
+
+		case Message.BLOCK_TRANSACTIONS_TYPE:
 
-				// CHECK IF TRANSACTION HAS MINIMUM FEE AND MINIMUM FEE PER BYTE
-				// AND UNCONFIRMED
-				if (transaction.hasMinimumFee()
-						&& transaction.hasMinimumFeePerByte()
-						&& !DBSet.getInstance().getTransactionParentMap()
-								.contains(transaction.getSignature())) {
-					// ADD TO UNCONFIRMED TRANSACTIONS
-					this.blockGenerator.addUnconfirmedTransaction(transaction);
-
-					// NOTIFY OBSERVERS
-					// this.setChanged();
-					// this.notifyObservers(new
-					// ObserverMessage(ObserverMessage.LIST_TRANSACTION_TYPE,
-					// DatabaseSet.getInstance().getTransactionsDatabase().getTransactions()));
-
-					this.setChanged();
-					this.notifyObservers(new ObserverMessage(
-							ObserverMessage.ADD_TRANSACTION_TYPE, transaction));
-
-					// BROADCAST
-					List<Peer> excludes = new ArrayList<Peer>();
-					excludes.add(message.getSender());
-					this.network.broadcast(message, excludes);
+			this.messageWriter.execute(new Runnable() {
+				@Override
+				public void run() {
+					onBlockTransactions((BlockTransactionsMessage) message);
 				}
+			});
 
-				break;
-				
-			case Message.VERSION_TYPE:
+			break;
+
+		case Message.INVENTORY_TYPE:
+
+			InventoryMessage inventoryMessage = (InventoryMessage) message;
+
+			// ASK FOR THE TRANSACTIONS WE DO NOT HAVE
+			List<byte[]> wanted = InventoryManager.getInstance().onInventory(
+					message.getSender(), inventoryMessage.getSignatures());
+			if (!wanted.isEmpty()) {
+				message.getSender().sendMessage(
+						MessageFactory.getInstance().createGetTransactionsMessage(wanted));
+			}
+
+			break;
 
-				VersionMessage versionMessage = (VersionMessage) message;
+		case Message.GET_TRANSACTIONS_TYPE:
 
-				// ADD TO LIST
-				synchronized (this.peersVersions) {
-					this.peersVersions.put(versionMessage.getSender(),
-							new Pair<String, Long>(versionMessage.getStrVersion(), versionMessage.getBuildDateTime()) );
+			GetTransactionsMessage getUnconfirmedMessage = (GetTransactionsMessage) message;
+
+			// SEND EVERY ONE WE STILL HAVE
+			for (Transaction unconfirmed : InventoryManager.getInstance().onGetTransactions(
+					message.getSender(), getUnconfirmedMessage.getSignatures())) {
+				message.getSender().sendMessage(
+						MessageFactory.getInstance().createTransactionMessage(unconfirmed));
+			}
+
+			break;
+
+		case Message.TRANSACTION_TYPE:
+
+			final TransactionMessage transactionMessage = (TransactionMessage) message;
+
+			// GET TRANSACTION
+			Transaction transaction = transactionMessage.getTransaction();
+
+			// SENDER HAS IT, NO NEED TO ANNOUNCE IT BACK OR WAIT FOR IT
+			InventoryManager.getInstance().onTransaction(message.getSender(), transaction);
+
+			// CHECK SIGNATURE ON VERIFIER THREADS
+			SignatureVerifier.getInstance().verify(transaction, new SignatureVerifier.Callback() {
+				@Override
+				public void onVerified(final Transaction transaction, final boolean valid) {
+					// DROP WHEN THE WRITER IS BEHIND, BLOCKS GO FIRST
+					if (messageWriter.getQueue().size() >= MAX_QUEUED_TRANSACTIONS) {
+						return;
+					}
+
+					messageWriter.execute(new Runnable() {
+						@Override
+						public void run() {
+							onTransaction(transactionMessage, transaction, valid);
+						}
+					});
 				}
+			});
 
-				break;
+			break;
+
+		case Message.VERSION_TYPE:
+
+			VersionMessage versionMessage = (VersionMessage) message;
+
+			// ADD TO LIST
+			synchronized (this.peersVersions) {
+				this.peersVersions.put(versionMessage.getSender(),
+						new Pair<String, Long>(versionMessage.getStrVersion(), versionMessage.getBuildDateTime()) );
 			}
+
+			break;
+		}
+	}
+
+	// ONLY ON THE MESSAGE WRITER THREAD
+	private boolean onNewBlock(Block block, int height, Peer sender) {
+		boolean isNewBlockValid = this.blockChain.isNewBlockValid(block);
+
+		if(isNewBlockValid)	{
+			synchronized (this.peerHeight) {
+				this.peerHeight.put(sender, height);
+			}
+		}
+
+		if(this.isProcessingWalletSynchronize()) {
+			return isNewBlockValid;
+		}
+
+		// CHECK IF VALID
+		if (isNewBlockValid
+				&& this.synchronizer.process(block)) {
+			LOGGER.info(Lang.getInstance().translate("received new valid block"));
+
+			// BROADCAST
+			List<Peer> excludes = new ArrayList<Peer>();
+			excludes.add(sender);
+			this.broadcastBlock(block, excludes);
+		}
+
+		return isNewBlockValid;
+	}
+
+	// ONLY ON THE MESSAGE WRITER THREAD
+	private void onCompactBlock(CompactBlockMessage message) {
+		CompactBlock compactBlock = message.getCompactBlock();
+
+		// ONLY WORTH REBUILDING IF IT EXTENDS OUR CHAIN
+		if (!Arrays.equals(DBSet.getInstance().getBlockMap().getLastBlockSignature(),
+				compactBlock.getHeader().getReference())) {
+			return;
+		}
+
+		// LOOK FOR THE TRANSACTIONS IN OUR UNCONFIRMED TRANSACTIONS
+		int[] missing = compactBlock.fill(DBSet.getInstance().getTransactionMap());
+		if (missing.length == 0) {
+			this.onCompactBlockFilled(message);
+			return;
+		}
+
+		// ASK SENDER FOR THE ONES WE LACK
+		this.pendingCompactBlocks.put(ByteBuffer.wrap(compactBlock.getSignature()), message);
+		message.getSender().sendMessage(
+				MessageFactory.getInstance().createGetBlockTransactionsMessage(
+						compactBlock.getSignature(), missing));
+	}
+
+	// ONLY ON THE MESSAGE WRITER THREAD
+	private void onBlockTransactions(BlockTransactionsMessage message) {
+		CompactBlockMessage compactBlockMessage = this.pendingCompactBlocks.remove(ByteBuffer.wrap(message.getSignature()));
+		if (compactBlockMessage == null || compactBlockMessage.getSender() != message.getSender()) {
+			return;
+		}
+
+		// FALL BACK TO THE FULL BLOCK IF THE SENDER DID NOT SEND WHAT WE ASKED
+		if (!compactBlockMessage.getCompactBlock().fillMissing(message.getTransactions())) {
+			message.getSender().sendMessage(
+					MessageFactory.getInstance().createGetBlockMessage(message.getSignature()));
+			return;
+		}
+
+		this.onCompactBlockFilled(compactBlockMessage);
+	}
+
+	// ONLY ON THE MESSAGE WRITER THREAD
+	private void onCompactBlockFilled(CompactBlockMessage message) {
+		Block block;
+		try {
+			block = message.getCompactBlock().toBlock();
+		} catch (Exception e) {
+			LOGGER.debug(e.getMessage(), e);
+			return;
+		}
+
+		// STILL EXTENDS OUR CHAIN BUT NOT VALID, SHORT IDS MAY HAVE MATCHED THE WRONG TRANSACTION
+		if (!this.onNewBlock(block, message.getHeight(), message.getSender())
+				&& Arrays.equals(DBSet.getInstance().getBlockMap().getLastBlockSignature(), block.getReference())) {
+			message.getSender().sendMessage(
+					MessageFactory.getInstance().createGetBlockMessage(block.getSignature()));
+		}
+	}
+
+	// ONLY ON THE MESSAGE WRITER THREAD
+	private void onTransaction(Message message, Transaction transaction, boolean signatureValid) {
+		// CHECK IF SIGNATURE IS VALID OR GENESIS TRANSACTION
+		if (!signatureValid
+				|| transaction.getType() == Transaction.GENESIS_TRANSACTION) {
+			// DISHONEST PEER
+			this.network.onError(message.getSender(), Lang.getInstance().translate("invalid transaction signature"));
+
+			return;
+		}
+
+		// CHECK IF TRANSACTION HAS MINIMUM FEE AND MINIMUM FEE PER BYTE
+		// AND UNCONFIRMED
+		if (transaction.hasMinimumFee()
+				&& transaction.hasMinimumFeePerByte()
+				&& !DBSet.getInstance().getTransactionParentMap()
+						.contains(transaction.getSignature())) {
+			// ADD TO UNCONFIRMED TRANSACTIONS
+			this.blockGenerator.addUnconfirmedTransaction(transaction);
+
+			this.setChanged();
+			this.notifyObservers(new ObserverMessage(
+					ObserverMessage.ADD_TRANSACTION_TYPE, transaction));
+
+			// RELAY
+			List<Peer> excludes = new ArrayList<Peer>();
+			excludes.add(message.getSender());
+			this.relayTransaction(transaction, message, excludes);
 		}
 	}
 
@@ -991,15 +1273,47 @@ public class Controller extends Observable {
 		this.network.deleteObserver(o);
 	}
 
-	private void broadcastBlock(Block newBlock) {
+	private void broadcastBlock(Block newBlock, List<Peer> excludes) {
 
-		// CREATE MESSAGE
-		Message message = MessageFactory.getInstance().createBlockMessage(
-				newBlock);
+		// SPLIT PEERS BY WHETHER THEY UNDERSTAND COMPACT BLOCKS
+		List<Peer> compactExcludes = new ArrayList<Peer>(excludes);
+		List<Peer> fullExcludes = new ArrayList<Peer>(excludes);
+		List<Peer> peers = this.network.getActiveConnections();
+		synchronized (peers) {
+			for (Peer peer : peers) {
+				if (this.isPeerVersionAtLeast(peer, COMPACT_BLOCKS_VERSION)) {
+					fullExcludes.add(peer);
+				} else {
+					compactExcludes.add(peer);
+				}
+			}
+		}
 
-		// BROADCAST MESSAGE
-		List<Peer> excludes = new ArrayList<Peer>();
-		this.network.broadcast(message, excludes);
+		// BROADCAST MESSAGES
+		this.network.broadcast(MessageFactory.getInstance()
+				.createCompactBlockMessage(newBlock), compactExcludes);
+		this.network.broadcast(MessageFactory.getInstance()
+				.createBlockMessage(newBlock), fullExcludes);
+	}
+
+	public boolean isPeerVersionAtLeast(Peer peer, String version) {
+		String peerVersion = this.getVersionOfPeer(peer).getA();
+		String[] parts = peerVersion.split("\\.");
+		String[] required = version.split("\\.");
+
+		try {
+			for (int i = 0; i < required.length; i++) {
+				int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+				int requiredPart = Integer.parseInt(required[i]);
+				if (part != requiredPart) {
+					return part > requiredPart;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+
+		return true;
 	}
 
 	private void broadcastTransaction(Transaction transaction) {
@@ -1009,10 +1323,29 @@ public class Controller extends Observable {
 			Message message = MessageFactory.getInstance()
 					.createTransactionMessage(transaction);
 
-			// BROADCAST MESSAGE
+			// RELAY MESSAGE
 			List<Peer> excludes = new ArrayList<Peer>();
-			this.network.broadcast(message, excludes);
+			this.relayTransaction(transaction, message, excludes);
+		}
+	}
+
+	private void relayTransaction(Transaction transaction, Message message, List<Peer> excludes) {
+
+		// ANNOUNCE TO PEERS THAT UNDERSTAND INVENTORIES, SEND TO THE OTHERS
+		List<Peer> fullExcludes = new ArrayList<Peer>(excludes);
+		if (transaction.getSignature().length == InventoryMessage.SIGNATURE_LENGTH) {
+			List<Peer> peers = this.network.getActiveConnections();
+			synchronized (peers) {
+				for (Peer peer : peers) {
+					if (!excludes.contains(peer) && this.isPeerVersionAtLeast(peer, INVENTORY_VERSION)) {
+						InventoryManager.getInstance().announce(peer, transaction);
+						fullExcludes.add(peer);
+					}
+				}
+			}
 		}
+
+		this.network.broadcast(message, fullExcludes);
 	}
 
 	// SYNCHRONIZE
@@ -1078,32 +1411,42 @@ public class Controller extends Observable {
 					ObserverMessage.NETWORK_STATUS, this.status));
 			
 			Controller.getInstance().statusInfo();
+
+			// RESYNC WALLET IF A ROLLBACK LEFT IT AHEAD OF THE CHAIN
+			if (this.isNeedSync() && !this.isProcessingWalletSynchronize()) {
+				this.synchronizeWallet();
+			}
 		}
 	}
 
 	private Peer getMaxHeightPeer() {
 		Peer highestPeer = null;
 		int height = 0;
+		double score = 0;
+		boolean stalled = true;
 
 		try {
 			synchronized (this.peerHeight) {
 				for (Peer peer : this.peerHeight.keySet()) {
-					if (highestPeer == null && peer != null) {
+					int peerHeight = this.peerHeight.get(peer);
+					double peerScore = PeerScores.getInstance().getScore(peer);
+					boolean peerStalled = PeerScores.getInstance().isStalled(peer);
+
+					// IF HEIGHT IS BIGGER
+					if (highestPeer == null || height < peerHeight) {
 						highestPeer = peer;
-					} else {
-						// IF HEIGHT IS BIGGER
-						if (height < this.peerHeight.get(peer)) {
-							highestPeer = peer;
-							height = this.peerHeight.get(peer);
-						}
+						height = peerHeight;
+						score = peerScore;
+						stalled = peerStalled;
+						continue;
+					}
 
-						// IF HEIGHT IS SAME
-						if (height == this.peerHeight.get(peer)) {
-							// CHECK IF PING OF PEER IS BETTER
-							if (peer.getPing() < highestPeer.getPing()) {
-								highestPeer = peer;
-							}
-						}
+					// IF HEIGHT IS SAME CHECK IF PEER SERVES US BETTER
+					if (height == peerHeight
+							&& (stalled && !peerStalled || stalled == peerStalled && peerScore > score)) {
+						highestPeer = peer;
+						score = peerScore;
+						stalled = peerStalled;
 					}
 				}
 			}
@@ -1392,7 +1735,22 @@ public class Controller extends Observable {
 	}
 
 	public void onDatabaseCommit() {
-		this.wallet.commit();
+		if (this.wallet != null) {
+			this.wallet.commit();
+		}
+	}
+
+	public void onDatabaseRollback() {
+		// WALLET MAY HAVE PROCESSED BLOCKS THAT ARE GONE NOW
+		if (this.wallet != null && this.wallet.exists()) {
+			this.setNeedSync(true);
+		}
+
+		// PEERS MAY HAVE BEEN TOLD A HEIGHT WE DO NOT HAVE ANYMORE
+		if (this.network != null) {
+			this.network.broadcast(MessageFactory.getInstance()
+					.createHeightMessage(this.getHeight()), new ArrayList<Peer>());
+		}
 	}
 
 	public ForgingStatus getForgingStatus() {
@@ -1408,6 +1766,10 @@ public class Controller extends Observable {
 	public Block getLastBlock() {
 		return this.blockChain.getLastBlock();
 	}
+
+	public Iterable<Block> blocksBetween(int from, int to) {
+		return this.blockChain.blocksBetween(from, to);
+	}
 	
 	public byte[] getWalletLastBlockSign() {
 		return this.wallet.getLastBlockSignature();
@@ -1443,7 +1805,7 @@ public class Controller extends Observable {
 		this.synchronizer.process(newBlock);
 
 		// BROADCAST
-		this.broadcastBlock(newBlock);
+		this.broadcastBlock(newBlock, new ArrayList<Peer>());
 	}
 
 	public List<Transaction> getUnconfirmedTransactions() {
@@ -1823,6 +2185,9 @@ public class Controller extends Observable {
 
 	public Block getBlockByHeight(int parseInt) {
 		byte[] b = DBSet.getInstance().getHeightMap().getBlockByHeight(parseInt);
+		if (b == null) {
+			return null;
+		}
 		return DBSet.getInstance().getBlockMap().get(b);
 	}
 
@@ -0,0 +1,280 @@
+package database;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import qora.crypto.Base58;
+
+/**
+ * Balances as whole units of 10^-8, keyed by the 25 byte address and the
+ * asset key.
+ * <p>
+ * Entries live in flat primitive arrays addressed by open addressing, so
+ * looking up, changing and adding a balance does not allocate once the
+ * table is large enough. Balances that do not fit in a long are not kept
+ * here, see {@link #fits(BigDecimal)}.
+ * <p>
+ * Not thread safe.
+ */
+public class BalanceLedger
+{
+	public static final int ADDRESS_LENGTH = 25;
+	public static final int SCALE = 8;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private byte[] addresses;
+	private String[] names;
+	private long[] keys;
+	private long[] units;
+	private boolean[] used;
+	private int size;
+	private int mask;
+
+	public BalanceLedger()
+	{
+		this.allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity)
+	{
+		this.addresses = new byte[capacity * ADDRESS_LENGTH];
+		this.names = new String[capacity];
+		this.keys = new long[capacity];
+		this.units = new long[capacity];
+		this.used = new boolean[capacity];
+		this.size = 0;
+		this.mask = capacity - 1;
+	}
+
+	private int start(byte[] address, int offset, long key)
+	{
+		//ADDRESS BYTES AFTER THE VERSION ARE A HASH ALREADY
+		long hash = 0;
+		for(int i=1; i<9; i++)
+		{
+			hash = (hash << 8) | (address[offset + i] & 0xFF);
+		}
+		hash ^= key * 0x9E3779B97F4A7C15L;
+
+		return (int) (hash ^ (hash >>> 32)) & this.mask;
+	}
+
+	private boolean matches(int slot, byte[] address, long key)
+	{
+		if(this.keys[slot] != key)
+		{
+			return false;
+		}
+
+		int offset = slot * ADDRESS_LENGTH;
+		for(int i=0; i<ADDRESS_LENGTH; i++)
+		{
+			if(this.addresses[offset + i] != address[i])
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the slot of the balance or -1 if there is none
+	 */
+	public int find(byte[] address, long key)
+	{
+		int slot = this.start(address, 0, key);
+		while(this.used[slot])
+		{
+			if(this.matches(slot, address, key))
+			{
+				return slot;
+			}
+
+			slot = (slot + 1) & this.mask;
+		}
+
+		return -1;
+	}
+
+	public boolean contains(byte[] address, long key)
+	{
+		return this.find(address, key) >= 0;
+	}
+
+	public long getUnits(int slot)
+	{
+		return this.units[slot];
+	}
+
+	public long getKey(int slot)
+	{
+		return this.keys[slot];
+	}
+
+	/**
+	 * Address the balance was set for, as given to {@link #put}.
+	 */
+	public String getName(int slot)
+	{
+		return this.names[slot];
+	}
+
+	public boolean isUsed(int slot)
+	{
+		return this.used[slot];
+	}
+
+	public int getCapacity()
+	{
+		return this.used.length;
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @param name the address as text, handed back by {@link #getName(int)}
+	 */
+	public void put(byte[] address, String name, long key, long units)
+	{
+		int slot = this.start(address, 0, key);
+		while(this.used[slot])
+		{
+			if(this.matches(slot, address, key))
+			{
+				this.units[slot] = units;
+				return;
+			}
+
+			slot = (slot + 1) & this.mask;
+		}
+
+		//KEEP AT MOST HALF FULL
+		if((this.size + 1) * 2 > this.used.length)
+		{
+			this.grow();
+			this.put(address, name, key, units);
+			return;
+		}
+
+		this.set(slot, address, 0, name, key, units);
+		this.size++;
+	}
+
+	private void set(int slot, byte[] address, int offset, String name, long key, long units)
+	{
+		System.arraycopy(address, offset, this.addresses, slot * ADDRESS_LENGTH, ADDRESS_LENGTH);
+		this.names[slot] = name;
+		this.keys[slot] = key;
+		this.units[slot] = units;
+		this.used[slot] = true;
+	}
+
+	private void grow()
+	{
+		byte[] addresses = this.addresses;
+		String[] names = this.names;
+		long[] keys = this.keys;
+		long[] units = this.units;
+		boolean[] used = this.used;
+
+		this.allocate(used.length * 2);
+
+		for(int i=0; i<used.length; i++)
+		{
+			if(used[i])
+			{
+				int slot = this.start(addresses, i * ADDRESS_LENGTH, keys[i]);
+				while(this.used[slot])
+				{
+					slot = (slot + 1) & this.mask;
+				}
+
+				this.set(slot, addresses, i * ADDRESS_LENGTH, names[i], keys[i], units[i]);
+				this.size++;
+			}
+		}
+	}
+
+	public boolean remove(byte[] address, long key)
+	{
+		int slot = this.find(address, key);
+		if(slot < 0)
+		{
+			return false;
+		}
+
+		//SHIFT BACK ENTRIES THAT PROBED PAST THE FREED SLOT
+		int free = slot;
+		int next = (slot + 1) & this.mask;
+		while(this.used[next])
+		{
+			int start = this.start(this.addresses, next * ADDRESS_LENGTH, this.keys[next]);
+			if(((next - start) & this.mask) >= ((next - free) & this.mask))
+			{
+				this.set(free, this.addresses, next * ADDRESS_LENGTH, this.names[next], this.keys[next], this.units[next]);
+				free = next;
+			}
+
+			next = (next + 1) & this.mask;
+		}
+
+		this.used[free] = false;
+		this.names[free] = null;
+		this.size--;
+
+		return true;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(this.used, false);
+		Arrays.fill(this.names, null);
+		this.size = 0;
+	}
+
+	/**
+	 * The 25 bytes of the address, or <code>null</code> if the text is not
+	 * a Base58 encoded address of that length.
+	 */
+	public static byte[] toAddress(String address)
+	{
+		try
+		{
+			byte[] bytes = Base58.decode(address);
+			if(bytes != null && bytes.length == ADDRESS_LENGTH)
+			{
+				return bytes;
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			//NOT AN ADDRESS
+		}
+
+		return null;
+	}
+
+	/**
+	 * If the amount can be kept as units, it has at most {@link #SCALE}
+	 * decimals and fits in a long.
+	 */
+	public static boolean fits(BigDecimal amount)
+	{
+		return amount.scale() <= SCALE && amount.precision() - amount.scale() <= 18 - SCALE;
+	}
+
+	public static long toUnits(BigDecimal amount)
+	{
+		return amount.setScale(SCALE).unscaledValue().longValue();
+	}
+
+	public static BigDecimal toAmount(long units)
+	{
+		return BigDecimal.valueOf(units, SCALE);
+	}
+}
@@ -3,7 +3,10 @@ package database;
 import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.mapdb.BTreeKeySerializer;
@@ -14,6 +17,10 @@ import org.mapdb.Fun;
 import org.mapdb.Fun.Tuple2;
 import org.mapdb.Fun.Tuple3;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
 import qora.account.Account;
 import utils.ObserverMessage;
 import database.DBSet;
@@ -27,6 +34,12 @@ public class BalanceMap extends DBMap<Tuple2<String, Long>, BigDecimal>
 	@SuppressWarnings("rawtypes")
 	private BTreeMap assetKeyMap;
 	
+	//SUM OF ALL BALANCES PER ASSET
+	private Map<Long, BigDecimal> totals;
+	
+	//BALANCES SET IN A FORK
+	private BalanceLedger ledger;
+	
 	public BalanceMap(DBSet databaseSet, DB database)
 	{
 		super(databaseSet, database);
@@ -39,6 +52,8 @@ public class BalanceMap extends DBMap<Tuple2<String, Long>, BigDecimal>
 	public BalanceMap(BalanceMap parent) 
 	{
 		super(parent);
+		
+		this.ledger = new BalanceLedger();
 	}
 	
 	protected void createIndexes(DB database){}
@@ -67,9 +82,51 @@ public class BalanceMap extends DBMap<Tuple2<String, Long>, BigDecimal>
 			}	
 		});
 		
+		//TOTALS, KEPT UP TO DATE ON EVERY CHANGE OF A BALANCE
+		boolean counted = database.exists("balances_totals");
+		this.totals = database.createTreeMap("balances_totals")
+				.makeOrGet();
+		
+		map.modificationListenerAdd(new Bind.MapListener<Tuple2<String, Long>, BigDecimal>() {
+			@Override
+			public void update(Tuple2<String, Long> key, BigDecimal oldValue, BigDecimal newValue) {
+				addToTotal(key.b, oldValue, newValue);
+			}
+		});
+		
+		//COUNT BALANCES STORED BEFORE THE TOTALS EXISTED
+		if(!counted)
+		{
+			for(Map.Entry<Tuple2<String, Long>, BigDecimal> entry: map.entrySet())
+			{
+				this.addToTotal(entry.getKey().b, null, entry.getValue());
+			}
+		}
+		
 		//RETURN
 		return map;
 	}
+	
+	private void addToTotal(long key, BigDecimal oldValue, BigDecimal newValue)
+	{
+		BigDecimal total = this.totals.get(key);
+		if(total == null)
+		{
+			total = BigDecimal.ZERO.setScale(8);
+		}
+		
+		if(oldValue != null)
+		{
+			total = total.subtract(oldValue);
+		}
+		
+		if(newValue != null)
+		{
+			total = total.add(newValue);
+		}
+		
+		this.totals.put(key, total);
+	}
 
 	@Override
 	protected Map<Tuple2<String, Long>, BigDecimal> getMemoryMap() 
@@ -94,6 +151,44 @@ public class BalanceMap extends DBMap<Tuple2<String, Long>, BigDecimal>
 		this.set(address, QORA_KEY, value);
 	}
 	
+	public void set(Account account, long key, BigDecimal value)
+	{
+		this.set(account.getAddressBytes(), account.getAddress(), key, value);
+	}
+	
+	@Override
+	public boolean set(Tuple2<String, Long> key, BigDecimal value)
+	{
+		if(this.ledger != null)
+		{
+			return this.set(BalanceLedger.toAddress(key.a), key.a, key.b, value);
+		}
+		
+		return super.set(key, value);
+	}
+	
+	private boolean set(byte[] address, String name, long key, BigDecimal value)
+	{
+		if(this.ledger != null && address != null)
+		{
+			if(BalanceLedger.fits(value))
+			{
+				//EVERY BALANCE IS EITHER IN THE LEDGER OR IN THE MAP
+				if(!this.map.isEmpty())
+				{
+					this.map.remove(new Tuple2<String, Long>(name, key));
+				}
+				
+				this.ledger.put(address, name, key, BalanceLedger.toUnits(value));
+				return true;
+			}
+			
+			this.ledger.remove(address, key);
+		}
+		
+		return super.set(new Tuple2<String, Long>(name, key), value);
+	}
+	
 	public void set(String address, long key, BigDecimal value)
 	{
 		this.set(new Tuple2<String, Long>(address, key), value);
@@ -109,6 +204,134 @@ public class BalanceMap extends DBMap<Tuple2<String, Long>, BigDecimal>
 		return this.get(new Tuple2<String, Long>(address, key));
 	}
 	
+	public BigDecimal get(Account account, long key)
+	{
+		return this.get(account.getAddressBytes(), account.getAddress(), key);
+	}
+	
+	@Override
+	public BigDecimal get(Tuple2<String, Long> key)
+	{
+		if(this.ledger != null)
+		{
+			return this.get(BalanceLedger.toAddress(key.a), key.a, key.b);
+		}
+		
+		return super.get(key);
+	}
+	
+	private BigDecimal get(byte[] address, String name, long key)
+	{
+		if(this.ledger != null && address != null)
+		{
+			int slot = this.ledger.find(address, key);
+			if(slot >= 0)
+			{
+				return BalanceLedger.toAmount(this.ledger.getUnits(slot));
+			}
+		}
+		
+		return super.get(new Tuple2<String, Long>(name, key));
+	}
+	
+	@Override
+	public boolean contains(Tuple2<String, Long> key)
+	{
+		if(this.ledger != null)
+		{
+			byte[] address = BalanceLedger.toAddress(key.a);
+			if(address != null && this.ledger.contains(address, key.b))
+			{
+				return true;
+			}
+		}
+		
+		return super.contains(key);
+	}
+	
+	@Override
+	public void delete(Tuple2<String, Long> key)
+	{
+		if(this.ledger != null)
+		{
+			byte[] address = BalanceLedger.toAddress(key.a);
+			if(address != null)
+			{
+				this.ledger.remove(address, key.b);
+			}
+		}
+		
+		super.delete(key);
+	}
+	
+	/**
+	 * Move the balances of the ledger into the map of the fork, for
+	 * everything that works on the map directly.
+	 */
+	private void flush()
+	{
+		if(this.ledger == null || this.ledger.size() == 0)
+		{
+			return;
+		}
+		
+		for(int slot=0; slot<this.ledger.getCapacity(); slot++)
+		{
+			if(this.ledger.isUsed(slot))
+			{
+				Tuple2<String, Long> key = new Tuple2<String, Long>(this.ledger.getName(slot), this.ledger.getKey(slot));
+				this.map.put(key, BalanceLedger.toAmount(this.ledger.getUnits(slot)));
+			}
+		}
+		
+		this.ledger.clear();
+	}
+	
+	@Override
+	public int size()
+	{
+		this.flush();
+		return super.size();
+	}
+	
+	@Override
+	public Set<Tuple2<String, Long>> getKeys()
+	{
+		this.flush();
+		return super.getKeys();
+	}
+	
+	@Override
+	public Collection<BigDecimal> getValues()
+	{
+		this.flush();
+		return super.getValues();
+	}
+	
+	@Override
+	protected void beforeIterate()
+	{
+		this.flush();
+	}
+	
+	@Override
+	protected void merge()
+	{
+		this.flush();
+		super.merge();
+	}
+	
+	@Override
+	public void reset()
+	{
+		if(this.ledger != null)
+		{
+			this.ledger.clear();
+		}
+		
+		super.reset();
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public SortableList<Tuple2<String, Long>, BigDecimal> getBalancesSortableList(long key)
 	{
@@ -134,4 +357,62 @@ public class BalanceMap extends DBMap<Tuple2<String, Long>, BigDecimal>
 		//RETURN
 		return new SortableList<Tuple2<String, Long>, BigDecimal>(this, keys);
 	}
+	
+	/**
+	 * Sum of the balances of all addresses in the asset.
+	 * <p>
+	 * Only the main database keeps totals, forks return the total of the
+	 * database they were forked from.
+	 */
+	public BigDecimal getTotal(long key)
+	{
+		if(this.parent != null)
+		{
+			return ((BalanceMap) this.parent).getTotal(key);
+		}
+		
+		BigDecimal total = this.totals.get(key);
+		return total == null ? BigDecimal.ZERO.setScale(8) : total;
+	}
+	
+	/**
+	 * Addresses and their balances in the asset, highest balance first.
+	 * Balances are read lazily from the asset index, so only the entries
+	 * taken are visited.
+	 * <p>
+	 * Only the main database holds the index, forks rank the balances of
+	 * the database they were forked from.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Iterator<Tuple2<String, BigDecimal>> getRanking(long key)
+	{
+		if(this.parent != null)
+		{
+			return ((BalanceMap) this.parent).getRanking(key);
+		}
+		
+		//BALANCES ARE STORED NEGATED, SO THE HIGHEST COMES FIRST
+		Collection<Tuple3<Long, BigDecimal, String>> entries = this.assetKeyMap.subMap(
+				Fun.t3(key, null, null),
+				Fun.t3(key, Fun.HI(), Fun.HI())).keySet();
+		
+		return Iterators.transform(entries.iterator(), new Function<Tuple3<Long, BigDecimal, String>, Tuple2<String, BigDecimal>>() {
+			@Override
+			public Tuple2<String, BigDecimal> apply(Tuple3<Long, BigDecimal, String> entry) {
+				return new Tuple2<String, BigDecimal>(entry.c, entry.b.negate());
+			}
+		});
+	}
+	
+	/**
+	 * At most <code>limit</code> addresses and their balances in the asset,
+	 * highest balance first, skipping the first <code>offset</code>.
+	 */
+	public List<Tuple2<String, BigDecimal>> getTop(long key, int offset, int limit)
+	{
+		Iterator<Tuple2<String, BigDecimal>> ranking = this.getRanking(key);
+		Iterators.advance(ranking, offset);
+		
+		return Lists.newArrayList(Iterators.limit(ranking, limit));
+	}
 }
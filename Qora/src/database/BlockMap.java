@@ -1,5 +1,6 @@
 package database;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -135,6 +136,18 @@ public class BlockMap extends DBMap<byte[], Block>
 		}
 		
 		this.lastBlockSignature = block.getSignature();
+		
+		this.notifyLastBlock();
+	}
+	
+	private void notifyLastBlock()
+	{
+		//ONLY THE CHAIN ITSELF HAS A TIP OTHERS WAIT FOR
+		if(this.parent == null)
+		{
+			this.setChanged();
+			this.notifyObservers(new ObserverMessage(ObserverMessage.LAST_BLOCK_TYPE, this.lastBlockSignature));
+		}
 	}
 	
 	public Block getLastBlock()
@@ -167,6 +180,42 @@ public class BlockMap extends DBMap<byte[], Block>
 		this.processing = processing;
 	}
 	
+	void reload()
+	{
+		//RESTORE CACHED VALUES FROM DATABASE AFTER ROLLBACK
+		if(this.lastBlockVar != null && !Arrays.equals(this.lastBlockSignature, this.lastBlockVar.get()))
+		{
+			this.lastBlockSignature = this.lastBlockVar.get();
+			this.notifyLastBlock();
+		}
+		
+		if(this.processingVar != null)
+		{
+			this.processing = this.processingVar.get();
+		}
+	}
+	
+	@Override
+	protected void merge()
+	{
+		BlockMap parent = (BlockMap) this.parent;
+		
+		super.merge();
+		
+		//LAST BLOCK IS SET AFTER THE BLOCK IS ADDED, AS WHEN PROCESSING
+		if(parent != null)
+		{
+			if(parent.lastBlockVar != null)
+			{
+				parent.lastBlockVar.set(this.lastBlockSignature);
+			}
+			parent.lastBlockSignature = this.lastBlockSignature;
+			parent.notifyLastBlock();
+			
+			parent.setProcessing(this.isProcessing());
+		}
+	}
+	
 	public void add(Block block)
 	{
 		this.set(block.getSignature(), block);
@@ -1,7 +1,11 @@
 package database;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -17,9 +21,13 @@ import org.apache.logging.log4j.Logger;
 import org.mapdb.BTreeMap;
 import org.mapdb.Bind;
 import org.mapdb.DB;
+import org.mapdb.Fun;
 import org.mapdb.Fun.Function2;
 import org.mapdb.Fun.Tuple2;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+
 import controller.Controller;
 import database.wallet.WalletDatabase;
 import utils.ObserverMessage;
@@ -36,8 +44,10 @@ public abstract class DBMap<T, U> extends Observable {
 	protected DBMap<T, U> parent;
 	protected IDB databaseSet;
 	protected Map<T, U> map;
-	protected List<T> deleted;
+	protected Collection<T> deleted;
+	private Map<Object, T> deletedKeys;
 	private Map<Integer, NavigableSet<Tuple2<?, T>>> indexes;
+	private Map<Integer, Function2<Object[], T, U>> indexFunctions;
 
 	public DBMap(IDB databaseSet, DB database)
 	{
@@ -48,6 +58,7 @@ public abstract class DBMap<T, U> extends Observable {
 	    
 	    //CREATE INDEXES
 	    this.indexes = new HashMap<Integer, NavigableSet<Tuple2<?, T>>>();
+	    this.indexFunctions = new HashMap<Integer, Function2<Object[], T, U>>();
 	    this.createIndexes(database);
 	}
 	
@@ -57,7 +68,14 @@ public abstract class DBMap<T, U> extends Observable {
 	    
 	    //OPEN MAP
 	    this.map = this.getMemoryMap();
-	    this.deleted = new ArrayList<T>();
+	    
+	    //DELETED KEYS BY CONTENT
+	    this.deletedKeys = new HashMap<Object, T>();
+	    this.deleted = this.deletedKeys.values();
+	    
+	    //SHARE INDEXES OF PARENT FOR MERGED ITERATION
+	    this.indexes = parent.indexes;
+	    this.indexFunctions = parent.indexFunctions;
 	}
 	
 	protected abstract Map<T, U> getMap(DB database);
@@ -71,13 +89,20 @@ public abstract class DBMap<T, U> extends Observable {
 	protected abstract void createIndexes(DB database);
 	
 	@SuppressWarnings("unchecked")
-	protected <V> void createIndex(int index, NavigableSet<?> indexSet, NavigableSet<?> descendingIndexSet, Function2<V, T, U> function) 
+	protected <V> void createIndex(int index, NavigableSet<?> indexSet, NavigableSet<?> descendingIndexSet, final Function2<V, T, U> function) 
 	{
 		Bind.secondaryKey((BTreeMap<T, U>) this.map, (NavigableSet<Tuple2<V, T>>) indexSet, function);
 		this.indexes.put(index, (NavigableSet<Tuple2<?, T>>) indexSet);
 		
 		Bind.secondaryKey((BTreeMap<T, U>) this.map, (NavigableSet<Tuple2<V, T>>) descendingIndexSet, function);
 		this.indexes.put(index + 10000, (NavigableSet<Tuple2<?, T>>) descendingIndexSet);
+		
+		this.addIndexFunction(index, new Function2<Object[], T, U>() {
+			@Override
+			public Object[] run(T key, U value) {
+				return new Object[]{function.run(key, value)};
+			}
+		});
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -88,6 +113,15 @@ public abstract class DBMap<T, U> extends Observable {
 		
 		Bind.secondaryKeys((BTreeMap<T, U>) this.map, (NavigableSet<Tuple2<V, T>>) descendingIndexSet, function);
 		this.indexes.put(index + 10000, (NavigableSet<Tuple2<?, T>>) descendingIndexSet);
+		
+		this.addIndexFunction(index, (Function2<Object[], T, U>) (Function2<?, T, U>) function);
+	}
+	
+	private void addIndexFunction(int index, Function2<Object[], T, U> function)
+	{
+		//FORKS USE THESE TO INDEX THEIR OWN ENTRIES
+		this.indexFunctions.put(index, function);
+		this.indexFunctions.put(index + 10000, function);
 	}
 	
 	public int size() {
@@ -104,7 +138,7 @@ public abstract class DBMap<T, U> extends Observable {
 			}
 			else
 			{
-				if(this.deleted == null || !this.deleted.contains(key))
+				if(!this.isDeleted(key))
 				{
 					if(this.parent != null)
 					{
@@ -141,9 +175,9 @@ public abstract class DBMap<T, U> extends Observable {
 			
 			U old = this.map.put(key, value);
 			
-			if(this.deleted != null)
+			if(this.deletedKeys != null)
 			{
-				this.deleted.remove(key);
+				this.deletedKeys.remove(contentKey(key));
 			}
 			
 			//COMMIT
@@ -217,9 +251,9 @@ public abstract class DBMap<T, U> extends Observable {
 				}*/
 			}
 			
-			if(this.deleted != null)
+			if(this.deletedKeys != null)
 			{
-				this.deleted.add(key);
+				this.deletedKeys.put(contentKey(key), key);
 			}
 			
 			//COMMIT
@@ -242,7 +276,7 @@ public abstract class DBMap<T, U> extends Observable {
 		}
 		else
 		{
-			if(this.deleted == null || !this.deleted.contains(key))
+			if(!this.isDeleted(key))
 			{
 				if(this.parent != null)
 				{
@@ -254,6 +288,22 @@ public abstract class DBMap<T, U> extends Observable {
 		return false;
 	}
 	
+	private boolean isDeleted(T key)
+	{
+		return this.deletedKeys != null && this.deletedKeys.containsKey(contentKey(key));
+	}
+	
+	private static Object contentKey(Object key)
+	{
+		//BYTE ARRAYS HAVE NO CONTENT EQUALITY
+		if(key instanceof byte[])
+		{
+			return ByteBuffer.wrap((byte[]) key);
+		}
+		
+		return key;
+	}
+	
 	@Override
 	public void addObserver(Observer o) 
 	{
@@ -271,10 +321,25 @@ public abstract class DBMap<T, U> extends Observable {
 		}
 	}
 	
+	/**
+	 * Called on every level of forks before its entries are iterated, for
+	 * maps that keep some entries outside of the map.
+	 */
+	protected void beforeIterate()
+	{
+	}
+	
 	public Iterator<T> getIterator(int index, boolean descending)
 	{
+		this.beforeIterate();
+		
 		if(index == DEFAULT_INDEX)
 		{
+			if(this.parent != null)
+			{
+				return this.getMergedKeyIterator(descending);
+			}
+			
 			if(descending)
 			{
 				return ((NavigableMap<T, U>) this.map).descendingKeySet().iterator();
@@ -289,9 +354,122 @@ public abstract class DBMap<T, U> extends Observable {
 				index += 10000;
 			}
 			
+			if(this.parent != null)
+			{
+				return new IndexIterator<T>(this.getMergedIndexIterator(index));
+			}
+			
 			return new IndexIterator<T>(this.indexes.get(index));
 		}
 	}
+	
+	private Iterator<T> getMergedKeyIterator(boolean descending)
+	{
+		Comparator<T> comparator = this.getKeyComparator();
+		if(descending)
+		{
+			comparator = Collections.reverseOrder(comparator);
+		}
+		
+		//OUR KEYS IN ORDER
+		List<T> keys = new ArrayList<T>(this.map.keySet());
+		Collections.sort(keys, comparator);
+		
+		//MERGE WITH KEYS OF PARENT WE DO NOT OVERRIDE
+		Iterator<T> inherited = Iterators.filter(this.parent.getIterator(DEFAULT_INDEX, descending), new Predicate<T>() {
+			@Override
+			public boolean apply(T key) {
+				return !isOverridden(key);
+			}
+		});
+		
+		return Iterators.mergeSorted(Arrays.asList(inherited, keys.iterator()), comparator);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Iterator<Tuple2<?, T>> getMergedIndexIterator(int index)
+	{
+		this.beforeIterate();
+		
+		if(this.parent == null)
+		{
+			return this.indexes.get(index).iterator();
+		}
+		
+		Comparator<Tuple2<?, T>> comparator = (Comparator<Tuple2<?, T>>) this.indexes.get(index).comparator();
+		Function2<Object[], T, U> function = this.indexFunctions.get(index);
+		
+		//INDEX OUR ENTRIES
+		List<Tuple2<?, T>> entries = new ArrayList<Tuple2<?, T>>();
+		for(Map.Entry<T, U> entry: this.map.entrySet())
+		{
+			for(Object value: function.run(entry.getKey(), entry.getValue()))
+			{
+				entries.add(new Tuple2<Object, T>(value, entry.getKey()));
+			}
+		}
+		Collections.sort(entries, comparator);
+		
+		//MERGE WITH ENTRIES OF PARENT WE DO NOT OVERRIDE
+		Iterator<Tuple2<?, T>> inherited = Iterators.filter(this.parent.getMergedIndexIterator(index), new Predicate<Tuple2<?, T>>() {
+			@Override
+			public boolean apply(Tuple2<?, T> entry) {
+				return !isOverridden(entry.b);
+			}
+		});
+		
+		return Iterators.mergeSorted(Arrays.asList(inherited, entries.iterator()), comparator);
+	}
+	
+	private boolean isOverridden(T key)
+	{
+		return this.map.containsKey(key) || this.isDeleted(key);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Comparator<T> getKeyComparator()
+	{
+		if(this.parent != null)
+		{
+			return this.parent.getKeyComparator();
+		}
+		
+		Comparator<T> comparator = (Comparator<T>) ((NavigableMap<T, U>) this.map).comparator();
+		if(comparator == null)
+		{
+			comparator = (Comparator<T>) Fun.COMPARATOR;
+		}
+		
+		return comparator;
+	}
+	
+	/**
+	 * Write the changes of this fork into its parent.
+	 * <p>
+	 * Deletions are applied first, then every entry of the fork is set on the
+	 * parent, so indexes and observers of the parent are updated as if the
+	 * changes had been made there. The fork is empty afterwards.
+	 */
+	protected void merge()
+	{
+		if(this.parent == null)
+		{
+			return;
+		}
+		
+		for(T key: this.deleted)
+		{
+			this.parent.delete(key);
+		}
+		
+		for(Map.Entry<T, U> entry: this.map.entrySet())
+		{
+			this.parent.set(entry.getKey(), entry.getValue());
+		}
+		
+		this.map.clear();
+		this.deletedKeys.clear();
+	}
 
 	public SortableList<T, U> getList() 
 	{
@@ -313,9 +491,16 @@ public abstract class DBMap<T, U> extends Observable {
 		this.map.clear();
 		
 		//RESET INDEXES
-		for(Set<Tuple2<?, T>> set: this.indexes.values())
+		if(this.parent == null)
+		{
+			for(Set<Tuple2<?, T>> set: this.indexes.values())
+			{
+				set.clear();
+			}
+		}
+		else
 		{
-			set.clear();
+			this.deletedKeys.clear();
 		}
 		
 		//NOTIFY LIST
@@ -3,6 +3,8 @@ package database;
 import java.io.File;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -25,6 +27,7 @@ public class DBSet implements Observer, IDB {
 	private BlockMap blockMap;
 	private ChildMap childMap;
 	private HeightMap heightMap;
+	private InboundAmountMap inboundAmountMap;
 	private ReferenceMap referenceMap;
 	private PeerMap peerMap;
 	private TransactionMap transactionMap;
@@ -56,6 +59,12 @@ public class DBSet implements Observer, IDB {
 	
 	private DB database;
 	private int actions;
+	private int batchDepth;
+	private int uncommittedBlocks;
+	private int commitInterval;
+	
+	//HELD FOR WRITING DURING A BATCH SO READERS NEVER SEE HALF A BLOCK
+	private ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
 	
 	public static DBSet getInstance()
 	{
@@ -98,12 +107,15 @@ public class DBSet implements Observer, IDB {
 		try {
 			this.database = database;
 			this.actions = 0;
+			this.batchDepth = 0;
+			this.uncommittedBlocks = 0;
 			
 			this.balanceMap = new BalanceMap(this, database);
 			this.transactionFinalMap = new TransactionFinalMap(this, database);
 			this.blockMap = new BlockMap(this, database);
 			this.childMap = new ChildMap(this, database);
 			this.heightMap = new HeightMap(this, database);
+			this.inboundAmountMap = new InboundAmountMap(this, database);
 			this.referenceMap = new ReferenceMap(this, database);
 			this.peerMap = new PeerMap(this, database);
 			this.transactionMap = new TransactionMap(this, database);
@@ -145,6 +157,7 @@ public class DBSet implements Observer, IDB {
 		this.blockMap = new BlockMap(parent.blockMap);
 		this.childMap = new ChildMap(this.blockMap, parent.childMap);
 		this.heightMap = new HeightMap(parent.heightMap);
+		this.inboundAmountMap = new InboundAmountMap(parent.inboundAmountMap);
 		this.referenceMap = new ReferenceMap(parent.referenceMap);
 		this.peerMap = new PeerMap(parent.peerMap);
 		this.transactionMap = new TransactionMap(parent.transactionMap);		
@@ -178,6 +191,7 @@ public class DBSet implements Observer, IDB {
 		
 		this.balanceMap.reset();
 		this.heightMap.reset();
+		this.inboundAmountMap.reset();
 		this.referenceMap.reset();
 		this.peerMap.reset();
 		this.transactionFinalMap.reset();
@@ -228,6 +242,11 @@ public class DBSet implements Observer, IDB {
 		return this.heightMap;
 	}
 
+	public InboundAmountMap getInboundAmountMap() 
+	{
+		return this.inboundAmountMap;
+	}
+
 	public ReferenceMap getReferenceMap() 
 	{
 		return this.referenceMap;
@@ -368,12 +387,68 @@ public class DBSet implements Observer, IDB {
 		return new DBSet(this);
 	}
 	
+	/**
+	 * Apply everything written to this fork to the set it was forked from,
+	 * so a validated fork does not have to be processed a second time.
+	 * <p>
+	 * The block map goes last so observers of new blocks see the state the
+	 * block produced. Callers writing to the main database should do this
+	 * inside a write batch.
+	 */
+	public void merge()
+	{
+		if(this.database != null)
+		{
+			throw new IllegalStateException("Not a fork");
+		}
+		
+		this.balanceMap.merge();
+		this.transactionFinalMap.merge();
+		this.heightMap.merge();
+		this.inboundAmountMap.merge();
+		this.childMap.merge();
+		this.referenceMap.merge();
+		this.peerMap.merge();
+		this.transactionMap.merge();
+		this.nameMap.merge();
+		this.nameStorageMap.merge();
+		this.orphanNameStorageMap.merge();
+		this.orphanNameStorageHelperMap.merge();
+		this.sharedPostsMap.merge();
+		this.postCommentMap.merge();
+		this.commentPostMap.merge();
+		this.localDataMap.merge();
+		this.blogPostMap.merge();
+		this.hashtagPostMap.merge();
+		this.transactionParentMap.merge();
+		this.nameExchangeMap.merge();
+		this.updateNameMap.merge();
+		this.cancelSellNameMap.merge();
+		this.pollMap.merge();
+		this.voteOnPollMap.merge();
+		this.assetMap.merge();
+		this.issueAssetMap.merge();
+		this.orderMap.merge();
+		this.completedOrderMap.merge();
+		this.tradeMap.merge();
+		this.atMap.merge();
+		this.atStateMap.merge();
+		this.atTransactionMap.merge();
+		this.blockMap.merge();
+	}
+	
 	public void close()
 	{
 		if(this.database != null)
 		{
 			if(!this.database.isClosed())
 			{
+				//NEVER WRITE A HALF PROCESSED BLOCK
+				if(this.batchDepth > 0)
+				{
+					this.rollbackBatch();
+				}
+				
 				this.database.commit();
 				this.database.close();
 			}
@@ -390,6 +465,192 @@ public class DBSet implements Observer, IDB {
 		this.actions++;
 	}
 	
+	/**
+	 * Start a write batch, usually around processing or orphaning a block.
+	 * <p>
+	 * Batches nest; only the outermost {@link #commitBatch()} may write to
+	 * disk. Has no effect on forks.
+	 * <p>
+	 * Waits for readers holding the {@link #getReadLock() read lock} and keeps
+	 * new ones out until the batch ends.
+	 */
+	public void beginBatch()
+	{
+		//NOT WHILE HOLDING OUR MONITOR, A BATCH IN PROGRESS MAY NEED IT
+		this.batchLock.writeLock().lock();
+		
+		synchronized(this)
+		{
+			this.batchDepth++;
+		}
+	}
+	
+	/**
+	 * Start a write batch whose failure must not cost more than the batch
+	 * itself.
+	 * <p>
+	 * Writes the blocks of earlier batches that are still waiting for their
+	 * commit to disk first, so {@link #rollbackBatch()} only undoes this
+	 * one. Nested in an open batch this is the same as {@link #beginBatch()}.
+	 */
+	public void beginIsolatedBatch()
+	{
+		this.batchLock.writeLock().lock();
+		
+		synchronized(this)
+		{
+			//NO OTHER BATCH CAN WRITE IN BETWEEN NOW
+			this.flush();
+			this.batchDepth++;
+		}
+	}
+	
+	/**
+	 * End a write batch.
+	 * <p>
+	 * When the outermost batch ends, the database is committed if the commit
+	 * policy says so: every block when we are up to date, every
+	 * <code>synccommitinterval</code> blocks while synchronizing. Whatever is
+	 * on disk therefore always ends on a block boundary.
+	 */
+	public synchronized void commitBatch()
+	{
+		//BATCH MAY ALREADY HAVE BEEN ROLLED BACK
+		if(this.batchDepth == 0)
+		{
+			return;
+		}
+		
+		this.batchDepth--;
+		try
+		{
+			if(this.batchDepth > 0 || this.database == null)
+			{
+				return;
+			}
+			
+			this.uncommittedBlocks++;
+			if(this.uncommittedBlocks >= this.getCommitInterval())
+			{
+				this.flush();
+			}
+		}
+		finally
+		{
+			this.unlockBatch(1);
+		}
+	}
+	
+	/**
+	 * Abort the open write batch.
+	 * <p>
+	 * Discards everything written since the last commit, which may include
+	 * blocks of earlier batches that were not yet written to disk, and
+	 * returns to that block boundary. Use {@link #beginIsolatedBatch()} when
+	 * that is not acceptable.
+	 * <p>
+	 * The controller is told, as the wallet and our peers may have seen
+	 * blocks that are gone now.
+	 */
+	public synchronized void rollbackBatch()
+	{
+		this.batchDepth = 0;
+		try
+		{
+			if(this.database == null)
+			{
+				return;
+			}
+			
+			this.database.rollback();
+			this.blockMap.reload();
+			this.uncommittedBlocks = 0;
+			this.actions = 0;
+			
+			//NOTIFY CONTROLLER SO HE CAN RESYNC WALLET AND PEERS
+			Controller.getInstance().onDatabaseRollback();
+		}
+		finally
+		{
+			this.unlockBatch(this.batchLock.getWriteHoldCount());
+		}
+	}
+	
+	private void unlockBatch(int count)
+	{
+		//ONLY THE THREAD THAT STARTED THE BATCH HOLDS THE LOCK
+		if(this.batchLock.isWriteLockedByCurrentThread())
+		{
+			for(int i=0; i<count; i++)
+			{
+				this.batchLock.writeLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Lock for reading a consistent state of the chain.
+	 * <p>
+	 * Readers may hold it at the same time, it is only held back while a
+	 * write batch is open. Hold it briefly and do not start a batch while
+	 * holding it.
+	 */
+	public Lock getReadLock()
+	{
+		return this.batchLock.readLock();
+	}
+	
+	/**
+	 * Write everything outside of an open batch to disk now.
+	 */
+	public synchronized void flush()
+	{
+		if(this.database == null || this.batchDepth > 0 || this.database.isClosed())
+		{
+			return;
+		}
+		
+		this.database.commit();
+		this.uncommittedBlocks = 0;
+		this.actions = 0;
+		
+		//NOTIFY CONTROLLER SO HE CAN NOTIFY WALLET
+		Controller.getInstance().onDatabaseCommit();
+	}
+	
+	/**
+	 * Blocks processed since the database was last written to disk.
+	 */
+	public synchronized int getUncommittedBlocks()
+	{
+		return this.uncommittedBlocks;
+	}
+	
+	/**
+	 * Commit every <code>interval</code> blocks, whatever the status of the
+	 * controller. Zero returns to the default policy.
+	 */
+	public synchronized void setCommitInterval(int interval)
+	{
+		this.commitInterval = interval;
+	}
+	
+	private int getCommitInterval()
+	{
+		if(this.commitInterval > 0)
+		{
+			return this.commitInterval;
+		}
+		
+		//COMMIT EVERY BLOCK WHEN UP TO DATE
+		if(Controller.getInstance().getStatus() != Controller.STATUS_SYNCHRONIZING)
+		{
+			return 1;
+		}
+		
+		return Math.max(1, Settings.getInstance().getSyncCommitInterval());
+	}
+	
 	@Override
 	public void update(Observable o, Object arg) 
 	{
@@ -399,14 +660,10 @@ public class DBSet implements Observer, IDB {
 		if(message.getType() == ObserverMessage.LIST_BLOCK_TYPE)
 		{			
 			
-			//CHECK IF WE NEED TO COMMIT
+			//CHECK IF WE NEED TO COMMIT WRITES MADE OUTSIDE OF BLOCKS
 			if(this.actions >= ACTIONS_BEFORE_COMMIT)
 			{
-				this.database.commit();
-				this.actions = 0;
-				
-				//NOTIFY CONTROLLER SO HE CAN NOTIFY WALLET
-				Controller.getInstance().onDatabaseCommit();
+				this.flush();
 			}
 		}
 	}
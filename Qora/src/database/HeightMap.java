@@ -1,7 +1,11 @@
 package database;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
 
 import org.mapdb.BTreeKeySerializer;
@@ -79,7 +83,58 @@ public class HeightMap extends DBMap<byte[], Integer>
 	
 	public byte[] getBlockByHeight(int height)
 	{
-		return heightIndex.get(height);
+		if(this.parent == null)
+		{
+			return heightIndex.get(height);
+		}
+		
+		//BLOCK SET IN FORK
+		for(Map.Entry<byte[], Integer> entry: this.map.entrySet())
+		{
+			if(entry.getValue() == height)
+			{
+				return entry.getKey();
+			}
+		}
+		
+		//BLOCK OF PARENT IF FORK DID NOT CHANGE IT
+		byte[] signature = ((HeightMap) this.parent).getBlockByHeight(height);
+		if(signature != null && this.get(signature) == height)
+		{
+			return signature;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Signatures of the blocks from height <code>from</code> up to and
+	 * including <code>to</code>, in order of height. Read as one range of the
+	 * height index, without loading any blocks.
+	 */
+	public Collection<byte[]> getBlocksByHeight(int from, int to)
+	{
+		if(from > to)
+		{
+			return new ArrayList<byte[]>();
+		}
+		
+		if(this.parent == null)
+		{
+			return ((NavigableMap<Integer, byte[]>) heightIndex).subMap(from, true, to, true).values();
+		}
+		
+		List<byte[]> signatures = new ArrayList<byte[]>();
+		for(int height=from; height<=to; height++)
+		{
+			byte[] signature = this.getBlockByHeight(height);
+			if(signature != null)
+			{
+				signatures.add(signature);
+			}
+		}
+		
+		return signatures;
 	}
 	
 	public void set(Block block, int height)
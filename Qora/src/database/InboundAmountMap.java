@@ -0,0 +1,111 @@
+package database;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mapdb.Atomic.Var;
+import org.mapdb.DB;
+import org.mapdb.Fun.Tuple2;
+
+/**
+ * Amount every address received per block, keyed by address and height.
+ * <p>
+ * Written when a block is processed and removed when it is orphaned, so the
+ * amount an address received in the last few blocks is a handful of point
+ * lookups instead of a walk over those blocks and their transactions.
+ * <p>
+ * Databases created before this map existed have no entries for the blocks
+ * they already hold. {@link #getIndexedFrom()} tells the first height that
+ * is known to be complete.
+ */
+public class InboundAmountMap extends DBMap<Tuple2<String, Integer>, BigDecimal>
+{
+	private Map<Integer, Integer> observableData = new HashMap<Integer, Integer>();
+
+	private int indexedFrom;
+
+	public InboundAmountMap(DBSet databaseSet, DB database)
+	{
+		super(databaseSet, database);
+
+		//FIRST HEIGHT PROCESSED WITH THIS MAP IN PLACE
+		if(!database.exists("inboundIndexedFrom"))
+		{
+			int height = databaseSet.getHeightMap().get(databaseSet.getBlockMap().getLastBlockSignature());
+			database.createAtomicVar("inboundIndexedFrom", Math.max(1, height + 1), null);
+		}
+		Var<Integer> indexedFromVar = database.getAtomicVar("inboundIndexedFrom");
+		this.indexedFrom = indexedFromVar.get();
+	}
+
+	public InboundAmountMap(InboundAmountMap parent)
+	{
+		super(parent);
+
+		this.indexedFrom = parent.getIndexedFrom();
+	}
+
+	protected void createIndexes(DB database){}
+
+	@Override
+	protected Map<Tuple2<String, Integer>, BigDecimal> getMap(DB database)
+	{
+		//OPEN MAP
+		return database.createTreeMap("inbound_amounts")
+				.makeOrGet();
+	}
+
+	@Override
+	protected Map<Tuple2<String, Integer>, BigDecimal> getMemoryMap()
+	{
+		return new HashMap<Tuple2<String, Integer>, BigDecimal>();
+	}
+
+	@Override
+	protected BigDecimal getDefaultValue()
+	{
+		return BigDecimal.ZERO.setScale(8);
+	}
+
+	@Override
+	protected Map<Integer, Integer> getObservableData()
+	{
+		return this.observableData;
+	}
+
+	public int getIndexedFrom()
+	{
+		return this.indexedFrom;
+	}
+
+	public BigDecimal get(String address, int height)
+	{
+		return this.get(new Tuple2<String, Integer>(address, height));
+	}
+
+	/**
+	 * Total the address received in the blocks from height <code>from</code>
+	 * up to and including <code>to</code>.
+	 */
+	public BigDecimal get(String address, int from, int to)
+	{
+		BigDecimal amount = BigDecimal.ZERO.setScale(8);
+		for(int height=from; height<=to; height++)
+		{
+			amount = amount.add(this.get(address, height));
+		}
+
+		return amount;
+	}
+
+	public void set(String address, int height, BigDecimal amount)
+	{
+		this.set(new Tuple2<String, Integer>(address, height), amount);
+	}
+
+	public void delete(String address, int height)
+	{
+		this.delete(new Tuple2<String, Integer>(address, height));
+	}
+}
@@ -34,6 +34,12 @@ public class OrderMap extends DBMap<BigInteger, Order>
 	@SuppressWarnings("rawtypes")
 	private BTreeMap wantHaveKeyMap;
 	
+	//SUM OF THE AMOUNTS LEFT PER HAVE ASSET
+	private Map<Long, BigDecimal> totals;
+	
+	//AMOUNT LEFT OF EVERY ORDER AS COUNTED IN THE TOTALS
+	private Map<BigInteger, BigDecimal> counted;
+	
 	public OrderMap(DBSet databaseSet, DB database)
 	{
 		super(databaseSet, database);
@@ -55,7 +61,59 @@ public class OrderMap extends DBMap<BigInteger, Order>
 	protected Map<BigInteger, Order> getMap(DB database) 
 	{
 		//OPEN MAP
-		return this.openMap(database);
+		BTreeMap<BigInteger, Order> map = this.openMap(database);
+		
+		//TOTALS, KEPT UP TO DATE ON EVERY CHANGE OF AN ORDER
+		boolean counted = database.exists("orders_amounts_left");
+		this.totals = database.createTreeMap("orders_totals")
+				.makeOrGet();
+		this.counted = database.createTreeMap("orders_amounts_left")
+				.makeOrGet();
+		
+		map.modificationListenerAdd(new Bind.MapListener<BigInteger, Order>() {
+			@Override
+			public void update(BigInteger key, Order oldValue, Order newValue) {
+				//OLD VALUE MAY BE THE SAME INSTANCE AS THE NEW ONE, CHANGED IN PLACE
+				Order order = newValue != null ? newValue : oldValue;
+				count(key, order.getHave(), newValue != null ? newValue.getAmountLeft() : null);
+			}
+		});
+		
+		//COUNT ORDERS STORED BEFORE THE TOTALS EXISTED
+		if(!counted)
+		{
+			this.totals.clear();
+			for(Map.Entry<BigInteger, Order> entry: map.entrySet())
+			{
+				this.count(entry.getKey(), entry.getValue().getHave(), entry.getValue().getAmountLeft());
+			}
+		}
+		
+		//RETURN
+		return map;
+	}
+	
+	private void count(BigInteger key, long have, BigDecimal amountLeft)
+	{
+		BigDecimal total = this.totals.get(have);
+		if(total == null)
+		{
+			total = BigDecimal.ZERO.setScale(8);
+		}
+		
+		//TAKE OUT WHAT WAS COUNTED BEFORE
+		BigDecimal previous = amountLeft == null ? this.counted.remove(key) : this.counted.put(key, amountLeft);
+		if(previous != null)
+		{
+			total = total.subtract(previous);
+		}
+		
+		if(amountLeft != null)
+		{
+			total = total.add(amountLeft);
+		}
+		
+		this.totals.put(have, total);
 	}
 
 	@Override
@@ -68,7 +126,7 @@ public class OrderMap extends DBMap<BigInteger, Order>
 	}
 	
 	@SuppressWarnings("unchecked")
-	private Map<BigInteger, Order> openMap(DB database)
+	private BTreeMap<BigInteger, Order> openMap(DB database)
 	{
 		//OPEN MAP
 		BTreeMap<BigInteger, Order> map = database.createTreeMap("orders")
@@ -316,4 +374,21 @@ public class OrderMap extends DBMap<BigInteger, Order>
 	{
 		this.delete(order.getId());
 	}
+	
+	/**
+	 * Sum of the amounts left of all open orders that have the asset.
+	 * <p>
+	 * Only the main database keeps totals, forks return the total of the
+	 * database they were forked from.
+	 */
+	public BigDecimal getTotalAmountLeft(long have)
+	{
+		if(this.parent != null)
+		{
+			return ((OrderMap) this.parent).getTotalAmountLeft(have);
+		}
+		
+		BigDecimal total = this.totals.get(have);
+		return total == null ? BigDecimal.ZERO.setScale(8) : total;
+	}
 }
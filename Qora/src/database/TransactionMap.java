@@ -1,7 +1,10 @@
 package database;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -12,13 +15,17 @@ import java.util.TreeMap;
 import ntp.NTP;
 
 import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.Bind;
 import org.mapdb.DB;
 import org.mapdb.Fun;
 import org.mapdb.Fun.Tuple2;
 import org.mapdb.Fun.Tuple2Comparator;
 
+import com.google.common.primitives.Bytes;
 import com.google.common.primitives.UnsignedBytes;
 
+import qora.account.PublicKeyAccount;
 import qora.transaction.Transaction;
 import utils.ObserverMessage;
 import utils.ReverseComparator;
@@ -28,9 +35,13 @@ import database.serializer.TransactionSerializer;
 public class TransactionMap extends DBMap<byte[], Transaction> implements Observer
 {
 	public static final int TIMESTAMP_INDEX = 1;
+	public static final int FEE_INDEX = 2;
 	
 	private Map<Integer, Integer> observableData = new HashMap<Integer, Integer>();
 	
+	//CREATOR AND REFERENCE TO SIGNATURE
+	private NavigableSet<Tuple2<byte[], byte[]>> referenceIndex;
+	
 	public TransactionMap(DBSet databaseSet, DB database)
 	{
 		super(databaseSet, database);
@@ -64,6 +75,50 @@ public class TransactionMap extends DBMap<byte[], Transaction> implements Observ
 		   		return value.getTimestamp();
 		    }
 		});
+		
+		//FEE PER BYTE INDEX
+		Tuple2Comparator<BigDecimal, byte[]> feeComparator = new Fun.Tuple2Comparator<BigDecimal, byte[]>(Fun.COMPARATOR, UnsignedBytes.lexicographicalComparator());
+		NavigableSet<Tuple2<BigDecimal, byte[]>> feeIndex = database.createTreeSet("transactions_index_fee")
+				.comparator(feeComparator)
+				.makeOrGet();
+				
+		NavigableSet<Tuple2<BigDecimal, byte[]>> descendingFeeIndex = database.createTreeSet("transactions_index_fee_descending")
+				.comparator(new ReverseComparator(feeComparator))
+				.makeOrGet();
+				
+		createIndex(FEE_INDEX, feeIndex, descendingFeeIndex, new Fun.Function2<BigDecimal, byte[], Transaction>() {
+		   	@Override
+		    public BigDecimal run(byte[] key, Transaction value) {
+		   		return value.feePerByte();
+		    }
+		});
+		
+		//REFERENCE INDEX
+		Tuple2Comparator<byte[], byte[]> referenceComparator = new Fun.Tuple2Comparator<byte[], byte[]>(UnsignedBytes.lexicographicalComparator(), UnsignedBytes.lexicographicalComparator());
+		this.referenceIndex = database.createTreeSet("transactions_index_reference")
+				.comparator(referenceComparator)
+				.makeOrGet();
+		
+		Bind.secondaryKey((BTreeMap<byte[], Transaction>) this.map, this.referenceIndex, new Fun.Function2<byte[], byte[], Transaction>() {
+			@Override
+			public byte[] run(byte[] key, Transaction value) {
+				return getReferenceKey(value);
+			}
+		});
+	}
+	
+	private static byte[] getReferenceKey(Transaction transaction)
+	{
+		byte[] reference = transaction.getReference() == null ? new byte[0] : transaction.getReference();
+		
+		//THE SAME REFERENCE IS THE LAST REFERENCE OF BOTH SENDER AND RECIPIENT OF A PAYMENT
+		PublicKeyAccount creator = transaction.getCreator();
+		if(creator == null)
+		{
+			return reference;
+		}
+		
+		return Bytes.concat(creator.getPublicKey(), reference);
 	}
 
 	@Override
@@ -104,21 +159,89 @@ public class TransactionMap extends DBMap<byte[], Transaction> implements Observ
 		//ON NEW BLOCK
 		if(message.getType() == ObserverMessage.ADD_BLOCK_TYPE)
 		{			
-			//CLEAN UP
-			for(Transaction transaction: this.getValues())
+			//CLEAN UP OLDEST FIRST, DEADLINE FOLLOWS TIMESTAMP
+			List<byte[]> expired = new ArrayList<byte[]>();
+			long now = NTP.getTime();
+			Iterator<byte[]> iterator = this.getIterator(TIMESTAMP_INDEX, false);
+			while(iterator.hasNext())
 			{
+				byte[] signature = iterator.next();
+				Transaction transaction = this.get(signature);
+				
 				//CHECK IF DEADLINE PASSED
-				if(transaction.getDeadline() < NTP.getTime())
+				if(transaction != null)
 				{
-					this.delete(transaction.getSignature());
+					if(transaction.getDeadline() >= now)
+					{
+						break;
+					}
 					
-					//NOTIFY
-					/*this.setChanged();
-					this.notifyObservers(new ObserverMessage(ObserverMessage.REMOVE_TRANSACTION_TYPE, transaction));*/
+					expired.add(signature);
 				}
 			}
+			
+			for(byte[] signature: expired)
+			{
+				this.delete(signature);
+			}
 		}
 	}
+	
+	/**
+	 * Removes a transaction that was included in a block, together with any
+	 * unconfirmed transaction of the same creator spending the same
+	 * reference. Those can never become valid anymore.
+	 */
+	public void deleteConfirmed(Transaction transaction)
+	{
+		this.delete(transaction.getSignature());
+		
+		for(byte[] signature: this.getSignaturesByReference(getReferenceKey(transaction)))
+		{
+			this.delete(signature);
+		}
+	}
+	
+	private List<byte[]> getSignaturesByReference(byte[] referenceKey)
+	{
+		List<byte[]> signatures = new ArrayList<byte[]>();
+		
+		if(this.parent == null)
+		{
+			//EMPTY SIGNATURE SORTS FIRST
+			for(Tuple2<byte[], byte[]> entry: this.referenceIndex.tailSet(Fun.t2(referenceKey, new byte[0]), true))
+			{
+				if(!Arrays.equals(entry.a, referenceKey))
+				{
+					break;
+				}
+				
+				signatures.add(entry.b);
+			}
+			
+			return signatures;
+		}
+		
+		//TRANSACTIONS ADDED TO THIS FORK
+		for(Transaction transaction: this.map.values())
+		{
+			if(Arrays.equals(getReferenceKey(transaction), referenceKey))
+			{
+				signatures.add(transaction.getSignature());
+			}
+		}
+		
+		//TRANSACTIONS OF PARENT NOT DELETED IN THIS FORK
+		for(byte[] signature: ((TransactionMap) this.parent).getSignaturesByReference(referenceKey))
+		{
+			if(!this.map.containsKey(signature) && this.contains(signature))
+			{
+				signatures.add(signature);
+			}
+		}
+		
+		return signatures;
+	}
 
 	public void add(Transaction transaction) {
 		this.set(transaction.getSignature(), transaction);
@@ -1,8 +1,9 @@
 package network;
 
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import lang.Lang;
 import ntp.NTP;
@@ -20,7 +21,7 @@ public class ConnectionAcceptor extends Thread{
 	
 	private static final Logger LOGGER = LogManager
 			.getLogger(ConnectionAcceptor.class);
-	private ServerSocket socket;
+	private ServerSocketChannel socket;
 	
 	private boolean isRun;
 	
@@ -39,7 +40,7 @@ public class ConnectionAcceptor extends Thread{
 				if(socket == null)
 				{
 					//START LISTENING
-					socket = new ServerSocket(Controller.getInstance().getNetworkPort()); 
+					socket = this.listen(); 
 				}
 				
 				
@@ -47,7 +48,7 @@ public class ConnectionAcceptor extends Thread{
 				if(Settings.getInstance().getMaxConnections() <= callback.getActiveConnections().size())
 				{
 					//IF SOCKET IS OPEN CLOSE IT
-					if(!socket.isClosed())
+					if(socket.isOpen())
 					{
 						socket.close();
 					}
@@ -57,27 +58,27 @@ public class ConnectionAcceptor extends Thread{
 				else
 				{		
 					//REOPEN SOCKET
-					if(socket.isClosed())
+					if(!socket.isOpen())
 					{
-						socket = new ServerSocket(Controller.getInstance().getNetworkPort()); 
+						socket = this.listen(); 
 					}
 					
 					//ACCEPT CONNECTION
-					Socket connectionSocket = socket.accept();
+					SocketChannel connectionSocket = socket.accept();
 					
 					//CHECK IF SOCKET IS NOT LOCALHOST || WE ARE ALREADY CONNECTED TO THAT SOCKET || BLACKLISTED
 					if(
-							/*connectionSocket.getInetAddress().isSiteLocalAddress() 
-							 * || connectionSocket.getInetAddress().isAnyLocalAddress() 
-							 * || connectionSocket.getInetAddress().isLoopbackAddress() 
+							/*connectionSocket.socket().getInetAddress().isSiteLocalAddress() 
+							 * || connectionSocket.socket().getInetAddress().isAnyLocalAddress() 
+							 * || connectionSocket.socket().getInetAddress().isLoopbackAddress() 
 							 *  */
 							(
 									(NTP.getTime() < Transaction.getPOWFIX_RELEASE() ) 
 									&& 
-									callback.isConnectedTo(connectionSocket.getInetAddress())
+									callback.isConnectedTo(connectionSocket.socket().getInetAddress())
 							)
 							||
-							PeerManager.getInstance().isBlacklisted(connectionSocket.getInetAddress()))
+							PeerManager.getInstance().isBlacklisted(connectionSocket.socket().getInetAddress()))
 					{
 						//DO NOT CONNECT TO OURSELF/EXISTING CONNECTION
 						connectionSocket.close();
@@ -89,7 +90,7 @@ public class ConnectionAcceptor extends Thread{
 					}
 				}
 			}
-			catch(SocketException e)
+			catch(IOException e)
 			{
 			    if (this.isRun)
 			    {
@@ -105,11 +106,19 @@ public class ConnectionAcceptor extends Thread{
 		}
 	}
 	
+	private ServerSocketChannel listen() throws IOException
+	{
+		//BLOCKING ACCEPT, PEERS SWITCH TO NON-BLOCKING
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(Controller.getInstance().getNetworkPort()));
+		return channel;
+	}
+	
 	public void halt()
 	{
 		this.isRun = false;
 
-		if (socket != null && !socket.isClosed()) {
+		if (socket != null && socket.isOpen()) {
 		    try {
 		        socket.close();
 		    } catch (Exception e) {
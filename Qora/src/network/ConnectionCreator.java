@@ -1,6 +1,9 @@
 package network;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import lang.Lang;
 import network.message.Message;
@@ -37,8 +40,8 @@ public class ConnectionCreator extends Thread {
 				//CHECK IF WE NEED NEW CONNECTIONS
 				if(this.isRun && Settings.getInstance().getMinConnections() >= callback.getActiveConnections().size())
 				{			
-					//GET LIST OF KNOWN PEERS
-					List<Peer> knownPeers = PeerManager.getInstance().getKnownPeers();
+					//GET LIST OF KNOWN PEERS, THOSE THAT SERVED US BEST FIRST
+					List<Peer> knownPeers = PeerScores.getInstance().sort(PeerManager.getInstance().getKnownPeers());
 					
 					int knownPeersCounter = 0;
 										
@@ -48,7 +51,7 @@ public class ConnectionCreator extends Thread {
 						knownPeersCounter ++;
 	
 						//CHECK IF WE ALREADY HAVE MAX CONNECTIONS
-						if(this.isRun && Settings.getInstance().getMaxConnections() > callback.getActiveConnections().size())
+						if(this.isRun && Settings.getInstance().getMaxConnections() > this.getConnectionCount())
 						{
 							//CHECK IF ALREADY CONNECTED TO PEER
 							if(!callback.isConnectedTo(peer.getAddress()))
@@ -75,18 +78,30 @@ public class ConnectionCreator extends Thread {
 				//CHECK IF WE STILL NEED NEW CONNECTIONS
 				if(this.isRun && Settings.getInstance().getMinConnections() >= callback.getActiveConnections().size())
 				{
-					//OLD SCHOOL ITERATE activeConnections
+					//COPY activeConnections
 					//avoids Exception when adding new elements
-					for(int i=0; i<callback.getActiveConnections().size(); i++)
+					List<Peer> activeConnections;
+					synchronized(callback.getActiveConnections())
 					{
-						Peer peer = callback.getActiveConnections().get(i);
+						activeConnections = new ArrayList<Peer>(callback.getActiveConnections());
+					}
+					
+					//ASK ALL PEERS FOR PEERS AT ONCE
+					List<CompletableFuture<Message>> peersRequests = new ArrayList<CompletableFuture<Message>>();
+					for(Peer peer: activeConnections)
+					{
+						peersRequests.add(peer.request(MessageFactory.getInstance().createGetPeersMessage()));
+					}
+					
+					for(int i=0; i<activeConnections.size(); i++)
+					{
+						Peer peer = activeConnections.get(i);
 	
 						//CHECK IF WE ALREADY HAVE MAX CONNECTIONS
-						if(this.isRun && Settings.getInstance().getMaxConnections() > callback.getActiveConnections().size())
+						if(this.isRun && Settings.getInstance().getMaxConnections() > this.getConnectionCount())
 						{
-								//ASK PEER FOR PEERS
-								Message getPeersMessage = MessageFactory.getInstance().createGetPeersMessage();
-								PeersMessage peersMessage = (PeersMessage) peer.getResponse(getPeersMessage);
+								//WAIT FOR PEERS OF PEER
+								PeersMessage peersMessage = this.getPeers(peersRequests.get(i));
 								if(peersMessage != null)
 								{
 									int foreignPeersCounter = 0;
@@ -95,7 +110,7 @@ public class ConnectionCreator extends Thread {
 									for(Peer newPeer: peersMessage.getPeers())
 									{		
 										//CHECK IF WE ALREADY HAVE MAX CONNECTIONS
-										if(this.isRun && Settings.getInstance().getMaxConnections() > callback.getActiveConnections().size())
+										if(this.isRun && Settings.getInstance().getMaxConnections() > this.getConnectionCount())
 										{
 											if(foreignPeersCounter >= maxReceivePeers) {
 												break;
@@ -151,6 +166,25 @@ public class ConnectionCreator extends Thread {
 		}
 	}
 	
+	private PeersMessage getPeers(CompletableFuture<Message> request) throws InterruptedException
+	{
+		try
+		{
+			return (PeersMessage) request.get();
+		}
+		catch(ExecutionException e)
+		{
+			//PEER DID NOT ANSWER
+			return null;
+		}
+	}
+	
+	private int getConnectionCount()
+	{
+		//CONNECTIONS ARE MADE IN THE BACKGROUND, COUNT THOSE UNDERWAY
+		return callback.getActiveConnections().size() + Transport.getInstance().getPendingConnections();
+	}
+	
 	public void halt()
 	{
 		this.isRun = false;
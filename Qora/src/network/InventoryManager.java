@@ -0,0 +1,324 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import database.DBSet;
+import network.message.MessageFactory;
+import qora.transaction.Transaction;
+
+/**
+ * Gossips unconfirmed transactions by announcing their signatures.
+ * <p>
+ * Instead of sending every transaction to every peer, signatures are queued
+ * per peer and sent in batches every {@link #TRICKLE_INTERVAL}. Peers only
+ * request the transactions they do not have yet, from one peer at a time,
+ * moving on to the next peer that announced it if one does not deliver.
+ * Signatures a peer is known to have are never announced to it.
+ */
+public class InventoryManager
+{
+	private static final long TRICKLE_INTERVAL = 1000;
+	private static final int MAX_INVENTORY_SIZE = 1000;
+	private static final int MAX_KNOWN_PER_PEER = 2000;
+
+	//ASK ANOTHER PEER IF THE FIRST ONE DID NOT DELIVER IN TIME
+	private static final long REQUEST_TIMEOUT = 10000;
+	private static final int MAX_ANNOUNCERS = 8;
+
+	private static final Logger LOGGER = LogManager.getLogger(InventoryManager.class);
+
+	private static InventoryManager instance;
+
+	private ConcurrentHashMap<Peer, PeerInventory> inventories;
+	private ConcurrentHashMap<ByteBuffer, Request> requested;
+
+	public static synchronized InventoryManager getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new InventoryManager();
+		}
+
+		return instance;
+	}
+
+	private InventoryManager()
+	{
+		this.inventories = new ConcurrentHashMap<Peer, PeerInventory>();
+		this.requested = new ConcurrentHashMap<ByteBuffer, Request>();
+
+		Transport.getInstance().getScheduler().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					trickle();
+				}
+				catch(Exception e)
+				{
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+		}, TRICKLE_INTERVAL, TRICKLE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private PeerInventory getInventory(Peer peer)
+	{
+		PeerInventory inventory = this.inventories.get(peer);
+		if(inventory == null)
+		{
+			inventory = new PeerInventory();
+			PeerInventory existing = this.inventories.putIfAbsent(peer, inventory);
+			if(existing != null)
+			{
+				inventory = existing;
+			}
+		}
+
+		return inventory;
+	}
+
+	/**
+	 * Queue the transaction to be announced to the peer with the next batch,
+	 * unless the peer already has it.
+	 */
+	public void announce(Peer peer, Transaction transaction)
+	{
+		this.getInventory(peer).announce(ByteBuffer.wrap(transaction.getSignature()));
+	}
+
+	/**
+	 * Signatures announced by the peer that we do not have and did not ask
+	 * anyone else for yet. They are marked as requested, the others are
+	 * asked from the peer later if the peers asked before do not deliver.
+	 */
+	public List<byte[]> onInventory(Peer peer, List<byte[]> signatures)
+	{
+		PeerInventory inventory = this.getInventory(peer);
+		List<byte[]> wanted = new ArrayList<byte[]>();
+		long now = System.currentTimeMillis();
+
+		for(byte[] signature: signatures)
+		{
+			ByteBuffer key = ByteBuffer.wrap(signature);
+			inventory.addKnown(key);
+
+			//ALREADY UNCONFIRMED OR IN A BLOCK
+			if(DBSet.getInstance().getTransactionMap().contains(signature)
+					|| DBSet.getInstance().getTransactionParentMap().contains(signature))
+			{
+				continue;
+			}
+
+			//ALREADY ASKED SOMEONE, KEEP THE PEER IN CASE THEY DO NOT DELIVER
+			Request request = this.requested.putIfAbsent(key, new Request(peer, now));
+			if(request != null)
+			{
+				request.addAnnouncer(peer);
+				continue;
+			}
+
+			wanted.add(signature);
+		}
+
+		return wanted;
+	}
+
+	/**
+	 * Unconfirmed transactions the peer asked for, those we no longer have
+	 * are left out.
+	 */
+	public List<Transaction> onGetTransactions(Peer peer, List<byte[]> signatures)
+	{
+		PeerInventory inventory = this.getInventory(peer);
+		List<Transaction> transactions = new ArrayList<Transaction>();
+
+		for(byte[] signature: signatures)
+		{
+			Transaction transaction = DBSet.getInstance().getTransactionMap().get(signature);
+			if(transaction != null)
+			{
+				inventory.addKnown(ByteBuffer.wrap(signature));
+				transactions.add(transaction);
+			}
+		}
+
+		return transactions;
+	}
+
+	/**
+	 * The peer sent us the transaction, so it has it and we no longer wait
+	 * for it.
+	 */
+	public void onTransaction(Peer peer, Transaction transaction)
+	{
+		ByteBuffer key = ByteBuffer.wrap(transaction.getSignature());
+		this.requested.remove(key);
+
+		if(peer != null)
+		{
+			this.getInventory(peer).addKnown(key);
+		}
+	}
+
+	public void removePeer(Peer peer)
+	{
+		this.inventories.remove(peer);
+	}
+
+	private void trickle()
+	{
+		for(Map.Entry<Peer, PeerInventory> entry: this.inventories.entrySet())
+		{
+			List<byte[]> signatures;
+			while(!(signatures = entry.getValue().takePending(MAX_INVENTORY_SIZE)).isEmpty())
+			{
+				entry.getKey().sendMessage(MessageFactory.getInstance().createInventoryMessage(signatures));
+			}
+		}
+
+		//ASK THE NEXT PEER FOR REQUESTS THAT TIMED OUT
+		long now = System.currentTimeMillis();
+		Map<Peer, List<byte[]>> retries = new LinkedHashMap<Peer, List<byte[]>>();
+		Iterator<Map.Entry<ByteBuffer, Request>> iterator = this.requested.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			Map.Entry<ByteBuffer, Request> entry = iterator.next();
+			if(now - entry.getValue().getTime() < REQUEST_TIMEOUT)
+			{
+				continue;
+			}
+
+			//SKIP PEERS THAT DISCONNECTED SINCE THEY ANNOUNCED IT
+			Peer peer = entry.getValue().next(now);
+			while(peer != null && !this.inventories.containsKey(peer))
+			{
+				peer = entry.getValue().next(now);
+			}
+
+			//FORGET IT IF NOBODY IS LEFT TO ASK
+			if(peer == null)
+			{
+				iterator.remove();
+				continue;
+			}
+
+			List<byte[]> signatures = retries.get(peer);
+			if(signatures == null)
+			{
+				signatures = new ArrayList<byte[]>();
+				retries.put(peer, signatures);
+			}
+
+			signatures.add(entry.getKey().array());
+		}
+
+		for(Map.Entry<Peer, List<byte[]>> entry: retries.entrySet())
+		{
+			entry.getKey().sendMessage(MessageFactory.getInstance().createGetTransactionsMessage(entry.getValue()));
+		}
+	}
+
+	private static class Request
+	{
+		private long time;
+		private Peer asked;
+		private Deque<Peer> announcers;
+
+		public Request(Peer asked, long time)
+		{
+			this.asked = asked;
+			this.time = time;
+			this.announcers = new ArrayDeque<Peer>();
+		}
+
+		public synchronized long getTime()
+		{
+			return this.time;
+		}
+
+		public synchronized void addAnnouncer(Peer peer)
+		{
+			if(peer != this.asked && this.announcers.size() < MAX_ANNOUNCERS && !this.announcers.contains(peer))
+			{
+				this.announcers.add(peer);
+			}
+		}
+
+		/**
+		 * Marks the next peer that announced the signature as asked.
+		 *
+		 * @return the peer, or <code>null</code> if none is left
+		 */
+		public synchronized Peer next(long time)
+		{
+			this.asked = this.announcers.poll();
+			this.time = time;
+			return this.asked;
+		}
+	}
+
+	private static class PeerInventory
+	{
+		private Set<ByteBuffer> pending;
+		private Map<ByteBuffer, Boolean> known;
+
+		public PeerInventory()
+		{
+			this.pending = new LinkedHashSet<ByteBuffer>();
+			this.known = new LinkedHashMap<ByteBuffer, Boolean>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+					return this.size() > MAX_KNOWN_PER_PEER;
+				}
+			};
+		}
+
+		public synchronized void announce(ByteBuffer signature)
+		{
+			if(!this.known.containsKey(signature))
+			{
+				this.pending.add(signature);
+			}
+		}
+
+		public synchronized void addKnown(ByteBuffer signature)
+		{
+			this.known.put(signature, Boolean.TRUE);
+			this.pending.remove(signature);
+		}
+
+		public synchronized List<byte[]> takePending(int max)
+		{
+			List<byte[]> signatures = new ArrayList<byte[]>();
+			Iterator<ByteBuffer> iterator = this.pending.iterator();
+			while(iterator.hasNext() && signatures.size() < max)
+			{
+				ByteBuffer signature = iterator.next();
+				iterator.remove();
+
+				//ANNOUNCED ONCE IS ENOUGH
+				this.known.put(signature, Boolean.TRUE);
+				signatures.add(signature.array());
+			}
+
+			return signatures;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * Remembers the hashes of the most recently handled messages in a fixed
+ * amount of memory.
+ * <p>
+ * Hashes are kept as longs in two open addressing tables, the current and
+ * the previous generation. New hashes go into the current one. When it is
+ * full the previous generation is cleared and the current one takes its
+ * place, so hashes are forgotten in the order they were added, after at
+ * least one and at most two generations.
+ * <p>
+ * Lookups and inserts do not lock. A hash added while the generations
+ * rotate may be forgotten early, which at worst means a message is handled
+ * twice.
+ */
+public class MessageFilter
+{
+	//TABLE SIZE PER ENTRY, KEEPS PROBES SHORT
+	private static final int LOAD_FACTOR_INVERSE = 2;
+
+	//MARKS AN EMPTY SLOT, NO HASH IS STORED AS 0
+	private static final long EMPTY = 0;
+
+	private final int entriesPerGeneration;
+	private volatile Generation current;
+	private volatile Generation previous;
+
+	private AtomicLong checked;
+	private AtomicLong duplicates;
+
+	/**
+	 * @param entries number of hashes remembered at least
+	 */
+	public MessageFilter(int entries)
+	{
+		this.entriesPerGeneration = entries;
+		this.current = new Generation(entries * LOAD_FACTOR_INVERSE);
+		this.previous = new Generation(entries * LOAD_FACTOR_INVERSE);
+		this.checked = new AtomicLong();
+		this.duplicates = new AtomicLong();
+	}
+
+	/**
+	 * Add the hash unless it was added before.
+	 *
+	 * @return <code>true</code> if the hash is new
+	 */
+	public boolean add(byte[] hash)
+	{
+		this.checked.incrementAndGet();
+
+		long key = toKey(hash);
+		Generation current = this.current;
+		if(this.previous.contains(key) || !current.add(key))
+		{
+			this.duplicates.incrementAndGet();
+			return false;
+		}
+
+		if(current.count.get() >= this.entriesPerGeneration)
+		{
+			this.rotate(current);
+		}
+
+		return true;
+	}
+
+	public boolean contains(byte[] hash)
+	{
+		long key = toKey(hash);
+		return this.current.contains(key) || this.previous.contains(key);
+	}
+
+	private synchronized void rotate(Generation full)
+	{
+		//ANOTHER THREAD ROTATED ALREADY
+		if(this.current != full)
+		{
+			return;
+		}
+
+		//REUSE THE OLDEST GENERATION
+		Generation oldest = this.previous;
+		oldest.clear();
+
+		this.previous = full;
+		this.current = oldest;
+	}
+
+	private static long toKey(byte[] hash)
+	{
+		long key = Longs.fromBytes(hash[0], hash[1], hash[2], hash[3], hash[4], hash[5], hash[6], hash[7]);
+		return key == EMPTY ? 1 : key;
+	}
+
+	/**
+	 * Number of hashes checked since start.
+	 */
+	public long getCheckedCount()
+	{
+		return this.checked.get();
+	}
+
+	/**
+	 * Number of checked hashes that were handled already.
+	 */
+	public long getDuplicateCount()
+	{
+		return this.duplicates.get();
+	}
+
+	/**
+	 * Share of checked hashes that were handled already, between 0 and 1.
+	 */
+	public double getHitRate()
+	{
+		long checked = this.checked.get();
+		return checked == 0 ? 0 : (double) this.duplicates.get() / checked;
+	}
+
+	private static class Generation
+	{
+		private AtomicLongArray slots;
+		private AtomicInteger count;
+		private int mask;
+
+		public Generation(int minimumSize)
+		{
+			int size = Integer.highestOneBit(Math.max(2, minimumSize) - 1) << 1;
+			this.slots = new AtomicLongArray(size);
+			this.count = new AtomicInteger();
+			this.mask = size - 1;
+		}
+
+		private int start(long key)
+		{
+			//HASHES ARE RANDOM ALREADY
+			return (int) (key ^ (key >>> 32)) & this.mask;
+		}
+
+		public boolean contains(long key)
+		{
+			int slot = this.start(key);
+			for(int i=0; i<=this.mask; i++)
+			{
+				long value = this.slots.get(slot);
+				if(value == key)
+				{
+					return true;
+				}
+
+				if(value == EMPTY)
+				{
+					return false;
+				}
+
+				slot = (slot + 1) & this.mask;
+			}
+
+			return false;
+		}
+
+		/**
+		 * @return <code>false</code> if the key was present already
+		 */
+		public boolean add(long key)
+		{
+			int slot = this.start(key);
+			for(int i=0; i<=this.mask; i++)
+			{
+				long value = this.slots.get(slot);
+				if(value == key)
+				{
+					return false;
+				}
+
+				if(value == EMPTY)
+				{
+					if(this.slots.compareAndSet(slot, EMPTY, key))
+					{
+						this.count.incrementAndGet();
+						return true;
+					}
+
+					//SOMEONE ELSE TOOK THE SLOT, CHECK IT AGAIN
+					if(this.slots.get(slot) == key)
+					{
+						return false;
+					}
+				}
+
+				slot = (slot + 1) & this.mask;
+			}
+
+			//FULL, ONLY WHEN ROTATING FELL BEHIND
+			return true;
+		}
+
+		public void clear()
+		{
+			for(int i=0; i<=this.mask; i++)
+			{
+				this.slots.set(i, EMPTY);
+			}
+
+			this.count.set(0);
+		}
+	}
+}
@@ -4,12 +4,9 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import lang.Lang;
 import network.message.FindMyselfMessage;
@@ -36,7 +33,7 @@ public class Network extends Observable implements ConnectionCallback {
 	
 	private List<Peer> connectedPeers;
 	
-	private SortedSet<String> handledMessages;
+	private MessageFilter handledMessages;
 	
 	private boolean run;
 	
@@ -50,7 +47,7 @@ public class Network extends Observable implements ConnectionCallback {
 	
 	private void start()
 	{
-		this.handledMessages = Collections.synchronizedSortedSet(new TreeSet<String>());
+		this.handledMessages = new MessageFilter(MAX_HANDLED_MESSAGES_SIZE);
 		
 		//START ConnectionCreator THREAD
 		creator = new ConnectionCreator(this);
@@ -96,13 +93,13 @@ public class Network extends Observable implements ConnectionCallback {
 		{
 			this.connectedPeers.remove(peer);
 		}
+		InventoryManager.getInstance().removePeer(peer);
 		
 		//PASS TO CONTROLLER
 		Controller.getInstance().onDisconnect(peer);
 		
 		//CLOSE CONNECTION IF STILL ACTIVE
 		peer.close();
-		peer.interrupt(); // might be handled inside peer.close()
 		
 		//NOTIFY OBSERVERS
 		this.setChanged();
@@ -122,6 +119,7 @@ public class Network extends Observable implements ConnectionCallback {
 		{
 			this.connectedPeers.remove(peer);
 		}
+		InventoryManager.getInstance().removePeer(peer);
 		
 		//ADD TO BLACKLIST
 		PeerManager.getInstance().blacklistPeer(peer);
@@ -131,7 +129,6 @@ public class Network extends Observable implements ConnectionCallback {
 		
 		//CLOSE CONNECTION IF STILL ACTIVE
 		peer.close();
-		peer.interrupt();
 					
 		//NOTIFY OBSERVERS
 		this.setChanged();
@@ -179,25 +176,9 @@ public class Network extends Observable implements ConnectionCallback {
 		return this.connectedPeers;
 	}
 	
-	private void addHandledMessage(byte[] hash)
-	{
-		try
-		{
-			synchronized(this.handledMessages)
-			{
-				//CHECK IF LIST IS FULL
-				if(this.handledMessages.size() > MAX_HANDLED_MESSAGES_SIZE)
-				{
-					this.handledMessages.remove(this.handledMessages.first());
-				}
-				
-				this.handledMessages.add(new String(hash));
-			}
-		}
-		catch(Exception e)
-		{
-			LOGGER.error(e.getMessage(),e);
-		}
+	public MessageFilter getHandledMessages() {
+		
+		return this.handledMessages;
 	}
 
 	@Override
@@ -212,16 +193,9 @@ public class Network extends Observable implements ConnectionCallback {
 		//ONLY HANDLE BLOCK AND TRANSACTION MESSAGES ONCE
 		if(message.getType() == Message.TRANSACTION_TYPE || message.getType() == Message.BLOCK_TYPE)
 		{
-			synchronized(this.handledMessages)
+			if(!this.handledMessages.add(message.getHash()))
 			{
-				//CHECK IF NOT HANDLED ALREADY
-				if(this.handledMessages.contains(new String(message.getHash())))
-				{
-					return;
-				}
-				
-				//ADD TO HANDLED MESSAGES
-				this.addHandledMessage(message.getHash());
+				return;
 			}
 		}		
 		
@@ -0,0 +1,217 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import network.message.Message;
+import qora.block.Block;
+
+/**
+ * Messages waiting to be written to a peer.
+ * <p>
+ * Messages are queued in lanes by priority: pings and chain requests first,
+ * then blocks, transactions and peer lists. Each lane is bounded in bytes.
+ * A full transaction or peer list lane drops new messages, a full control or
+ * block lane means the peer cannot keep up and should be disconnected.
+ * <p>
+ * Any thread may offer messages, only the selector thread of the peer
+ * writes them.
+ */
+class OutboundQueue
+{
+	public enum Result { QUEUED, DROPPED, FULL }
+
+	private static final int CONTROL = 0;
+	private static final int BLOCKS = 1;
+	private static final int TRANSACTIONS = 2;
+	private static final int PEERS = 3;
+
+	private static final long[] MAX_BYTES = {1024 * 1024, 8L * Block.MAX_BLOCK_BYTES, 2 * 1024 * 1024, 256 * 1024};
+	private static final boolean[] DISCONNECT_WHEN_FULL = {true, true, false, false};
+
+	// queued messages written with one call
+	private static final int MAX_GATHERED_WRITES = 64;
+
+	private List<Queue<ByteBuffer>> lanes;
+	private AtomicInteger[] sizes;
+	private AtomicLong[] bytes;
+	private AtomicLong dropped;
+
+	// partly written message, finished before any other
+	private volatile ByteBuffer current;
+
+	public OutboundQueue()
+	{
+		this.lanes = new ArrayList<Queue<ByteBuffer>>();
+		this.sizes = new AtomicInteger[MAX_BYTES.length];
+		this.bytes = new AtomicLong[MAX_BYTES.length];
+		this.dropped = new AtomicLong();
+
+		for(int i=0; i<MAX_BYTES.length; i++)
+		{
+			this.lanes.add(new ConcurrentLinkedQueue<ByteBuffer>());
+			this.sizes[i] = new AtomicInteger();
+			this.bytes[i] = new AtomicLong();
+		}
+	}
+
+	private static int getLane(Message message)
+	{
+		switch(message.getType())
+		{
+		case Message.BLOCK_TYPE:
+		case Message.COMPACT_BLOCK_TYPE:
+		case Message.BLOCK_TRANSACTIONS_TYPE:
+		case Message.BLOCK_HEADERS_TYPE:
+			return BLOCKS;
+
+		case Message.TRANSACTION_TYPE:
+		case Message.INVENTORY_TYPE:
+			return TRANSACTIONS;
+
+		case Message.PEERS_TYPE:
+			return PEERS;
+
+		default:
+			return CONTROL;
+		}
+	}
+
+	public Result offer(Message message)
+	{
+		int lane = getLane(message);
+		ByteBuffer buffer = message.getWireBuffer();
+
+		//CHECK IF PEER KEEPS UP
+		if(this.bytes[lane].get() + buffer.remaining() > MAX_BYTES[lane])
+		{
+			if(DISCONNECT_WHEN_FULL[lane])
+			{
+				return Result.FULL;
+			}
+
+			this.dropped.incrementAndGet();
+			return Result.DROPPED;
+		}
+
+		this.bytes[lane].addAndGet(buffer.remaining());
+		this.sizes[lane].incrementAndGet();
+		this.lanes.get(lane).add(buffer);
+
+		return Result.QUEUED;
+	}
+
+	public boolean isEmpty()
+	{
+		if(this.current != null)
+		{
+			return false;
+		}
+
+		for(Queue<ByteBuffer> lane: this.lanes)
+		{
+			if(!lane.isEmpty())
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write queued messages in order of priority until the channel would
+	 * block. Messages are gathered into a single write.
+	 */
+	public void write(SocketChannel channel) throws IOException
+	{
+		while(!this.isEmpty())
+		{
+			//GATHER FROM THE HEAD OF EVERY LANE BY PRIORITY
+			List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+			List<Integer> bufferLanes = new ArrayList<Integer>();
+			if(this.current != null)
+			{
+				buffers.add(this.current);
+				bufferLanes.add(-1);
+			}
+
+			for(int lane=0; lane<this.lanes.size() && buffers.size() < MAX_GATHERED_WRITES; lane++)
+			{
+				Iterator<ByteBuffer> iterator = this.lanes.get(lane).iterator();
+				while(iterator.hasNext() && buffers.size() < MAX_GATHERED_WRITES)
+				{
+					buffers.add(iterator.next());
+					bufferLanes.add(lane);
+				}
+			}
+
+			channel.write(buffers.toArray(new ByteBuffer[buffers.size()]));
+
+			//TAKE WHAT IS WRITTEN, ONLY THIS THREAD TAKES FROM THE LANES
+			for(int i=0; i<buffers.size(); i++)
+			{
+				ByteBuffer buffer = buffers.get(i);
+				int lane = bufferLanes.get(i);
+
+				if(buffer.position() == 0)
+				{
+					//NOTHING MORE WRITTEN
+					return;
+				}
+
+				if(lane != -1)
+				{
+					this.lanes.get(lane).poll();
+					this.sizes[lane].decrementAndGet();
+					this.bytes[lane].addAndGet(-buffer.limit());
+				}
+
+				if(buffer.hasRemaining())
+				{
+					//FINISH THIS ONE FIRST NEXT TIME
+					this.current = buffer;
+					return;
+				}
+
+				this.current = null;
+			}
+		}
+	}
+
+	public int getQueuedMessages()
+	{
+		int count = this.current != null ? 1 : 0;
+		for(AtomicInteger size: this.sizes)
+		{
+			count += size.get();
+		}
+
+		return count;
+	}
+
+	public long getQueuedBytes()
+	{
+		ByteBuffer current = this.current;
+		long count = current != null ? current.remaining() : 0;
+		for(AtomicLong size: this.bytes)
+		{
+			count += size.get();
+		}
+
+		return count;
+	}
+
+	public long getDroppedMessages()
+	{
+		return this.dropped.get();
+	}
+}
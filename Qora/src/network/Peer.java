@@ -1,20 +1,19 @@
 package network;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import lang.Lang;
 import network.message.Message;
@@ -25,24 +24,37 @@ import ntp.NTP;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import qora.block.Block;
 import settings.Settings;
 import controller.Controller;
 import database.DBSet;
 
-public class Peer extends Thread {
+public class Peer {
 
 	private InetAddress address;
 	private ConnectionCallback callback;
-	private Socket socket;
-	private OutputStream out;
+	private SocketChannel channel;
+	private Transport.SelectorLoop loop;
 	private Pinger pinger;
 	private boolean white;
 	private long pingCounter;
 	private long connectionTime;
 
-	private static final int INACTIVITY_TIMEOUT = 60 * 60 * 1000; // one hour
+	private AtomicBoolean connecting;
+	private AtomicBoolean closed;
+	private ByteBuffer readBuffer;
+	private int frameLength;
+	private OutboundQueue outbound;
+	private Queue<Runnable> tasks;
+	private AtomicBoolean dispatching;
+
+	private static final int READ_BUFFER_SIZE = 8 * 1024;
+	// largest message is a block, leave room for what surrounds it
+	private static final int MAX_DATA_LENGTH = 2 * Block.MAX_BLOCK_BYTES;
+	// upcalls handled for one peer before giving others a turn
+	private static final int MAX_DISPATCH_BATCH = 16;
 	private static final Logger LOGGER = LogManager.getLogger(Peer.class);
-	private Map<Integer, BlockingQueue<Message>> messages;
+	private PendingRequests requests;
 
 	/**
 	 * Construct simple, non-connected Peer
@@ -51,59 +63,68 @@ public class Peer extends Thread {
 	 */
 	public Peer(InetAddress address) {
 		this.address = address;
+		this.connecting = new AtomicBoolean();
+		this.closed = new AtomicBoolean();
 	}
 
 	/**
-	 * Construct Peer based on existing connected <code>socket</code>
+	 * Construct Peer based on existing connected <code>channel</code>
 	 * <p>
 	 * 
 	 * @param callback
-	 * @param socket
+	 * @param channel
 	 */
-	public Peer(ConnectionCallback callback, Socket socket) {
+	public Peer(ConnectionCallback callback, SocketChannel channel) {
+		this(channel.socket().getInetAddress());
+
 		this.callback = callback;
-		this.socket = socket;
-		this.address = socket.getInetAddress();
+		this.channel = channel;
 
-		this.setup(false);
+		if (this.setup(false)) {
+			// Start reading
+			Transport.getInstance().register(this, channel);
+		}
 	}
 
 	/**
 	 * Set up initial peer values
 	 * <p>
-	 * Set up initial peer settings, e.g. socket timeout, ping thread & counter,
-	 * etc.<br>
+	 * Set up initial peer settings, e.g. buffers, ping task & counter, etc.<br>
 	 * Will close peer if setup fails. On success, will call
-	 * <code>ConnectionCallback.onConnect</code>
+	 * <code>ConnectionCallback.onConnect</code> before any message is passed
+	 * on.
 	 * 
-	 * @param white
+	 * @param white <code>true</code> if we made the connection
+	 * @return <code>true</code> if peer is set up
 	 * @see Pinger
 	 * @see ConnectionCallback#onConnect(Peer)
 	 */
-	private void setup(boolean white) {
+	private boolean setup(boolean white) {
 		try {
-			this.messages = Collections.synchronizedMap(new HashMap<Integer, BlockingQueue<Message>>());
+			this.requests = new PendingRequests(this, white);
 			this.white = white;
 			this.pingCounter = 0;
 			this.connectionTime = NTP.getTime();
 
-			// Enable TCP keep-alive packets
-			// this.socket.setKeepAlive(true);
-
-			// Inactivity timeout - see run()
-			this.socket.setSoTimeout(INACTIVITY_TIMEOUT);
+			this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			this.outbound = new OutboundQueue();
+			this.tasks = new ConcurrentLinkedQueue<Runnable>();
+			this.dispatching = new AtomicBoolean();
 
-			// Grab reference to output stream
-			this.out = socket.getOutputStream();
+			this.channel.configureBlocking(false);
 
-			// Start main communication thread
-			this.start();
+			// Notify peer is connected
+			this.dispatch(new Runnable() {
+				@Override
+				public void run() {
+					callback.onConnect(Peer.this);
+				}
+			});
 
-			// Start Pinger (requires main communication thread)
+			// Start Pinger
 			this.pinger = new Pinger(this);
 
-			// Notify peer is connected
-			this.callback.onConnect(this);
+			return true;
 		} catch (Exception e) {
 			// Connection setup failure NO NEED TO BLACKLIST
 			LOGGER.info("Failed to connect to " + address + ": " + e.getMessage());
@@ -111,6 +132,8 @@ public class Peer extends Thread {
 
 			// peer no longer usable
 			this.close();
+
+			return false;
 		}
 	}
 
@@ -136,14 +159,19 @@ public class Peer extends Thread {
 	 * <p>
 	 * Updates ping counter and peer info in PeerMap database.
 	 * 
-	 * @see Pinger#run()
+	 * @see Pinger#onResponse(Message)
 	 * @see PingMap
 	 */
 	public void onPingSuccess() {
 		this.pingCounter++;
 
-		if (!DBSet.getInstance().isStoped())
-			DBSet.getInstance().getPeerMap().addPeer(this);
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				if (!DBSet.getInstance().isStoped())
+					DBSet.getInstance().getPeerMap().addPeer(Peer.this);
+			}
+		});
 	}
 
 	/**
@@ -158,7 +186,12 @@ public class Peer extends Thread {
 	 */
 	public void onPingFailure() {
 		// Disconnect
-		this.callback.onDisconnect(this);
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				callback.onDisconnect(Peer.this);
+			}
+		});
 	}
 
 	/**
@@ -184,13 +217,15 @@ public class Peer extends Thread {
 	}
 
 	/**
-	 * Connect to <code>address</code> using timeout from settings.
+	 * Start connecting to <code>address</code> using timeout from settings.
 	 * <p>
+	 * Returns straight away, the connection is made by the transport.<br>
 	 * On success, <code>ConnectionCallback.onConnect()</code> is called.<br>
-	 * On failure, we simply return.
+	 * On failure, the attempt is logged and dropped.
 	 * 
 	 * @param callback
 	 * @see ConnectionCallback#onConnect(Peer)
+	 * @see Transport#getPendingConnections()
 	 */
 	public void connect(ConnectionCallback callback) {
 		// XXX we don't actually use DB so replace with cleaner "are we shutting
@@ -201,141 +236,355 @@ public class Peer extends Thread {
 
 		this.callback = callback;
 
-		// Create new socket for connection to peer
-		this.socket = new Socket();
-
 		// Collate this.address and destination port from controller
 		InetSocketAddress socketAddress = new InetSocketAddress(address, Controller.getInstance().getNetworkPort());
 
-		// Attempt to connect, with timeout from settings
+		// Create new channel for connection to peer
 		try {
-			this.socket.connect(socketAddress, Settings.getInstance().getConnectionTimeout());
-		} catch (Exception e) {
+			this.channel = SocketChannel.open();
+			this.channel.configureBlocking(false);
+		} catch (IOException e) {
 			LOGGER.info(Lang.getInstance().translate("Failed to connect to ") + address + ": " + e.getMessage());
 			return;
 		}
 
-		this.setup(true);
+		// Attempt to connect, with timeout from settings
+		this.connecting.set(true);
+		Transport.getInstance().connect(this, this.channel, socketAddress, Settings.getInstance().getConnectionTimeout());
 	}
 
 	/**
-	 * Main communication thread
-	 * <p>
-	 * Waits for incoming messages from peer, unless inactivity timeout reached.
+	 * Called by the transport once an outgoing connection is made.
+	 * 
+	 * @return <code>false</code> if the attempt was given up already
+	 */
+	boolean onConnected() {
+		if (!this.connecting.compareAndSet(true, false)) {
+			return false;
+		}
+
+		return this.setup(true);
+	}
+
+	/**
+	 * Called by the transport when an outgoing connection fails or takes too
+	 * long.
+	 * 
+	 * @return <code>false</code> if the connection was made or given up
+	 *         already
+	 */
+	boolean onConnectFailed(String error) {
+		if (!this.connecting.compareAndSet(true, false)) {
+			return false;
+		}
+
+		LOGGER.info(Lang.getInstance().translate("Failed to connect to ") + address + ": " + error);
+		this.close();
+
+		return true;
+	}
+
+	void setLoop(Transport.SelectorLoop loop) {
+		this.loop = loop;
+	}
+
+	/**
+	 * Read what is available from the channel and pass on every complete
+	 * message.
 	 * <p>
-	 * If something is waiting for a message with a specific ID then they are
-	 * notified so it can be processed. Otherwise the message is added to our
-	 * queue, keyed by message ID.
+	 * Runs on a selector thread. If something is waiting for a message with a
+	 * specific ID then it is handed over directly. Otherwise the message is
+	 * passed to <code>ConnectionCallback.onMessage</code> on a dispatch
+	 * thread.
 	 * 
 	 * @see #getResponse(Message)
 	 * @see MessageFactory#parse(Peer, DataInputStream)
 	 * @see ConnectionCallback#onMessage(Message)
-	 * @see ConnectionCallback#onDisconnect(Message)
 	 */
-	public void run() {
-		Thread.currentThread().setName("Peer " + this.address.toString());
-
-		try {
-			DataInputStream in = new DataInputStream(socket.getInputStream());
+	void onReadable(SocketChannel channel) throws IOException {
+		if (channel.read(this.readBuffer) == -1) {
+			throw new IOException("connection closed by peer");
+		}
 
-			while (true) {
-				// Read only enough bytes to cover Message "magic" preamble
-				byte[] messageMagic = new byte[Message.MAGIC_LENGTH];
-				in.readFully(messageMagic);
+		this.readBuffer.flip();
 
-				if (!Arrays.equals(messageMagic, Controller.getInstance().getMessageMagic())) {
-					// Didn't receive valid Message "magic"
-					this.callback.onError(this,
-							Lang.getInstance().translate("received message with wrong magic") + " " + address);
-					return;
-				}
+		try {
+			while (this.hasFrame()) {
+				// Skip magic, the factory parses the rest
+				byte[] frame = new byte[this.frameLength - Message.MAGIC_LENGTH];
+				this.readBuffer.position(this.readBuffer.position() + Message.MAGIC_LENGTH);
+				this.readBuffer.get(frame);
+				this.frameLength = 0;
 
 				// Attempt to parse incoming message - throws on failure
-				Message message = MessageFactory.getInstance().parse(this, in);
-
-				// LOGGER.debug("Received message (type " + message.getType() +
-				// ") from " + this.address);
-
-				// If there's a queue for this message ID then add message to
-				// queue
-				if (message.hasId() && this.messages.containsKey(message.getId())) {
-					// Adding message to queue will unblock waiting caller (if
-					// any)
-					this.messages.get(message.getId()).add(message);
-				} else {
-					// Generic message callback
-					this.callback.onMessage(message);
-				}
+				Message message = MessageFactory.getInstance().parse(this, new DataInputStream(new ByteArrayInputStream(frame)));
+
+				this.onMessage(message, frame.length);
 			}
-		} catch (InterruptedException e) {
-			// peer connection being closed - simply exit
+		} catch (final MessageException e) {
+			// Suspect peer, stop reading from it
+			this.onMessageError(e.getMessage());
 			return;
-		} catch (SocketTimeoutException e) {
-			LOGGER.info(Lang.getInstance().translate("Inactivity timeout with peer") + " " + address);
+		} catch (Exception e) {
+			// not expected as above
+			LOGGER.debug(e.getMessage(), e);
 
 			// Disconnect peer
-			this.callback.onDisconnect(this);
+			this.close();
 			return;
-		} catch (SocketException e) {
-			LOGGER.info(Lang.getInstance().translate("Socket issue with peer") + " " + address);
+		}
 
-			// Disconnect peer
-			this.callback.onDisconnect(this);
+		this.readBuffer.compact();
+
+		if (this.frameLength > this.readBuffer.capacity()) {
+			// Grow to fit message being received
+			ByteBuffer buffer = ByteBuffer.allocate(this.frameLength);
+			this.readBuffer.flip();
+			buffer.put(this.readBuffer);
+			this.readBuffer = buffer;
+		} else if (this.readBuffer.position() == 0 && this.readBuffer.capacity() > READ_BUFFER_SIZE) {
+			// Give back memory of large message
+			this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Check if the read buffer holds a complete message
+	 * <p>
+	 * Frame is magic, type, has-id flag, optional id, length and, when there
+	 * is data, checksum and data. Sets <code>frameLength</code> as soon as it
+	 * is known.
+	 */
+	private boolean hasFrame() throws MessageException {
+		ByteBuffer buffer = this.readBuffer;
+		int start = buffer.position();
+		int header = Message.MAGIC_LENGTH + Message.TYPE_LENGTH + 1;
+
+		if (buffer.remaining() < header) {
+			return false;
+		}
+
+		byte[] magic = Controller.getInstance().getMessageMagic();
+		for (int i = 0; i < Message.MAGIC_LENGTH; i++) {
+			if (buffer.get(start + i) != magic[i]) {
+				// Didn't receive valid Message "magic"
+				throw new MessageException(Lang.getInstance().translate("received message with wrong magic") + " " + address);
+			}
+		}
+
+		if (buffer.get(start + header - 1) == 1) {
+			header += Message.ID_LENGTH;
+		}
+
+		if (buffer.remaining() < header + Message.MESSAGE_LENGTH) {
+			return false;
+		}
+
+		int length = buffer.getInt(start + header);
+		if (length < 0 || length > MAX_DATA_LENGTH) {
+			throw new MessageException(Lang.getInstance().translate("Invalid data length=") + length);
+		}
+
+		this.frameLength = header + Message.MESSAGE_LENGTH;
+		if (length > 0) {
+			this.frameLength += Message.CHECKSUM_LENGTH + length;
+		}
+
+		return buffer.remaining() >= this.frameLength;
+	}
+
+	private void onMessage(final Message message, int length) {
+		// Response to our ping
+		if (this.pinger != null && this.pinger.onResponse(message)) {
 			return;
-		} catch (MessageException e) {
-			// Suspect peer
-			this.callback.onError(this, e.getMessage());
+		}
+
+		// Response to one of our requests
+		if (message.hasId() && this.requests.onResponse(message, length)) {
 			return;
-		} catch (Exception e) {
-			// not expected as above
+		}
+
+		// Generic message callback
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				callback.onMessage(message);
+			}
+		});
+	}
+
+	private void onMessageError(final String error) {
+		// Nothing more to read, callback will close us
+		try {
+			this.channel.close();
+
+			// Socket is only released once its selector wakes up
+			if (this.loop != null)
+				this.loop.wakeup();
+		} catch (IOException e) {
 			LOGGER.debug(e.getMessage(), e);
+		}
 
-			// Disconnect peer
-			this.callback.onDisconnect(this);
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				callback.onError(Peer.this, error);
+			}
+		});
+	}
+
+	/**
+	 * Called by the transport on read or write failure.
+	 */
+	void onIOException(IOException e) {
+		LOGGER.info(Lang.getInstance().translate("Socket issue with peer") + " " + address);
+		LOGGER.debug(e.getMessage(), e);
+
+		// Disconnect peer
+		this.close();
+	}
+
+	boolean hasOutbound() {
+		return !this.outbound.isEmpty();
+	}
+
+	/**
+	 * Write queued messages until the channel would block.
+	 * 
+	 * @see OutboundQueue#write(SocketChannel)
+	 */
+	void onWritable(SocketChannel channel) throws IOException {
+		this.outbound.write(channel);
+	}
+
+	/**
+	 * Get number of messages waiting to be written to peer.
+	 */
+	public int getQueuedMessages() {
+		return this.outbound == null ? 0 : this.outbound.getQueuedMessages();
+	}
+
+	/**
+	 * Get number of bytes waiting to be written to peer.
+	 */
+	public long getQueuedBytes() {
+		return this.outbound == null ? 0 : this.outbound.getQueuedBytes();
+	}
+
+	/**
+	 * Get number of messages dropped because peer did not keep up.
+	 */
+	public long getDroppedMessages() {
+		return this.outbound == null ? 0 : this.outbound.getDroppedMessages();
+	}
+
+	/**
+	 * Run upcall on a dispatch thread, in order with the other upcalls of this
+	 * peer.
+	 */
+	private void dispatch(Runnable task) {
+		this.tasks.add(task);
+		this.scheduleDispatch();
+	}
+
+	private void scheduleDispatch() {
+		if (this.tasks.isEmpty() || !this.dispatching.compareAndSet(false, true)) {
 			return;
 		}
+
+		Transport.getInstance().getDispatcher().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Runnable task;
+					for (int i = 0; i < MAX_DISPATCH_BATCH && (task = tasks.poll()) != null; i++) {
+						try {
+							task.run();
+						} catch (Exception e) {
+							LOGGER.error(e.getMessage(), e);
+						}
+					}
+				} finally {
+					dispatching.set(false);
+					scheduleDispatch();
+				}
+			}
+		});
 	}
 
 	/**
-	 * Attempt to send Message to peer
+	 * Queue Message to be sent to peer
+	 * <p>
+	 * Never blocks. If the peer does not keep up, transactions and peer lists
+	 * are dropped and the peer is disconnected once its queue for blocks or
+	 * control messages is full.
 	 * 
 	 * @param message
-	 * @return <code>true</code> if message successfully sent;
-	 *         <code>false</code> otherwise
+	 * @return <code>true</code> if message queued for sending;
+	 *         <code>false</code> if dropped or peer is closed
+	 * @see OutboundQueue
 	 */
 	public boolean sendMessage(Message message) {
-		try {
-			// CHECK IF SOCKET IS STILL ALIVE
-			if (!this.socket.isConnected()) {
-				// ERROR
-				callback.onError(this, Lang.getInstance().translate("socket not still alive"));
+		if (this.closed.get() || this.outbound == null) {
+			return false;
+		}
 
-				return false;
-			}
+		switch (this.outbound.offer(message)) {
+		case DROPPED:
+			return false;
 
-			// SEND MESSAGE
-			synchronized (this.out) {
-				this.out.write(message.toBytes());
-				this.out.flush();
-			}
+		case FULL:
+			LOGGER.info("Peer " + address + " does not keep up, disconnecting");
+			this.close();
+			return false;
 
-			// RETURN
-			return true;
-		} catch (Exception e) {
-			LOGGER.debug(e.getMessage(), e);
-			// ERROR
-			callback.onError(this, e.getMessage());
+		default:
+			break;
+		}
 
-			// RETURN
-			return false;
+		// Writing is done by the selector thread
+		Transport.SelectorLoop loop = this.loop;
+		if (loop != null) {
+			loop.requestWrite(this, this.channel);
 		}
+
+		return true;
 	}
 
 	/**
-	 * Send message to peer and await response.
+	 * Next message ID for requests to this peer.
+	 */
+	int nextId() {
+		return this.requests.nextId();
+	}
+
+	/**
+	 * Send message to peer as a request.
 	 * <p>
-	 * Message is assigned a random ID and sent. If a response with matching ID
-	 * is received then it is returned to caller.
+	 * Message is assigned the next ID of this peer and sent once fewer than
+	 * the maximum number of requests await their response. The future
+	 * completes with the response with matching ID, or exceptionally if none
+	 * arrives within the connection timeout or the peer is closed.
+	 * <p>
+	 * The future is completed on the selector thread of the peer, actions
+	 * that do real work on the response should run on an executor of their
+	 * own.
+	 * 
+	 * @param message
+	 * @return future response
+	 */
+	public CompletableFuture<Message> request(Message message) {
+		if (this.requests == null) {
+			CompletableFuture<Message> future = new CompletableFuture<Message>();
+			future.completeExceptionally(new IOException("Peer " + address + " not connected"));
+			return future;
+		}
+
+		return this.requests.request(message);
+	}
+
+	/**
+	 * Send message to peer and await response.
 	 * <p>
 	 * If no response with matching ID within timeout, or some other
 	 * error/exception occurs, then return <code>null</code>. (Assume peer will
@@ -344,39 +593,30 @@ public class Peer extends Thread {
 	 * @param message
 	 * @return <code>Message</code> if valid response received;
 	 *         <code>null</code> if not or error/exception occurs
+	 * @see #request(Message)
 	 */
 	public Message getResponse(Message message) {
-		// Assign random ID to this message
-		int id = (int) ((Math.random() * 1000000) + 1);
-		message.setId(id);
-
-		// Put queue into map (keyed by message ID) so we can poll for a
-		// response
-		BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(1);
-		this.messages.put(id, blockingQueue);
-
-		// Try to send message
-		if (!this.sendMessage(message)) {
-			this.messages.remove(id);
-			return null;
-		}
-
 		try {
-			Message response = blockingQueue.poll(Settings.getInstance().getConnectionTimeout(), TimeUnit.MILLISECONDS);
-			this.messages.remove(id);
-
-			if (response == null && this.socket.isConnected())
+			return this.request(message).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException && !this.closed.get())
 				LOGGER.info("Timed out while waiting for response from peer " + address);
 
-			return response;
+			return null;
 		} catch (InterruptedException e) {
 			// Our thread was interrupted. Probably in shutdown scenario.
 			LOGGER.info("Interrupted while waiting for response from peer " + address);
-			this.messages.remove(id);
 			return null;
 		}
 	}
 
+	/**
+	 * Get number of requests sent to peer that await their response.
+	 */
+	public int getRequestsInFlight() {
+		return this.requests == null ? 0 : this.requests.getInFlightCount();
+	}
+
 	public boolean isWhite() {
 		return this.white;
 	}
@@ -393,27 +633,45 @@ public class Peer extends Thread {
 	 * Close connection to peer
 	 * <p>
 	 * Can be called during normal operation or also in case of error, shutdown,
-	 * etc.
+	 * etc. If the callback still counts the peer as connected it is notified
+	 * with <code>onDisconnect</code>.
 	 * 
 	 * @see Pinger#stopPing()
 	 */
 	public void close() {
+		if (this.channel == null || !this.closed.compareAndSet(false, true)) {
+			return;
+		}
+
 		// Stop Pinger if applicable
 		if (this.pinger != null)
 			this.pinger.stopPing();
 
+		// Nobody will answer our requests anymore
+		if (this.requests != null)
+			this.requests.close();
+
 		try {
-			// maybe interrupt() run() thread to differentiate from peer closing
-			// connection?
-			/*
-			 * if (this.isAlive()) { this.interrupt(); this.join(); }
-			 */
-
-			// Close socket if applicable
-			if (socket != null && socket.isConnected())
-				socket.close();
+			this.channel.close();
 		} catch (IOException e) {
 			LOGGER.debug("Error closing socket connection to peer " + address + ": " + e.getMessage(), e);
 		}
+
+		// Callback did not close us itself
+		if (this.callback != null && this.tasks != null) {
+			List<Peer> connections = this.callback.getActiveConnections();
+			synchronized (connections) {
+				if (!connections.contains(this)) {
+					return;
+				}
+			}
+
+			this.dispatch(new Runnable() {
+				@Override
+				public void run() {
+					callback.onDisconnect(Peer.this);
+				}
+			});
+		}
 	}
 }
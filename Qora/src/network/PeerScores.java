@@ -0,0 +1,210 @@
+package network;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measured quality of the peers we talk to, by address.
+ * <p>
+ * Keeps an exponentially weighted moving average of the round-trip time,
+ * the throughput of larger responses and the share of failed requests of
+ * every peer, together with a count of the invalid data it sent that fades
+ * as it behaves. Answered pings count as successful requests, so a stalled
+ * peer that is no longer asked for anything can still recover. The score combines them so that the peer delivering most
+ * bytes per second, reliably, ranks first. Peers we know nothing about yet
+ * are assumed to be average.
+ * <p>
+ * Scores live as long as the process, so a peer that reconnects keeps its
+ * history.
+ */
+public class PeerScores
+{
+	//WEIGHT OF A NEW SAMPLE
+	private static final double ALPHA = 0.2;
+
+	//RESPONSES SMALLER THAN THIS MEASURE LATENCY, NOT THROUGHPUT
+	private static final int MIN_THROUGHPUT_BYTES = 1024;
+
+	//ASSUMED UNTIL MEASURED
+	private static final double DEFAULT_RTT = 500;
+	private static final double DEFAULT_THROUGHPUT = 64 * 1024;
+
+	//PEERS FAILING MORE REQUESTS THAN THIS ARE SKIPPED FOR DOWNLOADS
+	private static final double STALLED_FAILURE_RATE = 0.5;
+
+	private static PeerScores instance;
+
+	private ConcurrentHashMap<InetAddress, Score> scores;
+
+	public static synchronized PeerScores getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new PeerScores();
+		}
+
+		return instance;
+	}
+
+	private PeerScores()
+	{
+		this.scores = new ConcurrentHashMap<InetAddress, Score>();
+	}
+
+	private Score getScore(InetAddress address)
+	{
+		Score score = this.scores.get(address);
+		if(score == null)
+		{
+			score = new Score();
+			Score existing = this.scores.putIfAbsent(address, score);
+			if(existing != null)
+			{
+				score = existing;
+			}
+		}
+
+		return score;
+	}
+
+	public void onPing(Peer peer, long rtt)
+	{
+		this.getScore(peer.getAddress()).onPing(rtt);
+	}
+
+	/**
+	 * The peer answered a request with a message of the given size after the
+	 * given number of milliseconds.
+	 */
+	public void onResponse(Peer peer, int bytes, long millis)
+	{
+		this.getScore(peer.getAddress()).onResponse(bytes, millis);
+	}
+
+	/**
+	 * A request to the peer timed out or could not be sent.
+	 */
+	public void onFailure(Peer peer)
+	{
+		this.getScore(peer.getAddress()).onFailure();
+	}
+
+	/**
+	 * The peer sent a block or header that did not check out.
+	 */
+	public void onInvalid(Peer peer)
+	{
+		this.getScore(peer.getAddress()).onInvalid();
+	}
+
+	/**
+	 * Higher is better, roughly the bytes per second we expect from the
+	 * peer.
+	 */
+	public double getScore(Peer peer)
+	{
+		Score score = this.scores.get(peer.getAddress());
+		return score == null ? new Score().getValue() : score.getValue();
+	}
+
+	/**
+	 * If most recent requests to the peer failed.
+	 */
+	public boolean isStalled(Peer peer)
+	{
+		Score score = this.scores.get(peer.getAddress());
+		return score != null && score.isStalled();
+	}
+
+	/**
+	 * Copy of the peers, best score first. Peers with equal scores keep
+	 * their order.
+	 * <p>
+	 * Scores are taken once before sorting, as they keep changing while
+	 * other threads measure the peers.
+	 */
+	public List<Peer> sort(List<Peer> peers)
+	{
+		final Map<Peer, Double> snapshot = new HashMap<Peer, Double>();
+		for(Peer peer: peers)
+		{
+			snapshot.put(peer, this.getScore(peer));
+		}
+
+		List<Peer> sorted = new ArrayList<Peer>(peers);
+		Collections.sort(sorted, new Comparator<Peer>() {
+			@Override
+			public int compare(Peer one, Peer two) {
+				return Double.compare(snapshot.get(two), snapshot.get(one));
+			}
+		});
+
+		return sorted;
+	}
+
+	private static class Score
+	{
+		private double rtt = -1;
+		private double throughput = -1;
+		private double failureRate;
+		private double invalid;
+
+		public synchronized void onRtt(long rtt)
+		{
+			this.rtt = this.rtt < 0 ? rtt : average(this.rtt, rtt);
+		}
+
+		public synchronized void onPing(long rtt)
+		{
+			this.onRtt(rtt);
+			this.failureRate = average(this.failureRate, 0);
+		}
+
+		public synchronized void onResponse(int bytes, long millis)
+		{
+			this.onRtt(millis);
+			this.failureRate = average(this.failureRate, 0);
+			this.invalid *= 1 - ALPHA;
+
+			if(bytes >= MIN_THROUGHPUT_BYTES)
+			{
+				double throughput = bytes * 1000.0 / Math.max(1, millis);
+				this.throughput = this.throughput < 0 ? throughput : average(this.throughput, throughput);
+			}
+		}
+
+		public synchronized void onFailure()
+		{
+			this.failureRate = average(this.failureRate, 1);
+		}
+
+		public synchronized void onInvalid()
+		{
+			this.invalid++;
+		}
+
+		public synchronized boolean isStalled()
+		{
+			return this.failureRate > STALLED_FAILURE_RATE;
+		}
+
+		public synchronized double getValue()
+		{
+			double rtt = this.rtt < 0 ? DEFAULT_RTT : this.rtt;
+			double throughput = this.throughput < 0 ? DEFAULT_THROUGHPUT : this.throughput;
+
+			return throughput / (1 + rtt / 1000) * (1 - this.failureRate) / (1 + this.invalid);
+		}
+
+		private static double average(double average, double sample)
+		{
+			return average + ALPHA * (sample - average);
+		}
+	}
+}
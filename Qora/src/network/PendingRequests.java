@@ -0,0 +1,247 @@
+package network;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import network.message.Message;
+import settings.Settings;
+
+/**
+ * Requests sent to a peer that await their response.
+ * <p>
+ * Every request gets the next ID of the peer, so concurrent requests never
+ * share one. The side that made the connection uses odd IDs and the other
+ * side even ones, so our requests and those of the peer never share one
+ * either. At most {@link Settings#getMaxRequestsInFlight()} requests are
+ * sent ahead of their responses, the others wait in order until one is
+ * answered or timed out. Nothing blocks: responses complete the future of
+ * their request on the selector thread of the peer.
+ */
+class PendingRequests
+{
+	private Peer peer;
+	private int parity;
+	private int maxInFlight;
+	private AtomicInteger nextId;
+	private AtomicInteger inFlightCount;
+	private ConcurrentHashMap<Integer, Request> inFlight;
+	private Queue<Request> waiting;
+	private volatile boolean closed;
+
+	/**
+	 * @param outbound if we made the connection
+	 */
+	public PendingRequests(Peer peer, boolean outbound)
+	{
+		this.peer = peer;
+		this.parity = outbound ? 1 : 0;
+		this.maxInFlight = Math.max(1, Settings.getInstance().getMaxRequestsInFlight());
+		this.nextId = new AtomicInteger();
+		this.inFlightCount = new AtomicInteger();
+		this.inFlight = new ConcurrentHashMap<Integer, Request>();
+		this.waiting = new ConcurrentLinkedQueue<Request>();
+	}
+
+	/**
+	 * Next message ID of this peer, always positive, odd if we made the
+	 * connection and even otherwise.
+	 */
+	public int nextId()
+	{
+		int id;
+		do
+		{
+			id = (this.nextId.incrementAndGet() * 2 + this.parity) & Integer.MAX_VALUE;
+		}
+		while(id == 0);
+
+		return id;
+	}
+
+	public CompletableFuture<Message> request(Message message)
+	{
+		Request request = new Request(message);
+		this.waiting.add(request);
+
+		//CLOSED IN THE MEANTIME
+		if(this.closed)
+		{
+			this.close();
+		}
+
+		this.sendWaiting();
+
+		return request.future;
+	}
+
+	private void sendWaiting()
+	{
+		while(!this.waiting.isEmpty())
+		{
+			//TAKE A PLACE IN FLIGHT
+			int count = this.inFlightCount.get();
+			if(count >= this.maxInFlight)
+			{
+				return;
+			}
+
+			if(!this.inFlightCount.compareAndSet(count, count + 1))
+			{
+				continue;
+			}
+
+			Request request = this.waiting.poll();
+			if(request == null)
+			{
+				this.inFlightCount.decrementAndGet();
+				continue;
+			}
+
+			this.send(request);
+		}
+	}
+
+	private void send(final Request request)
+	{
+		request.id = this.nextId();
+		request.message.setId(request.id);
+		request.sent = System.currentTimeMillis();
+
+		request.timeout = Transport.getInstance().getTimeoutWheel().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if(inFlight.remove(request.id, request))
+				{
+					finish(request);
+					PeerScores.getInstance().onFailure(peer);
+					request.future.completeExceptionally(new TimeoutException("No response from peer " + peer.getAddress()));
+				}
+			}
+		}, Settings.getInstance().getConnectionTimeout());
+		this.inFlight.put(request.id, request);
+
+		if(!this.peer.sendMessage(request.message) && this.inFlight.remove(request.id, request))
+		{
+			this.finish(request);
+			PeerScores.getInstance().onFailure(this.peer);
+			request.future.completeExceptionally(new IOException("Unable to send to peer " + this.peer.getAddress()));
+		}
+	}
+
+	private void finish(Request request)
+	{
+		request.timeout.cancel();
+		this.inFlightCount.decrementAndGet();
+
+		//MAKE ROOM FOR THE NEXT
+		this.sendWaiting();
+	}
+
+	/**
+	 * Complete the request the message answers. A message with the ID of a
+	 * request that is not of the type answering it, like a request of a peer
+	 * using random IDs, is left alone.
+	 *
+	 * @param length size of the message on the wire
+	 * @return <code>true</code> if message was a response and is handled
+	 */
+	public boolean onResponse(Message message, int length)
+	{
+		Request request = this.inFlight.get(message.getId());
+		if(request == null || message.getType() != getResponseType(request.message.getType()))
+		{
+			return false;
+		}
+		
+		//TIMED OUT IN THE MEANTIME
+		if(!this.inFlight.remove(message.getId(), request))
+		{
+			return false;
+		}
+
+		this.finish(request);
+		PeerScores.getInstance().onResponse(this.peer, length, System.currentTimeMillis() - request.sent);
+		request.future.complete(message);
+
+		return true;
+	}
+
+	/**
+	 * Fail all requests, the peer will not answer them anymore.
+	 */
+	public void close()
+	{
+		this.closed = true;
+
+		IOException closed = new IOException("Connection to peer " + this.peer.getAddress() + " closed");
+
+		Request request;
+		while((request = this.waiting.poll()) != null)
+		{
+			request.future.completeExceptionally(closed);
+		}
+
+		for(Integer id: this.inFlight.keySet())
+		{
+			request = this.inFlight.remove(id);
+			if(request != null)
+			{
+				request.timeout.cancel();
+				request.future.completeExceptionally(closed);
+			}
+		}
+	}
+
+	/**
+	 * Type of the message answering a request of the given type.
+	 */
+	private static int getResponseType(int type)
+	{
+		switch(type)
+		{
+		case Message.GET_PEERS_TYPE:
+			return Message.PEERS_TYPE;
+		case Message.GET_SIGNATURES_TYPE:
+			return Message.SIGNATURES_TYPE;
+		case Message.GET_BLOCK_TYPE:
+			return Message.BLOCK_TYPE;
+		case Message.GET_BLOCK_TRANSACTIONS_TYPE:
+			return Message.BLOCK_TRANSACTIONS_TYPE;
+		case Message.GET_BLOCK_HEADERS_TYPE:
+			return Message.BLOCK_HEADERS_TYPE;
+		default:
+			//PING IS ANSWERED WITH A PING
+			return type;
+		}
+	}
+	
+	public int getInFlightCount()
+	{
+		return this.inFlightCount.get();
+	}
+
+	public int getWaitingCount()
+	{
+		return this.waiting.size();
+	}
+
+	private static class Request
+	{
+		private Message message;
+		private CompletableFuture<Message> future;
+		private int id;
+		private long sent;
+		private TimeoutWheel.Timeout timeout;
+
+		public Request(Message message)
+		{
+			this.message = message;
+			this.future = new CompletableFuture<Message>();
+		}
+	}
+}
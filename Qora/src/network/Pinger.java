@@ -1,5 +1,8 @@
 package network;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -8,10 +11,13 @@ import network.message.MessageFactory;
 import settings.Settings;
 
 /**
- * Pinger is a Thread that periodically pings a Peer to maintain/check
- * connectivity.
+ * Pinger periodically pings a Peer to maintain/check connectivity.
+ * <p>
+ * Runs as a task on the transport scheduler rather than as a thread of its
+ * own. The ping response is picked out of the incoming messages by the
+ * peer.
  */
-public class Pinger extends Thread {
+public class Pinger implements Runnable {
 
 	private static final Logger LOGGER = LogManager.getLogger(Pinger.class);
 	private Peer peer;
@@ -20,11 +26,18 @@ public class Pinger extends Thread {
 	 * ping yet.
 	 */
 	private long ping;
+	/**
+	 * ID of the ping awaiting response, or 0 if none.
+	 */
+	private int id;
+	private long start;
+	private boolean stopped;
+	private ScheduledFuture<?> task;
 
 	/**
 	 * Simple Pinger constructor
 	 * <p>
-	 * Will start Pinger thread.
+	 * Will schedule first ping straight away.
 	 * @param peer
 	 * @see #run()
 	 */
@@ -32,12 +45,12 @@ public class Pinger extends Thread {
 		this.peer = peer;
 		this.ping = Long.MAX_VALUE;
 
-		this.start();
+		this.schedule(0);
 	}
 
 	/**
 	 * Get last ping's round-trip time.
-	 * 
+	 *
 	 * @return ping's RTT in milliseconds or Long.MAX_VALUE if no ping yet.
 	 */
 	public long getPing() {
@@ -45,47 +58,83 @@ public class Pinger extends Thread {
 	}
 
 	/**
-	 * Repeatedly ping peer using interval from settings.
-	 * <p>
-	 * Will exit if interrupted, typically by <code>stopPing()</code>
-	 * 
-	 * @see #stopPing()
-	 * @see Peer#onPingSuccess()
+	 * Send ping to peer, or fail if the previous ping got no response within
+	 * the connection timeout.
+	 *
+	 * @see #onResponse(Message)
 	 * @see Peer#onPingFailure()
 	 */
 	@Override
-	public void run() {
-		Thread.currentThread().setName("Pinger " + this.peer.getAddress());
-
-		while (true) {
-			// Send ping message to peer
-			long start = System.currentTimeMillis();
-			Message pingMessage = MessageFactory.getInstance().createPingMessage();
-			// NB: Peer.getResponse returns null if no response within timeout
-			// or interrupt occurs
-			Message response = this.peer.getResponse(pingMessage);
-
-			// Check for valid ping response
-			if (response == null || response.getType() != Message.PING_TYPE) {
-				// Notify Peer that ping has failed.
-				// NB: currently Peer.onPingFailure() may call Pinger.stopPing()
-				// (see below)
-				LOGGER.debug("Ping failure with " + this.peer.getAddress());
-				this.peer.onPingFailure();
-				return;
-			}
-
-			// Calculate ping's round-trip time and notify peer
-			this.ping = System.currentTimeMillis() - start;
-			this.peer.onPingSuccess();
-
-			// Sleep until we need to send next ping
-			try {
-				Thread.sleep(Settings.getInstance().getPingInterval());
-			} catch (InterruptedException e) {
-				// If interrupted, usually by stopPing(), we need to exit thread
-				return;
-			}
+	public synchronized void run() {
+		if (this.stopped) {
+			return;
+		}
+
+		if (this.id != 0) {
+			// Notify Peer that ping has failed.
+			LOGGER.debug("Ping failure with " + this.peer.getAddress());
+			this.fail();
+			return;
+		}
+
+		// Send ping message to peer
+		Message pingMessage = MessageFactory.getInstance().createPingMessage();
+		this.id = this.peer.nextId();
+		pingMessage.setId(this.id);
+		this.start = System.currentTimeMillis();
+
+		if (!this.peer.sendMessage(pingMessage)) {
+			this.fail();
+			return;
+		}
+
+		// Check for response once timeout passed
+		this.schedule(Settings.getInstance().getConnectionTimeout());
+	}
+
+	/**
+	 * Check if message is the response to our ping.
+	 * <p>
+	 * Called by the peer for every incoming message.
+	 *
+	 * @return <code>true</code> if message was the response and is handled
+	 * @see Peer#onPingSuccess()
+	 */
+	public synchronized boolean onResponse(Message message) {
+		if (this.id == 0 || message.getId() != this.id) {
+			return false;
+		}
+
+		this.id = 0;
+		this.task.cancel(false);
+
+		// Check for valid ping response
+		if (message.getType() != Message.PING_TYPE) {
+			LOGGER.debug("Ping failure with " + this.peer.getAddress());
+			this.fail();
+			return true;
+		}
+
+		// Calculate ping's round-trip time and notify peer
+		this.ping = System.currentTimeMillis() - this.start;
+		PeerScores.getInstance().onPing(this.peer, this.ping);
+		this.peer.onPingSuccess();
+
+		// Schedule next ping
+		this.schedule(Settings.getInstance().getPingInterval());
+
+		return true;
+	}
+
+	private void fail() {
+		this.stopped = true;
+		PeerScores.getInstance().onFailure(this.peer);
+		this.peer.onPingFailure();
+	}
+
+	private void schedule(long delay) {
+		if (!this.stopped) {
+			this.task = Transport.getInstance().getScheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
 		}
 	}
 
@@ -93,20 +142,14 @@ public class Pinger extends Thread {
 	 * Stop pinging peer.
 	 * <p>
 	 * Usually called by Peer.close()
-	 * 
+	 *
 	 * @see Peer#close()
 	 */
-	public void stopPing() {
-		if (this.isAlive()) {
-			this.interrupt();
-
-			try {
-				this.join();
-			} catch (InterruptedException e) {
-				// We've probably reached here from run() above calling
-				// Peer.onPingFailure() so when we return run() above will
-				// terminate
-			}
+	public synchronized void stopPing() {
+		this.stopped = true;
+
+		if (this.task != null) {
+			this.task.cancel(false);
 		}
 	}
 }
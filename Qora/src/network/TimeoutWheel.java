@@ -0,0 +1,110 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs tasks once their timeout passed, unless they are cancelled before.
+ * <p>
+ * Timeouts are kept in a ring of slots, one slot per {@link #TICK}. Adding
+ * or cancelling a timeout is constant time and does not lock, so many
+ * timeouts that are nearly always cancelled, like those of requests to
+ * peers, cost next to nothing. A task never runs before its timeout and
+ * usually within one tick after it.
+ */
+class TimeoutWheel
+{
+	private static final long TICK = 100;
+	private static final int SLOTS = 512;
+
+	private static final Logger LOGGER = LogManager.getLogger(TimeoutWheel.class);
+
+	private List<Queue<Timeout>> slots;
+	private volatile long tick;
+
+	public TimeoutWheel(ScheduledExecutorService scheduler)
+	{
+		this.slots = new ArrayList<Queue<Timeout>>(SLOTS);
+		for(int i=0; i<SLOTS; i++)
+		{
+			this.slots.add(new ConcurrentLinkedQueue<Timeout>());
+		}
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				advance();
+			}
+		}, TICK, TICK, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run the task once the delay in milliseconds passed.
+	 */
+	public Timeout schedule(Runnable task, long delay)
+	{
+		//ROUND UP, NEVER RUN EARLY
+		long deadline = this.tick + 1 + (delay + TICK - 1) / TICK;
+
+		Timeout timeout = new Timeout(task, deadline);
+		this.slots.get((int) (deadline % SLOTS)).add(timeout);
+
+		return timeout;
+	}
+
+	private void advance()
+	{
+		//ONLY THE SCHEDULER THREAD MOVES THE WHEEL
+		long tick = this.tick + 1;
+		this.tick = tick;
+
+		Iterator<Timeout> iterator = this.slots.get((int) (tick % SLOTS)).iterator();
+		while(iterator.hasNext())
+		{
+			Timeout timeout = iterator.next();
+			if(timeout.cancelled)
+			{
+				iterator.remove();
+			}
+			else if(timeout.deadline <= tick)
+			{
+				iterator.remove();
+
+				try
+				{
+					timeout.task.run();
+				}
+				catch(Exception e)
+				{
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	public static class Timeout
+	{
+		private Runnable task;
+		private long deadline;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable task, long deadline)
+		{
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public void cancel()
+		{
+			this.cancelled = true;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Non-blocking transport shared by all peers.
+ * <p>
+ * Peer channels are spread over a small pool of selector threads which do the
+ * connecting, reading, framing and writing. Parsed messages are handed to the
+ * {@link ConnectionCallback} on a bounded pool of dispatch threads, in order
+ * per peer. Pings, connection and request timeouts run on a single scheduler
+ * thread.
+ */
+public class Transport
+{
+	private static final int SELECTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int DISPATCH_THREADS = 16;
+
+	private static final Logger LOGGER = LogManager.getLogger(Transport.class);
+
+	private static Transport instance;
+
+	private SelectorLoop[] loops;
+	private AtomicInteger nextLoop;
+	private AtomicInteger pendingConnections;
+	private ExecutorService dispatcher;
+	private ScheduledExecutorService scheduler;
+	private TimeoutWheel timeouts;
+
+	public static synchronized Transport getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new Transport();
+		}
+
+		return instance;
+	}
+
+	private Transport()
+	{
+		this.nextLoop = new AtomicInteger();
+		this.pendingConnections = new AtomicInteger();
+		this.dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS, new NamedThreadFactory("PeerDispatcher"));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("PeerScheduler"));
+		this.timeouts = new TimeoutWheel(this.scheduler);
+
+		this.loops = new SelectorLoop[SELECTOR_THREADS];
+		for(int i=0; i<this.loops.length; i++)
+		{
+			try
+			{
+				this.loops[i] = new SelectorLoop("PeerSelector-" + i);
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException("Unable to open selector", e);
+			}
+
+			this.loops[i].start();
+		}
+	}
+
+	/**
+	 * Number of outgoing connections that are still being set up.
+	 */
+	public int getPendingConnections()
+	{
+		return this.pendingConnections.get();
+	}
+
+	ExecutorService getDispatcher()
+	{
+		return this.dispatcher;
+	}
+
+	ScheduledExecutorService getScheduler()
+	{
+		return this.scheduler;
+	}
+
+	TimeoutWheel getTimeoutWheel()
+	{
+		return this.timeouts;
+	}
+
+	void register(final Peer peer, final SocketChannel channel)
+	{
+		final SelectorLoop loop = this.nextLoop();
+		peer.setLoop(loop);
+
+		loop.submit(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					channel.register(loop.selector, SelectionKey.OP_READ, peer);
+
+					//MESSAGES MAY HAVE BEEN QUEUED ALREADY
+					loop.updateInterest(peer, channel);
+				}
+				catch(IOException e)
+				{
+					peer.onIOException(e);
+				}
+			}
+		});
+	}
+
+	void connect(final Peer peer, final SocketChannel channel, final InetSocketAddress address, int timeout)
+	{
+		final SelectorLoop loop = this.nextLoop();
+		peer.setLoop(loop);
+		this.pendingConnections.incrementAndGet();
+
+		loop.submit(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					if(channel.connect(address))
+					{
+						finishConnect(peer, channel, loop);
+					}
+					else
+					{
+						channel.register(loop.selector, SelectionKey.OP_CONNECT, peer);
+					}
+				}
+				catch(IOException e)
+				{
+					connectFailed(peer, e.getMessage());
+				}
+			}
+		});
+
+		//GIVE UP IF NOT CONNECTED IN TIME
+		this.scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				connectFailed(peer, "connect timed out");
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void finishConnect(Peer peer, SocketChannel channel, SelectorLoop loop) throws IOException
+	{
+		if(peer.onConnected())
+		{
+			this.pendingConnections.decrementAndGet();
+			channel.register(loop.selector, SelectionKey.OP_READ, peer);
+			loop.updateInterest(peer, channel);
+		}
+	}
+
+	private void connectFailed(Peer peer, String error)
+	{
+		if(peer.onConnectFailed(error))
+		{
+			this.pendingConnections.decrementAndGet();
+		}
+	}
+
+	private SelectorLoop nextLoop()
+	{
+		return this.loops[(this.nextLoop.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length];
+	}
+
+	class SelectorLoop extends Thread
+	{
+		private Selector selector;
+		private Queue<Runnable> changes;
+
+		public SelectorLoop(String name) throws IOException
+		{
+			super(name);
+			this.setDaemon(true);
+
+			this.selector = Selector.open();
+			this.changes = new ConcurrentLinkedQueue<Runnable>();
+		}
+
+		/**
+		 * Runs the change on the selector thread, channels may only be
+		 * registered and have their interest changed there.
+		 */
+		void submit(Runnable change)
+		{
+			this.changes.add(change);
+			this.selector.wakeup();
+		}
+
+		void wakeup()
+		{
+			this.selector.wakeup();
+		}
+
+		void requestWrite(final Peer peer, final SocketChannel channel)
+		{
+			this.submit(new Runnable() {
+				@Override
+				public void run() {
+					updateInterest(peer, channel);
+				}
+			});
+		}
+
+		private void updateInterest(Peer peer, SocketChannel channel)
+		{
+			SelectionKey key = channel.keyFor(this.selector);
+			if(key != null && key.isValid())
+			{
+				int ops = SelectionKey.OP_READ;
+				if(peer.hasOutbound())
+				{
+					ops |= SelectionKey.OP_WRITE;
+				}
+
+				key.interestOps(ops);
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			while(true)
+			{
+				try
+				{
+					//APPLY CHANGES FROM OTHER THREADS
+					Runnable change;
+					while((change = this.changes.poll()) != null)
+					{
+						change.run();
+					}
+
+					this.selector.select();
+
+					Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+					while(keys.hasNext())
+					{
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						this.handle(key);
+					}
+				}
+				catch(ClosedSelectorException e)
+				{
+					return;
+				}
+				catch(Exception e)
+				{
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+		}
+
+		private void handle(SelectionKey key)
+		{
+			Peer peer = (Peer) key.attachment();
+			SocketChannel channel = (SocketChannel) key.channel();
+			boolean connecting = false;
+
+			try
+			{
+				connecting = key.isConnectable();
+				if(connecting)
+				{
+					if(channel.finishConnect())
+					{
+						finishConnect(peer, channel, this);
+					}
+					return;
+				}
+
+				if(key.isReadable())
+				{
+					peer.onReadable(channel);
+				}
+
+				if(key.isValid() && key.isWritable())
+				{
+					peer.onWritable(channel);
+					this.updateInterest(peer, channel);
+				}
+			}
+			catch(CancelledKeyException e)
+			{
+				//PEER CLOSED
+			}
+			catch(IOException e)
+			{
+				if(connecting)
+				{
+					connectFailed(peer, e.getMessage());
+				}
+				else
+				{
+					peer.onIOException(e);
+				}
+			}
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory
+	{
+		private String name;
+		private AtomicInteger counter;
+
+		public NamedThreadFactory(String name)
+		{
+			this.name = name;
+			this.counter = new AtomicInteger();
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, this.name + "-" + this.counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package network.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import qora.block.Block;
+
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+
+public class BlockHeadersMessage extends Message{
+
+	private static final int COUNT_LENGTH = 4;
+	private static final int HEADER_SIZE_LENGTH = 4;
+	
+	private List<Block> headers;
+	
+	public BlockHeadersMessage(List<Block> headers)
+	{
+		super(BLOCK_HEADERS_TYPE);	
+		
+		this.headers = headers;
+	}
+	
+	/**
+	 * Blocks without transactions, in order of height.
+	 */
+	public List<Block> getHeaders()
+	{
+		return this.headers;
+	}
+	
+	public static BlockHeadersMessage parse(byte[] data) throws Exception
+	{
+		//CHECK IF WE HAVE MINIMUM LENGTH
+		if(data.length < COUNT_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		//READ COUNT
+		int count = Ints.fromByteArray(Arrays.copyOfRange(data, 0, COUNT_LENGTH));
+		int position = COUNT_LENGTH;
+		
+		//READ HEADERS
+		List<Block> headers = new ArrayList<Block>();
+		for(int i=0; i<count; i++)
+		{
+			if(position + HEADER_SIZE_LENGTH > data.length)
+			{
+				throw new Exception("Data does not match length");
+			}
+			
+			int headerLength = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + HEADER_SIZE_LENGTH));
+			position += HEADER_SIZE_LENGTH;
+			if(headerLength < 0 || headerLength > data.length - position)
+			{
+				throw new Exception("Data does not match length");
+			}
+			
+			headers.add(Block.parseHeader(Arrays.copyOfRange(data, position, position + headerLength)));
+			position += headerLength;
+		}
+		
+		return new BlockHeadersMessage(headers);
+	}
+	
+	@Override
+	public byte[] toBytes()
+	{
+		byte[] data = new byte[0];
+		
+		//WRITE HEADERS
+		data = Bytes.concat(data, Ints.toByteArray(this.headers.size()));
+		for(Block header: this.headers)
+		{
+			data = Bytes.concat(data, Ints.toByteArray(header.getHeaderLength()), header.toHeaderBytes());
+		}
+		
+		//ADD CHECKSUM
+		data = Bytes.concat(super.toBytes(), this.generateChecksum(data), data);
+		
+		return data;
+	}
+	
+	@Override
+	public int getDataLength()
+	{
+		int length = COUNT_LENGTH;
+		for(Block header: this.headers)
+		{
+			length += HEADER_SIZE_LENGTH + header.getHeaderLength();
+		}
+		
+		return length;
+	}
+
+}
@@ -0,0 +1,112 @@
+package network.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import qora.transaction.Transaction;
+import qora.transaction.TransactionFactory;
+
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+
+public class BlockTransactionsMessage extends Message{
+
+	private static final int SIGNATURE_LENGTH = 128;
+	private static final int COUNT_LENGTH = 4;
+	private static final int TRANSACTION_SIZE_LENGTH = 4;
+	
+	private byte[] signature;
+	private List<Transaction> transactions;
+	
+	public BlockTransactionsMessage(byte[] signature, List<Transaction> transactions)
+	{
+		super(BLOCK_TRANSACTIONS_TYPE);	
+		
+		this.signature = signature;
+		this.transactions = transactions;
+	}
+	
+	public byte[] getSignature()
+	{
+		return this.signature;
+	}
+	
+	public List<Transaction> getTransactions()
+	{
+		return this.transactions;
+	}
+	
+	public static BlockTransactionsMessage parse(byte[] data) throws Exception
+	{
+		//CHECK IF WE HAVE MINIMUM LENGTH
+		if(data.length < SIGNATURE_LENGTH + COUNT_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		//READ SIGNATURE
+		byte[] signature = Arrays.copyOfRange(data, 0, SIGNATURE_LENGTH);
+		int position = SIGNATURE_LENGTH;
+		
+		//READ COUNT
+		int count = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + COUNT_LENGTH));
+		position += COUNT_LENGTH;
+		
+		//READ TRANSACTIONS
+		List<Transaction> transactions = new ArrayList<Transaction>();
+		for(int i=0; i<count; i++)
+		{
+			if(position + TRANSACTION_SIZE_LENGTH > data.length)
+			{
+				throw new Exception("Data does not match length");
+			}
+			
+			int transactionLength = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + TRANSACTION_SIZE_LENGTH));
+			position += TRANSACTION_SIZE_LENGTH;
+			if(transactionLength < 0 || transactionLength > data.length - position)
+			{
+				throw new Exception("Data does not match length");
+			}
+			
+			transactions.add(TransactionFactory.getInstance().parse(Arrays.copyOfRange(data, position, position + transactionLength)));
+			position += transactionLength;
+		}
+		
+		return new BlockTransactionsMessage(signature, transactions);
+	}
+	
+	@Override
+	public byte[] toBytes()
+	{
+		byte[] data = new byte[0];
+		
+		//WRITE SIGNATURE
+		data = Bytes.concat(data, this.signature);
+		
+		//WRITE TRANSACTIONS
+		data = Bytes.concat(data, Ints.toByteArray(this.transactions.size()));
+		for(Transaction transaction: this.transactions)
+		{
+			data = Bytes.concat(data, Ints.toByteArray(transaction.getDataLength()), transaction.toBytes());
+		}
+		
+		//ADD CHECKSUM
+		data = Bytes.concat(super.toBytes(), this.generateChecksum(data), data);
+		
+		return data;
+	}
+	
+	@Override
+	public int getDataLength()
+	{
+		int length = SIGNATURE_LENGTH + COUNT_LENGTH;
+		for(Transaction transaction: this.transactions)
+		{
+			length += TRANSACTION_SIZE_LENGTH + transaction.getDataLength();
+		}
+		
+		return length;
+	}
+
+}
@@ -0,0 +1,122 @@
+package network.message;
+
+import java.util.Arrays;
+
+import qora.block.Block;
+import qora.block.CompactBlock;
+
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+public class CompactBlockMessage extends Message{
+
+	private static final int HEIGHT_LENGTH = 4;
+	private static final int HEADER_SIZE_LENGTH = 4;
+	private static final int COUNT_LENGTH = 4;
+	
+	private CompactBlock compactBlock;
+	private int height;
+	
+	public CompactBlockMessage(CompactBlock compactBlock, int height)
+	{
+		super(COMPACT_BLOCK_TYPE);	
+		
+		this.compactBlock = compactBlock;
+		this.height = height;
+	}
+	
+	public CompactBlock getCompactBlock()
+	{
+		return this.compactBlock;
+	}
+	
+	public int getHeight()
+	{
+		return this.height;
+	}
+	
+	public static CompactBlockMessage parse(byte[] data) throws Exception
+	{
+		//CHECK IF WE HAVE MINIMUM LENGTH
+		if(data.length < HEIGHT_LENGTH + CompactBlock.SALT_LENGTH + HEADER_SIZE_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		int position = 0;
+		
+		//PARSE HEIGHT
+		int height = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + HEIGHT_LENGTH));
+		position += HEIGHT_LENGTH;
+		
+		//PARSE SALT
+		byte[] salt = Arrays.copyOfRange(data, position, position + CompactBlock.SALT_LENGTH);
+		position += CompactBlock.SALT_LENGTH;
+		
+		//PARSE HEADER
+		int headerLength = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + HEADER_SIZE_LENGTH));
+		position += HEADER_SIZE_LENGTH;
+		if(headerLength < 0 || headerLength > data.length - position - COUNT_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		Block header = Block.parseHeader(Arrays.copyOfRange(data, position, position + headerLength));
+		position += headerLength;
+		
+		//PARSE SHORT IDS
+		int count = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + COUNT_LENGTH));
+		position += COUNT_LENGTH;
+		if(count < 0 || data.length - position != (long) count * CompactBlock.SHORT_ID_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		long[] shortIds = new long[count];
+		for(int i=0; i<count; i++)
+		{
+			byte[] shortIdBytes = Bytes.concat(new byte[Longs.BYTES - CompactBlock.SHORT_ID_LENGTH], Arrays.copyOfRange(data, position, position + CompactBlock.SHORT_ID_LENGTH));
+			shortIds[i] = Longs.fromByteArray(shortIdBytes);
+			position += CompactBlock.SHORT_ID_LENGTH;
+		}
+		
+		return new CompactBlockMessage(new CompactBlock(header, salt, shortIds), height);
+	}
+	
+	public byte[] toBytes() 
+	{
+		byte[] data = new byte[0];
+		
+		//WRITE BLOCK HEIGHT
+		data = Bytes.concat(data, Ints.toByteArray(this.height));
+		
+		//WRITE SALT
+		data = Bytes.concat(data, this.compactBlock.getSalt());
+		
+		//WRITE HEADER
+		byte[] headerBytes = this.compactBlock.getHeader().toHeaderBytes();
+		data = Bytes.concat(data, Ints.toByteArray(headerBytes.length), headerBytes);
+		
+		//WRITE SHORT IDS
+		long[] shortIds = this.compactBlock.getShortIds();
+		data = Bytes.concat(data, Ints.toByteArray(shortIds.length));
+		for(long shortId: shortIds)
+		{
+			byte[] shortIdBytes = Longs.toByteArray(shortId);
+			data = Bytes.concat(data, Arrays.copyOfRange(shortIdBytes, Longs.BYTES - CompactBlock.SHORT_ID_LENGTH, Longs.BYTES));
+		}
+		
+		//ADD CHECKSUM
+		data = Bytes.concat(super.toBytes(), this.generateChecksum(data), data);
+		
+		return data;
+	}	
+	
+	protected int getDataLength()
+	{
+		return HEIGHT_LENGTH + CompactBlock.SALT_LENGTH + HEADER_SIZE_LENGTH + this.compactBlock.getHeader().getHeaderLength() 
+				+ COUNT_LENGTH + this.compactBlock.getShortIds().length * CompactBlock.SHORT_ID_LENGTH;
+	}
+	
+}
@@ -0,0 +1,92 @@
+package network.message;
+
+import java.util.Arrays;
+
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+
+public class GetBlockTransactionsMessage extends Message{
+
+	private static final int SIGNATURE_LENGTH = 128;
+	private static final int COUNT_LENGTH = 4;
+	private static final int INDEX_LENGTH = 4;
+	
+	private byte[] signature;
+	private int[] indexes;
+	
+	public GetBlockTransactionsMessage(byte[] signature, int[] indexes)
+	{
+		super(GET_BLOCK_TRANSACTIONS_TYPE);	
+		
+		this.signature = signature;
+		this.indexes = indexes;
+	}
+	
+	public byte[] getSignature()
+	{
+		return this.signature;
+	}
+	
+	public int[] getIndexes()
+	{
+		return this.indexes;
+	}
+	
+	public static GetBlockTransactionsMessage parse(byte[] data) throws Exception
+	{
+		//CHECK IF WE HAVE MINIMUM LENGTH
+		if(data.length < SIGNATURE_LENGTH + COUNT_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		//READ SIGNATURE
+		byte[] signature = Arrays.copyOfRange(data, 0, SIGNATURE_LENGTH);
+		
+		//READ LENGTH
+		int count = Ints.fromByteArray(Arrays.copyOfRange(data, SIGNATURE_LENGTH, SIGNATURE_LENGTH + COUNT_LENGTH));
+		
+		//CHECK IF DATA MATCHES LENGTH
+		if(count < 0 || data.length != SIGNATURE_LENGTH + COUNT_LENGTH + ((long) count * INDEX_LENGTH))
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		int[] indexes = new int[count];
+		for(int i=0; i<count; i++)
+		{
+			int position = SIGNATURE_LENGTH + COUNT_LENGTH + (i * INDEX_LENGTH);
+			indexes[i] = Ints.fromByteArray(Arrays.copyOfRange(data, position, position + INDEX_LENGTH));
+		}
+		
+		return new GetBlockTransactionsMessage(signature, indexes);
+	}
+	
+	@Override
+	public byte[] toBytes()
+	{
+		byte[] data = new byte[0];
+		
+		//WRITE SIGNATURE
+		data = Bytes.concat(data, this.signature);
+		
+		//WRITE INDEXES
+		data = Bytes.concat(data, Ints.toByteArray(this.indexes.length));
+		for(int index: this.indexes)
+		{
+			data = Bytes.concat(data, Ints.toByteArray(index));
+		}
+		
+		//ADD CHECKSUM
+		data = Bytes.concat(super.toBytes(), this.generateChecksum(data), data);
+		
+		return data;
+	}
+	
+	@Override
+	public int getDataLength()
+	{
+		return SIGNATURE_LENGTH + COUNT_LENGTH + this.indexes.length * INDEX_LENGTH;
+	}
+
+}
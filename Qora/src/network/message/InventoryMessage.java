@@ -0,0 +1,89 @@
+package network.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+
+public class InventoryMessage extends Message{
+
+	public static final int SIGNATURE_LENGTH = 64;
+	private static final int DATA_LENGTH = 4;
+	
+	private List<byte[]> signatures;
+	
+	public InventoryMessage(List<byte[]> signatures)
+	{
+		super(INVENTORY_TYPE);	
+		
+		this.signatures = signatures;
+	}
+	
+	public List<byte[]> getSignatures()
+	{
+		return this.signatures;
+	}
+	
+	public static InventoryMessage parse(byte[] data) throws Exception
+	{
+		//CHECK IF WE HAVE MINIMUM LENGTH
+		if(data.length < DATA_LENGTH)
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		//READ LENGTH
+		byte[] lengthBytes =  Arrays.copyOfRange(data, 0, DATA_LENGTH);
+		int length = Ints.fromByteArray(lengthBytes);
+		
+		//CHECK IF DATA MATCHES LENGTH
+		if(length < 0 || data.length != DATA_LENGTH + ((long) length * SIGNATURE_LENGTH))
+		{
+			throw new Exception("Data does not match length");
+		}
+		
+		//CREATE SIGNATURES LIST
+		List<byte[]> signatures = new ArrayList<byte[]>();
+		
+		for(int i=0; i<length; i++)
+		{
+			//CALCULATE POSITION
+			int position = DATA_LENGTH + (i * SIGNATURE_LENGTH);
+			
+			//READ SIGNATURE
+			signatures.add(Arrays.copyOfRange(data, position, position + SIGNATURE_LENGTH));
+		}
+		
+		return new InventoryMessage(signatures);
+	}
+	
+	@Override
+	public byte[] toBytes()
+	{
+		byte[] data = new byte[0];
+		
+		//WRITE LENGTH
+		byte[] lengthBytes = Ints.toByteArray(this.signatures.size());
+		data = Bytes.concat(data, lengthBytes);
+		
+		//WRITE SIGNATURES
+		for(byte[] signature: this.signatures)
+		{
+			data = Bytes.concat(data, signature);
+		}
+		
+		//ADD CHECKSUM
+		data = Bytes.concat(super.toBytes(), this.generateChecksum(data), data);
+		
+		return data;
+	}
+	
+	@Override
+	public int getDataLength()
+	{
+		return DATA_LENGTH + (this.signatures.size() * SIGNATURE_LENGTH);
+	}
+	
+}
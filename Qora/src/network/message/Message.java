@@ -1,5 +1,6 @@
 package network.message;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import qora.crypto.Crypto;
@@ -32,10 +33,19 @@ public class Message {
 	public static final int PING_TYPE = 9;
 	public static final int VERSION_TYPE = 10;
 	public static final int FIND_MYSELF_TYPE = 11;
+	public static final int COMPACT_BLOCK_TYPE = 12;
+	public static final int GET_BLOCK_TRANSACTIONS_TYPE = 13;
+	public static final int BLOCK_TRANSACTIONS_TYPE = 14;
+	public static final int INVENTORY_TYPE = 15;
+	public static final int GET_TRANSACTIONS_TYPE = 16;
+	public static final int GET_BLOCK_HEADERS_TYPE = 17;
+	public static final int BLOCK_HEADERS_TYPE = 18;
 
 	private int type;
 	private Peer sender;
 	private int id;
+	private byte[] wireBytes;
+	private byte[] hash;
 	
 	public Message(int type)
 	{
@@ -48,9 +58,13 @@ public class Message {
 		return id;
 	}
 	
-	public void setId(int id)
+	public synchronized void setId(int id)
 	{
 		this.id = id;
+		
+		//ID IS PART OF THE WIRE BYTES
+		this.wireBytes = null;
+		this.hash = null;
 	}
 	
 	public boolean hasId()
@@ -73,9 +87,33 @@ public class Message {
 		return this.sender;
 	}
 	
-	public byte[] getHash()
+	public synchronized byte[] getHash()
+	{
+		if(this.hash == null)
+		{
+			this.hash = Crypto.getInstance().digest(this.getWireBytes());
+		}
+		
+		return this.hash;
+	}
+	
+	/**
+	 * Read-only buffer over the wire bytes of the message. The message is
+	 * serialized once, every buffer returned shares the same bytes.
+	 */
+	public ByteBuffer getWireBuffer()
 	{
-		return Crypto.getInstance().digest(this.toBytes());
+		return ByteBuffer.wrap(this.getWireBytes()).asReadOnlyBuffer();
+	}
+	
+	private synchronized byte[] getWireBytes()
+	{
+		if(this.wireBytes == null)
+		{
+			this.wireBytes = this.toBytes();
+		}
+		
+		return this.wireBytes;
 	}
 	
 	public byte[] toBytes() 
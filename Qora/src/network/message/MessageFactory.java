@@ -7,6 +7,7 @@ import java.util.logging.Logger;
 
 import network.message.MessageException;
 import qora.block.Block;
+import qora.block.CompactBlock;
 import qora.crypto.Crypto;
 import qora.transaction.Transaction;
 
@@ -86,6 +87,41 @@ public class MessageFactory {
 		return new TransactionMessage(transaction);
 	}
 	
+	public Message createCompactBlockMessage(Block block)
+	{
+		return new CompactBlockMessage(new CompactBlock(block), block.getHeight());
+	}
+	
+	public Message createGetBlockTransactionsMessage(byte[] signature, int[] indexes)
+	{
+		return new GetBlockTransactionsMessage(signature, indexes);
+	}
+	
+	public Message createBlockTransactionsMessage(byte[] signature, List<Transaction> transactions)
+	{
+		return new BlockTransactionsMessage(signature, transactions);
+	}
+	
+	public Message createInventoryMessage(List<byte[]> signatures)
+	{
+		return new InventoryMessage(signatures);
+	}
+	
+	public Message createGetTransactionsMessage(List<byte[]> signatures)
+	{
+		return new GetTransactionsMessage(signatures);
+	}
+	
+	public Message createGetBlockHeadersMessage(byte[] parent)
+	{
+		return new GetBlockHeadersMessage(parent);
+	}
+	
+	public Message createBlockHeadersMessage(List<Block> headers)
+	{
+		return new BlockHeadersMessage(headers);
+	}
+	
 	public Message parse(Peer sender, DataInputStream inputStream) throws Exception
 	{
 		//READ MESSAGE TYPE
@@ -231,6 +267,55 @@ public class MessageFactory {
 			message = FindMyselfMessage.parse(data);
 			break;			
 			
+		//COMPACT BLOCK
+		case Message.COMPACT_BLOCK_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = CompactBlockMessage.parse(data);
+			break;
+			
+		//GET BLOCK TRANSACTIONS
+		case Message.GET_BLOCK_TRANSACTIONS_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = GetBlockTransactionsMessage.parse(data);
+			break;
+			
+		//BLOCK TRANSACTIONS
+		case Message.BLOCK_TRANSACTIONS_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = BlockTransactionsMessage.parse(data);
+			break;
+			
+		//INVENTORY
+		case Message.INVENTORY_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = InventoryMessage.parse(data);
+			break;
+			
+		//GET TRANSACTIONS
+		case Message.GET_TRANSACTIONS_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = GetTransactionsMessage.parse(data);
+			break;
+			
+		//GET BLOCK HEADERS
+		case Message.GET_BLOCK_HEADERS_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = GetBlockHeadersMessage.parse(data);
+			break;
+			
+		//BLOCK HEADERS
+		case Message.BLOCK_HEADERS_TYPE:
+			
+			//CREATE MESSAGE FROM DATA
+			message = BlockHeadersMessage.parse(data);
+			break;
+			
 		default:
 			
 			//UNKNOWN MESSAGE
@@ -1,141 +1,222 @@
 package qora;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.primitives.UnsignedBytes;
 
 import qora.block.Block;
 import settings.Settings;
 import network.Peer;
+import network.PeerScores;
 import network.message.BlockMessage;
 import network.message.Message;
 import network.message.MessageFactory;
 
-public class BlockBuffer extends Thread
+/**
+ * Downloads the blocks for a list of signatures ahead of the synchronizer.
+ * <p>
+ * Keeps a sliding window of {@link #BUFFER_SIZE} requests in flight, spread
+ * over the given peers by their score, so faster peers serve more blocks and
+ * stalled peers none. No thread waits for a response. The first peer is the
+ * one that supplied the signatures and is used as fallback when another peer
+ * fails to deliver a block. Block signatures are checked on a bounded worker
+ * pool; blocks are handed out in the order they are asked for.
+ */
+public class BlockBuffer
 {
 	private static final int BUFFER_SIZE = 20;
-	
+	private static final int MAX_THREADS = 8;
+
+	private static final Logger LOGGER = LogManager.getLogger(BlockBuffer.class);
+
 	private List<byte[]> signatures;
-	private Peer peer;
+	private List<Peer> peers;
 	private int counter;
-	private boolean error;
-	private Map<byte[], BlockingQueue<Block>> blocks;
-	
-	private boolean run = true;
-	
-	public BlockBuffer(List<byte[]> signatures, Peer peer)
+	private Map<byte[], Future<Block>> blocks;
+	private ExecutorService executor;
+
+	public BlockBuffer(List<byte[]> signatures, List<Peer> peers)
 	{
 		this.signatures = signatures;
-		this.peer = peer;
+		this.peers = peers;
 		this.counter = 0;
-		this.error = false;
-		
-		this.blocks = new HashMap<byte[], BlockingQueue<Block>>();
-		this.start();
+
+		this.blocks = new TreeMap<byte[], Future<Block>>(UnsignedBytes.lexicographicalComparator());
+		//RESPONSES ARRIVING AFTER SHUTDOWN ARE IGNORED
+		this.executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "BlockBuffer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.DiscardPolicy());
+
+		//START LOADING FIRST BLOCKS
+		this.fill();
 	}
-	
-	public void run() 
-	{
-	    Thread.currentThread().setName("BlockBuffer");
 
-		while(this.run)
+	private void fill()
+	{
+		for(int i=this.counter; i<this.signatures.size() && i<this.counter + BUFFER_SIZE; i++)
 		{
-			for(int i=0; i<this.signatures.size() && i<this.counter + BUFFER_SIZE; i++)
+			byte[] signature = this.signatures.get(i);
+
+			//CHECK IF WE HAVE ALREADY REQUESTED THIS BLOCK
+			if(!this.blocks.containsKey(signature))
 			{
-				byte[] signature = this.signatures.get(i);
-				
-				//CHECK IF WE HAVE ALREADY LOADED THIS BLOCK
-				if(!this.blocks.containsKey(signature))
+				//LOAD BLOCK
+				this.loadBlock(signature);
+			}
+		}
+	}
+
+	private void loadBlock(final byte[] signature)
+	{
+		final Peer peer = this.choosePeer();
+		final Peer primary = this.peers.get(0);
+
+		CompletableFuture<Block> future = this.fetchBlock(signature, peer, peer == primary);
+
+		//FALL BACK TO PEER THAT GAVE US THE SIGNATURES
+		if(peer != primary)
+		{
+			future = future.thenCompose(new Function<Block, CompletionStage<Block>>() {
+				@Override
+				public CompletionStage<Block> apply(Block block)
 				{
-					//LOAD BLOCK
-					this.loadBlock(signature);
+					if(block != null)
+					{
+						return CompletableFuture.completedFuture(block);
+					}
+
+					LOGGER.debug("Failed to receive block from " + peer.getAddress() + ", asking " + primary.getAddress());
+					return fetchBlock(signature, primary, true);
 				}
-			}
-			
-			try 
+			});
+		}
+
+		this.blocks.put(signature, future);
+	}
+
+	/**
+	 * Spread requests over peers by score: the peer with the least requests
+	 * in flight for its score gets the next one. Stalled peers are skipped
+	 * unless all are.
+	 */
+	private Peer choosePeer()
+	{
+		Peer best = null;
+		double bestLoad = Double.MAX_VALUE;
+		for(Peer peer: this.peers)
+		{
+			if(PeerScores.getInstance().isStalled(peer))
 			{
-				Thread.sleep(10);
-			} 
-			catch (InterruptedException e) 
+				continue;
+			}
+
+			double load = (peer.getRequestsInFlight() + 1) / Math.max(1, PeerScores.getInstance().getScore(peer));
+			if(load < bestLoad)
 			{
-				//ERROR SLEEPING
+				best = peer;
+				bestLoad = load;
 			}
 		}
+
+		return best != null ? best : this.peers.get(0);
 	}
-	
-	private void loadBlock(final byte[] signature)
+
+	private CompletableFuture<Block> fetchBlock(final byte[] signature, final Peer peer, final boolean primary)
 	{
-		//CREATE QUEUE
-		final BlockingQueue<Block> blockingQueue = new ArrayBlockingQueue<Block>(1);
-		this.blocks.put(signature, blockingQueue);
-		
-		//LOAD BLOCK IN THREAD
-		new Thread(){
-			public void run()
+		//CREATE MESSAGE
+		Message message = MessageFactory.getInstance().createGetBlockMessage(signature);
+
+		//SEND MESSAGE TO PEER, CHECK RESPONSE IN WORKER
+		return peer.request(message).handleAsync(new BiFunction<Message, Throwable, Block>() {
+			@Override
+			public Block apply(Message response, Throwable error)
 			{
-				//CREATE MESSAGE
-				Message message = MessageFactory.getInstance().createGetBlockMessage(signature);
-				
-				//SEND MESSAGE TO PEER
-				BlockMessage response = (BlockMessage) peer.getResponse(message);
-				
 				//CHECK IF WE GOT RESPONSE
-				if(response == null)
+				if(error != null)
 				{
-					//ERROR
-					error = true;
-					return;
+					return null;
 				}
-				
-				//CHECK BLOCK SIGNATURE
-				if(!response.getBlock().isSignatureValid())
+
+				//CHECK IF WE GOT THE BLOCK WE ASKED FOR AND BLOCK SIGNATURE
+				Block block = ((BlockMessage) response).getBlock();
+				if(!Arrays.equals(block.getSignature(), signature) || !block.isSignatureValid())
 				{
-					error = true;
-					return;
+					PeerScores.getInstance().onInvalid(peer);
+
+					if(primary)
+					{
+						throw new CompletionException(new Exception("Invalid block"));
+					}
+
+					return null;
 				}
-				
-				//ADD TO LIST
-				blockingQueue.add(response.getBlock());
+
+				return block;
 			}
-		}.start();
+		}, this.executor);
 	}
-	
+
 	public Block getBlock(byte[] signature) throws Exception
 	{
-		//CHECK ERROR
-		if(this.error)
-		{
-			throw new Exception("Block buffer error");
-		}
-		
 		//UPDATE COUNTER
 		this.counter = this.signatures.indexOf(signature);
-		
-		//CHECK IF ALREADY LOADED BLOCK
+
+		//CHECK IF ALREADY REQUESTED BLOCK
 		if(!this.blocks.containsKey(signature))
 		{
 			//LOAD BLOCK
 			this.loadBlock(signature);
 		}
-		
+
+		//MOVE WINDOW
+		this.fill();
+
 		//GET BLOCK
-		return this.blocks.get(signature).poll(Settings.getInstance().getConnectionTimeout(), TimeUnit.MILLISECONDS);
-	}
-	
-	public void stopThread()
-	{
+		Future<Block> future = this.blocks.remove(signature);
 		try
 		{
-			this.run = false;
-			this.join();
+			//MAY HAVE TO ASK TWO PEERS
+			return future.get(2L * Settings.getInstance().getConnectionTimeout(), TimeUnit.MILLISECONDS);
 		}
-		catch (InterruptedException e) 
+		catch(TimeoutException e)
 		{
-			//INTERRUPTED
+			future.cancel(true);
+			return null;
 		}
+		catch(ExecutionException e)
+		{
+			throw new Exception("Block buffer error", e.getCause());
+		}
+	}
+
+	public void shutdown()
+	{
+		//INTERRUPT OUTSTANDING REQUESTS
+		this.executor.shutdownNow();
 	}
-	
+
 }
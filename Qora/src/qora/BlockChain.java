@@ -15,7 +15,11 @@ import qora.transaction.ArbitraryTransaction;
 import qora.transaction.Transaction;
 import settings.Settings;
 import utils.Pair;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+
 import controller.Controller;
+import database.BlockMap;
 import database.DBSet;
 
 public class BlockChain
@@ -47,6 +51,8 @@ public class BlockChain
 					LOGGER.error(e.getMessage(),e);
 				}
 			}
+        	DBSet.getInstance().beginBatch();
+        	
         	//PROCESS
         	genesisBlock.process();
         	
@@ -54,6 +60,8 @@ public class BlockChain
         	Asset qoraAsset = new Asset(genesisBlock.getGenerator(), "Qora", "This is the simulated Qora asset.", 10000000000L, true, genesisBlock.getGeneratorSignature());
         	DBSet.getInstance().getIssueAssetMap().set(genesisBlock.getGeneratorSignature(), 0l);
         	DBSet.getInstance().getAssetMap().set(0l, qoraAsset);
+        	
+        	DBSet.getInstance().commitBatch();
         }
 	}
 	
@@ -73,21 +81,61 @@ public class BlockChain
 		//CHECK IF BLOCK EXISTS
 		if(DBSet.getInstance().getBlockMap().contains(parent))
 		{
-			Block parentBlock = DBSet.getInstance().getBlockMap().get(parent).getChild();
-			
-			int counter = 0;
-			while(parentBlock != null && counter < MAX_SIGNATURES)
+			//READ NEXT SIGNATURES FROM HEIGHT INDEX
+			int height = DBSet.getInstance().getHeightMap().get(parent);
+			if(height > 0)
 			{
-				headers.add(parentBlock.getSignature());
-				
-				parentBlock = parentBlock.getChild();
+				int to = Math.min(height + MAX_SIGNATURES, this.getHeight());
 				
-				counter ++;
+				headers.addAll(DBSet.getInstance().getHeightMap().getBlocksByHeight(height + 1, to));
 			}
 		}
 		
 		return headers;		
 	}
+	
+	/**
+	 * Up to {@link #MAX_SIGNATURES} blocks following the parent, for their
+	 * headers. Empty if we do not know the parent.
+	 */
+	public List<Block> getHeaders(byte[] parent) {
+		
+		List<Block> headers = new ArrayList<Block>();
+		
+		//CHECK IF BLOCK EXISTS
+		if(DBSet.getInstance().getBlockMap().contains(parent))
+		{
+			int height = DBSet.getInstance().getHeightMap().get(parent);
+			if(height > 0)
+			{
+				for(Block block: this.blocksBetween(height + 1, height + MAX_SIGNATURES))
+				{
+					headers.add(block);
+				}
+			}
+		}
+		
+		return headers;
+	}
+	
+	/**
+	 * Blocks from height <code>from</code> up to and including
+	 * <code>to</code>, in order of height. Blocks are loaded one at a time as
+	 * the iteration reaches them.
+	 */
+	public Iterable<Block> blocksBetween(int from, int to) {
+		
+		//NEVER PAST THE LAST BLOCK
+		to = Math.min(to, this.getHeight());
+		
+		final BlockMap blockMap = DBSet.getInstance().getBlockMap();
+		return Iterables.transform(DBSet.getInstance().getHeightMap().getBlocksByHeight(Math.max(from, 1), to), new Function<byte[], Block>() {
+			@Override
+			public Block apply(byte[] signature) {
+				return blockMap.get(signature);
+			}
+		});
+	}
 
 	public Block getBlock(byte[] header) {
 
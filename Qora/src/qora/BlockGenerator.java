@@ -3,14 +3,21 @@ package qora;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -33,6 +40,7 @@ import com.google.common.primitives.Longs;
 
 import controller.Controller;
 import database.DBSet;
+import database.TransactionMap;
 import lang.Lang;
 
 public class BlockGenerator extends Thread implements Observer
@@ -43,6 +51,15 @@ public class BlockGenerator extends Thread implements Observer
 	public static final int MIN_BLOCK_TIME = 1 * 60;
 	public static final int MAX_BLOCK_TIME = 5 * 60;
 	
+	//WAKE UP WITHOUT EVENTS NOW AND THEN, IN CASE ONE WAS MISSED
+	private static final long IDLE_TIMEOUT = 60 * 1000;
+	
+	//WAIT BEFORE SYNCHRONIZING AGAIN AFTER IT FAILED
+	private static final long SYNC_RETRY = 1000;
+	
+	//REBUILD THE TEMPLATE AT MOST THIS OFTEN WHILE THE POOL CHANGES
+	private static final long TEMPLATE_INTERVAL = 1000;
+	
 	private static final Logger LOGGER = LogManager.getLogger(BlockGenerator.class);
 	
 	public enum ForgingStatus {
@@ -75,10 +92,24 @@ public class BlockGenerator extends Thread implements Observer
         return forgingStatus;
     }
 	
+	private static ForkJoinPool pool;
+	
 	private Map<PrivateKeyAccount, Block> blocks;
+	private PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
 	private Block solvingBlock;
+	private Solving solving;
+	
+	//SIGNALLED BY EVENTS THAT MAY CHANGE WHAT TO FORGE
+	private final Object wakeUp = new Object();
+	private boolean wokenUp;
 	private List<PrivateKeyAccount> cachedAccounts;
 	
+	//TRANSACTIONS PREPARED FOR THE BLOCK DUE FIRST
+	private Block templateBlock;
+	private List<Transaction> templateTransactions;
+	private volatile boolean templateChanged;
+	private long templateTime;
+	
 	private ForgingStatus forgingStatus = ForgingStatus.FORGING_DISABLED;
 	private boolean walletOnceUnlocked = false;
     private boolean stopping = false;
@@ -169,6 +200,7 @@ public class BlockGenerator extends Thread implements Observer
 		{
 			forgingStatus = status;
 			Controller.getInstance().forgingStatusChanged(forgingStatus);
+			this.wakeUp();
 		}
 	}
 	
@@ -176,6 +208,12 @@ public class BlockGenerator extends Thread implements Observer
 	public void run()
 	{
 	    Thread.currentThread().setName("BlockGenerator");
+	    
+	    //REBUILD TEMPLATE WHEN POOL CHANGES
+	    DBSet.getInstance().getTransactionMap().addObserver(this);
+	    
+	    //NEW CANDIDATES WHEN THE TIP CHANGES
+	    DBSet.getInstance().getBlockMap().addObserver(this);
 
 		while(!this.stopping && !DBSet.getInstance().isStoped())
 		{
@@ -185,104 +223,169 @@ public class BlockGenerator extends Thread implements Observer
 				Controller.getInstance().update();
 			}
 
+			long wait = IDLE_TIMEOUT;
+			
 			//CHECK IF WE HAVE CONNECTIONS
 			if(forgingStatus == ForgingStatus.FORGING)
 			{
-				//GET LAST BLOCK
-				byte[] lastBlockSignature = DBSet.getInstance().getBlockMap().getLastBlockSignature();
-						
-				//CHECK IF DIFFERENT FOR CURRENT SOLVING BLOCK
-				if(this.solvingBlock == null || !Arrays.equals(this.solvingBlock.getSignature(), lastBlockSignature))
-				{
-					//SET NEW BLOCK TO SOLVE
-					this.solvingBlock = DBSet.getInstance().getBlockMap().getLastBlock();
-					
-					//RESET BLOCKS
-					this.blocks = new HashMap<PrivateKeyAccount, Block>();
-				}
-				
-				//GENERATE NEW BLOCKS
-				if(Controller.getInstance().doesWalletExists())
-				{
-					//PREVENT CONCURRENT MODIFY EXCEPTION
-					List<PrivateKeyAccount> knownAccounts = this.getKnownAccounts();
-					synchronized(knownAccounts)
-					{
-						for(PrivateKeyAccount account: knownAccounts)
-						{
-							if(account.getGeneratingBalance().compareTo(BigDecimal.ONE) >= 0)
-							{
-								//CHECK IF BLOCK FROM USER ALREADY EXISTS USE MAP ACCOUNT BLOCK EASY
-								if(!this.blocks.containsKey(account))
-								{	
-									//GENERATE NEW BLOCK FOR USER
-									this.blocks.put(account, this.generateNextBlock(DBSet.getInstance(), account, this.solvingBlock));
-								}
-							}
-						}
-					}
-				}
-				
-				//VALID BLOCK FOUND
-				boolean validBlockFound = false;
-						
-				//CHECK IF BLOCK IS VALID
-				for(PrivateKeyAccount account: this.blocks.keySet())
-				{
-					Block block = this.blocks.get(account);
-					
-					/*Date date = new Date(block.getTimestamp());
-					DateFormat format = DateFormat.getDateTimeInstance();
-					System.out.println(format.format(date));*/
-					
-					//CHECK IF BLACK TIMESTAMP IS VALID
-					if(block.getTimestamp() <= NTP.getTime() && !validBlockFound)
-					{
-						//ADD TRANSACTIONS
-						this.addUnconfirmedTransactions(DBSet.getInstance(), block);
-						
-						//ADD TRANSACTION SIGNATURE
-						block.setTransactionsSignature(this.calculateTransactionsSignature(block, account));
-						
-						//PASS BLOCK TO CONTROLLER
-						Controller.getInstance().newBlockGenerated(block);
-						
-						//BLOCK FOUND
-						validBlockFound = true;
-					}
-				}
+				wait = this.forge();
+			}
+			
+			//TRY AGAIN SOON IF SYNCHRONIZING FAILED
+			if(!Controller.getInstance().isUpToDate())
+			{
+				wait = Math.min(wait, SYNC_RETRY);
+			}
+			
+			this.await(wait);
+		}
+	}
+	
+	/**
+	 * Keeps a block of every forging account for the current tip and passes
+	 * the one due first to the controller once it is due.
+	 * 
+	 * @return milliseconds until the next block is due, or until the
+	 * template of that block can be rebuilt if it is sooner
+	 */
+	private long forge()
+	{
+		//GET LAST BLOCK
+		byte[] lastBlockSignature = DBSet.getInstance().getBlockMap().getLastBlockSignature();
 				
-				//IF NO BLOCK FOUND
-				if(!validBlockFound)
+		//CHECK IF DIFFERENT FOR CURRENT SOLVING BLOCK
+		if(this.solvingBlock == null || !Arrays.equals(this.solvingBlock.getSignature(), lastBlockSignature))
+		{
+			//SET NEW BLOCK TO SOLVE
+			this.solvingBlock = DBSet.getInstance().getBlockMap().getLastBlock();
+			this.solving = new Solving(DBSet.getInstance(), this.solvingBlock);
+			
+			//RESET BLOCKS
+			this.blocks = new HashMap<PrivateKeyAccount, Block>();
+			this.candidates.clear();
+		}
+		
+		//GENERATE NEW BLOCKS
+		if(Controller.getInstance().doesWalletExists())
+		{
+			//PREVENT CONCURRENT MODIFY EXCEPTION
+			List<PrivateKeyAccount> accounts = new ArrayList<PrivateKeyAccount>();
+			List<PrivateKeyAccount> knownAccounts = this.getKnownAccounts();
+			synchronized(knownAccounts)
+			{
+				for(PrivateKeyAccount account: knownAccounts)
 				{
-					//SLEEP
-					try 
+					//CHECK IF BLOCK FROM USER ALREADY EXISTS USE MAP ACCOUNT BLOCK EASY
+					if(!this.blocks.containsKey(account) && account.getGeneratingBalance().compareTo(BigDecimal.ONE) >= 0)
 					{
-						Thread.sleep(100);
-					} 
-					catch (InterruptedException e) 
-					{
-						LOGGER.error(e.getMessage(),e);
+						accounts.add(account);
 					}
 				}
 			}
-			else
+			
+			//GENERATE NEW BLOCKS FOR USERS
+			for(Map.Entry<PrivateKeyAccount, Block> entry: this.generateNextBlocks(DBSet.getInstance(), accounts, this.solving).entrySet())
 			{
-				//SLEEP
-				try 
-				{
-					Thread.sleep(100);
-				} 
-				catch (InterruptedException e) 
+				this.blocks.put(entry.getKey(), entry.getValue());
+				this.candidates.add(new Candidate(entry.getKey(), entry.getValue()));
+			}
+		}
+		
+		//BLOCK THAT IS DUE FIRST
+		Candidate next = this.candidates.peek();
+		if(next == null)
+		{
+			return IDLE_TIMEOUT;
+		}
+		
+		Block nextBlock = next.block;
+		long delay = nextBlock.getTimestamp() - NTP.getTime();
+		
+		//CHECK IF BLOCK TIMESTAMP IS VALID
+		if(delay <= 0)
+		{
+			//ONLY ONCE, THE NEXT TIP BRINGS NEW CANDIDATES
+			this.candidates.poll();
+			
+			//USE TEMPLATE IF POOL DID NOT CHANGE SINCE
+			List<Transaction> transactions = this.templateTransactions;
+			if(this.templateBlock != nextBlock || this.templateChanged)
+			{
+				transactions = this.getBlockTransactions(DBSet.getInstance(), nextBlock.getTimestamp());
+			}
+			
+			//ADD TRANSACTIONS
+			for(Transaction transaction: transactions)
+			{
+				nextBlock.addTransaction(transaction);
+			}
+			
+			//ADD TRANSACTION SIGNATURE
+			nextBlock.setTransactionsSignature(this.calculateTransactionsSignature(nextBlock, next.account));
+			
+			//PASS BLOCK TO CONTROLLER
+			Controller.getInstance().newBlockGenerated(nextBlock);
+			this.templateBlock = null;
+			
+			//LOOK AT THE NEW TIP RIGHT AWAY
+			return 0;
+		}
+		
+		if(this.templateBlock != nextBlock || this.templateChanged)
+		{
+			//COME BACK LATER IF THE TEMPLATE WAS REBUILT JUST NOW
+			long retry = this.templateTime + TEMPLATE_INTERVAL - NTP.getTime();
+			if(this.templateBlock == nextBlock && retry > 0)
+			{
+				return Math.min(delay, retry);
+			}
+			
+			//PREPARE TRANSACTIONS WHILE WAITING
+			this.templateChanged = false;
+			this.templateTransactions = this.getBlockTransactions(DBSet.getInstance(), nextBlock.getTimestamp());
+			this.templateBlock = nextBlock;
+			this.templateTime = NTP.getTime();
+		}
+		
+		return delay;
+	}
+	
+	private void await(long millis)
+	{
+		synchronized(this.wakeUp)
+		{
+			try 
+			{
+				if(!this.wokenUp && millis > 0)
 				{
-					LOGGER.error(e.getMessage(),e);
+					this.wakeUp.wait(millis);
 				}
+			} 
+			catch (InterruptedException e) 
+			{
+				LOGGER.error(e.getMessage(),e);
 			}
+			
+			this.wokenUp = false;
+		}
+	}
+	
+	/**
+	 * Makes the generator look at the chain, the wallet and the network
+	 * again instead of waiting for the next block to be due.
+	 */
+	public void wakeUp()
+	{
+		synchronized(this.wakeUp)
+		{
+			this.wokenUp = true;
+			this.wakeUp.notifyAll();
 		}
 	}
 	
 	public void shutdown() {
 	    this.stopping = true;
+	    this.wakeUp();
 	    try {
 	        this.join();
 	    } catch (InterruptedException e) {
@@ -291,6 +394,85 @@ public class BlockGenerator extends Thread implements Observer
 	}
 
 	public Block generateNextBlock(DBSet db, PrivateKeyAccount account, Block block)
+	{
+		return this.generateNextBlock(db, account, new Solving(db, block));
+	}
+	
+	/**
+	 * Generates the next blocks of all given accounts in parallel, sharing
+	 * the work that only depends on the solving block.
+	 * 
+	 * @return the block of every account that can forge one
+	 */
+	public Map<PrivateKeyAccount, Block> generateNextBlocks(final DBSet db, List<PrivateKeyAccount> accounts, final Solving solving)
+	{
+		Map<PrivateKeyAccount, Block> blocks = new HashMap<PrivateKeyAccount, Block>();
+		
+		//NOT WORTH HANDING OFF
+		if(accounts.size() <= 1)
+		{
+			for(PrivateKeyAccount account: accounts)
+			{
+				Block block = this.generateNextBlock(db, account, solving);
+				if(block != null)
+				{
+					blocks.put(account, block);
+				}
+			}
+			
+			return blocks;
+		}
+		
+		List<Callable<Block>> tasks = new ArrayList<Callable<Block>>();
+		for(final PrivateKeyAccount account: accounts)
+		{
+			tasks.add(new Callable<Block>() {
+				@Override
+				public Block call() {
+					return generateNextBlock(db, account, solving);
+				}
+			});
+		}
+		
+		List<Future<Block>> results = getPool().invokeAll(tasks);
+		for(int i=0; i<accounts.size(); i++)
+		{
+			try
+			{
+				Block block = results.get(i).get();
+				if(block != null)
+				{
+					blocks.put(accounts.get(i), block);
+				}
+			}
+			catch(InterruptedException | ExecutionException e)
+			{
+				LOGGER.error(e.getMessage(),e);
+			}
+		}
+		
+		return blocks;
+	}
+	
+	private static synchronized ForkJoinPool getPool()
+	{
+		if(pool == null)
+		{
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("BlockGenerator-" + thread.getPoolIndex());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, null, false);
+		}
+		
+		return pool;
+	}
+	
+	private Block generateNextBlock(DBSet db, PrivateKeyAccount account, Solving solving)
 	{
 		//CHECK IF ACCOUNT HAS BALANCE
 		if(account.getGeneratingBalance(db) == BigDecimal.ZERO)
@@ -298,15 +480,14 @@ public class BlockGenerator extends Thread implements Observer
 			return null;
 		}
 
+		Block block = solving.block;
+		
 		//CALCULATE SIGNATURE
-		byte[] signature = this.calculateSignature(db, block, account);
-
-		//DETERMINE BLOCK VERSION
-		int version = block.getNextBlockVersion(db);
+		byte[] signature = this.calculateSignature(solving, account);
 
 		//CALCULATE HASH
 		byte[] hash;
-		if (version < 3)
+		if (solving.version < 3)
 		{
 			hash = Crypto.getInstance().digest(signature);
 		}
@@ -320,17 +501,8 @@ public class BlockGenerator extends Thread implements Observer
 		//CONVERT HASH TO BIGINT
 		BigInteger hashValue = new BigInteger(1, hash);
 		
-		//CALCULATE ACCOUNT TARGET
-		byte[] targetBytes = new byte[32];
-		Arrays.fill(targetBytes, Byte.MAX_VALUE);
-		BigInteger target = new BigInteger(1, targetBytes);
-								
-		//DIVIDE TARGET BY BASE TARGET
-		BigInteger baseTarget = BigInteger.valueOf(getBaseTarget(getNextBlockGeneratingBalance(db, block)));
-		target = target.divide(baseTarget);
-			
 		//MULTIPLY TARGET BY USER BALANCE
-		target = target.multiply(account.getGeneratingBalance(db).toBigInteger());
+		BigInteger target = solving.target.multiply(account.getGeneratingBalance(db).toBigInteger());
 		
 		//CALCULATE GUESSES
 		//long guesses = hashValue.divide(target).longValue() + 1;
@@ -348,29 +520,26 @@ public class BlockGenerator extends Thread implements Observer
 		
 		//CREATE NEW BLOCK
 		Block newBlock;
-		if ( version > 1 )
+		if ( solving.version > 1 )
 		{
-			AT_Block atBlock = AT_Controller.getCurrentBlockATs( AT_Constants.getInstance().MAX_PAYLOAD_FOR_BLOCK( block.getHeight() ) , block.getHeight() + 1 );
-			byte[] atBytes = atBlock.getBytesForBlock();
-			newBlock = BlockFactory.getInstance().create(version, block.getSignature(), timestamp.longValue(), getNextBlockGeneratingBalance(db, block), account, signature, atBytes, atBlock.getTotalFees());
+			newBlock = BlockFactory.getInstance().create(solving.version, block.getSignature(), timestamp.longValue(), solving.generatingBalance, account, signature, solving.atBytes, solving.atFees);
 		}
 		else
 		{
-			newBlock = BlockFactory.getInstance().create(version, block.getSignature(), timestamp.longValue(), getNextBlockGeneratingBalance(db, block), account, signature);
+			newBlock = BlockFactory.getInstance().create(solving.version, block.getSignature(), timestamp.longValue(), solving.generatingBalance, account, signature);
 		}
 		return newBlock;
 	}
 	
-	private byte[] calculateSignature(DBSet db, Block solvingBlock, PrivateKeyAccount account) 
+	private byte[] calculateSignature(Solving solving, PrivateKeyAccount account) 
 	{	
 		byte[] data = new byte[0];
 		
 		//WRITE PARENT GENERATOR SIGNATURE
-		byte[] generatorSignature = Bytes.ensureCapacity(solvingBlock.getGeneratorSignature(), Block.GENERATOR_SIGNATURE_LENGTH, 0);
-		data = Bytes.concat(data, generatorSignature);
+		data = Bytes.concat(data, solving.generatorSignature);
 		
 		//WRITE GENERATING BALANCE
-		byte[] baseTargetBytes = Longs.toByteArray(getNextBlockGeneratingBalance(db, solvingBlock));
+		byte[] baseTargetBytes = Longs.toByteArray(solving.generatingBalance);
 		baseTargetBytes = Bytes.ensureCapacity(baseTargetBytes, Block.GENERATING_BALANCE_LENGTH, 0);
 		data = Bytes.concat(data,baseTargetBytes);
 		
@@ -399,62 +568,118 @@ public class BlockGenerator extends Thread implements Observer
 	
 	public void addUnconfirmedTransactions(DBSet db, Block block)
 	{
+		for(Transaction transaction: this.getBlockTransactions(db, block.getTimestamp()))
+		{
+			block.addTransaction(transaction);
+		}
+	}
+	
+	/**
+	 * Picks the unconfirmed transactions for a block with the given timestamp,
+	 * highest fee per byte first. A transaction that references a transaction
+	 * not yet picked waits until that one is added, so chains of transactions
+	 * from one account are packed in order without rescanning the pool.
+	 */
+	public List<Transaction> getBlockTransactions(DBSet db, long timestamp)
+	{
+		List<Transaction> transactions = new ArrayList<Transaction>();
 		long totalBytes = 0;
-		boolean transactionProcessed;
-			
+		
 		//CREATE FORK OF GIVEN DATABASE
 		DBSet newBlockDb = db.fork();
-					
-		//ORDER TRANSACTIONS BY FEE PER BYTE
-		List<Transaction> orderedTransactions = new ArrayList<Transaction>(db.getTransactionMap().getValues());
-		Collections.sort(orderedTransactions, new TransactionFeeComparator());
-		//Collections.sort(orderedTransactions, Collections.reverseOrder());
-					
-		do
+		
+		//POOL ORDERED BY FEE PER BYTE
+		TransactionFeeComparator comparator = new TransactionFeeComparator();
+		Iterator<byte[]> signatures = db.getTransactionMap().getIterator(TransactionMap.FEE_INDEX, true);
+		Transaction next = this.nextTransaction(db, signatures);
+		
+		//TRANSACTIONS WHOSE REFERENCE WAS ADDED TO THE BLOCK
+		PriorityQueue<Transaction> ready = new PriorityQueue<Transaction>(11, comparator);
+		
+		//TRANSACTIONS WAITING FOR THE TRANSACTION THEY REFERENCE
+		Map<ByteBuffer, List<Transaction>> waiting = new HashMap<ByteBuffer, List<Transaction>>();
+		
+		while(next != null || !ready.isEmpty())
 		{
-			transactionProcessed = false;
-						
-			for(Transaction transaction: orderedTransactions)
+			Transaction transaction;
+			if(next == null || (!ready.isEmpty() && comparator.compare(ready.peek(), next) <= 0))
+			{
+				transaction = ready.poll();
+			}
+			else
+			{
+				transaction = next;
+				next = this.nextTransaction(db, signatures);
+			}
+			
+			//CHECK TRANSACTION TIMESTAMP AND DEADLINE
+			if(transaction.getTimestamp() > timestamp || transaction.getDeadline() <= timestamp)
+			{
+				continue;
+			}
+			
+			//CHECK IF ENOUGH ROOM
+			if(totalBytes + transaction.getDataLength() > Block.MAX_TRANSACTION_BYTES)
 			{
-				//CHECK TRANSACTION TIMESTAMP AND DEADLINE
-				if(transaction.getTimestamp() <= block.getTimestamp() && transaction.getDeadline() > block.getTimestamp())
+				continue;
+			}
+			
+			try
+			{
+				//CHECK IF REFERENCED TRANSACTION IS ADDED
+				if(!Arrays.equals(transaction.getCreator().getLastReference(newBlockDb), transaction.getReference()))
 				{
-					try{
-						//CHECK IF VALID
-						if(transaction.isValid(newBlockDb) == Transaction.VALIDATE_OK)
-						{
-							//CHECK IF ENOUGH ROOM
-							if(totalBytes + transaction.getDataLength() <= Block.MAX_TRANSACTION_BYTES)
-							{
-								//ADD INTO BLOCK
-								block.addTransaction(transaction);
-											
-								//REMOVE FROM LIST
-								orderedTransactions.remove(transaction);
-											
-								//PROCESS IN NEWBLOCKDB
-								transaction.process(newBlockDb);
-											
-								//TRANSACTION PROCESSED
-								transactionProcessed = true;
-
-								//INCREASE TRANSACTIONS SIZE TOTAL
-								totalBytes += transaction.getDataLength();
-								break;
-							}
-						}
-					}catch(Exception e){
-						LOGGER.error(e.getMessage(),e);
-                        //REMOVE FROM LIST
-                        orderedTransactions.remove(transaction);
-                        transactionProcessed = true;
-                        break;                    
+					ByteBuffer reference = ByteBuffer.wrap(transaction.getReference());
+					if(!waiting.containsKey(reference))
+					{
+						waiting.put(reference, new ArrayList<Transaction>());
 					}
+					waiting.get(reference).add(transaction);
+					continue;
 				}
-						
+				
+				//CHECK IF VALID
+				if(transaction.isValid(newBlockDb) == Transaction.VALIDATE_OK)
+				{
+					//ADD INTO BLOCK
+					transactions.add(transaction);
+					
+					//PROCESS IN NEWBLOCKDB
+					transaction.process(newBlockDb);
+					
+					//INCREASE TRANSACTIONS SIZE TOTAL
+					totalBytes += transaction.getDataLength();
+					
+					//TRANSACTIONS REFERENCING THIS ONE CAN BE ADDED NOW
+					List<Transaction> children = waiting.remove(ByteBuffer.wrap(transaction.getSignature()));
+					if(children != null)
+					{
+						ready.addAll(children);
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				LOGGER.error(e.getMessage(),e);
 			}
 		}
-		while(transactionProcessed == true);
+		
+		return transactions;
+	}
+	
+	private Transaction nextTransaction(DBSet db, Iterator<byte[]> signatures)
+	{
+		while(signatures.hasNext())
+		{
+			//MAY HAVE BEEN REMOVED SINCE
+			Transaction transaction = db.getTransactionMap().get(signatures.next());
+			if(transaction != null)
+			{
+				return transaction;
+			}
+		}
+		
+		return null;
 	}
 	
 	/*public void addObserver(Observer o)
@@ -479,20 +704,30 @@ public class BlockGenerator extends Thread implements Observer
 					
 			generatingTime -= firstBlock.getTimestamp();
 			
-			//CALCULATE EXPECTED FORGING TIME
-			long expectedGeneratingTime = getBlockTime(block.getGeneratingBalance()) * RETARGET * 1000;
-			
-			//CALCULATE MULTIPLIER
-			double multiplier = (double) expectedGeneratingTime / (double) generatingTime;
-			
-			//CALCULATE NEW GENERATING BALANCE
-			long generatingBalance = (long) (block.getGeneratingBalance() * multiplier);
-			
-			return minMaxBalance(generatingBalance);
+			return getRetargetedGeneratingBalance(block.getGeneratingBalance(), generatingTime);
 		}
 		
 		return block.getGeneratingBalance();
 	}
+	
+	/**
+	 * Generating balance after a retarget, given the generating balance of
+	 * the last block and the time it took to generate the last
+	 * {@link #RETARGET} blocks.
+	 */
+	public static long getRetargetedGeneratingBalance(long lastGeneratingBalance, long generatingTime)
+	{
+		//CALCULATE EXPECTED FORGING TIME
+		long expectedGeneratingTime = getBlockTime(lastGeneratingBalance) * RETARGET * 1000;
+		
+		//CALCULATE MULTIPLIER
+		double multiplier = (double) expectedGeneratingTime / (double) generatingTime;
+		
+		//CALCULATE NEW GENERATING BALANCE
+		long generatingBalance = (long) (lastGeneratingBalance * multiplier);
+		
+		return minMaxBalance(generatingBalance);
+	}
 		
 	public static long getBaseTarget(long generatingBalance)
 	{
@@ -532,6 +767,21 @@ public class BlockGenerator extends Thread implements Observer
 	public void update(Observable arg0, Object arg1) {
 	ObserverMessage message = (ObserverMessage) arg1;
 		
+		if(message.getType() == ObserverMessage.ADD_TRANSACTION_TYPE || message.getType() == ObserverMessage.REMOVE_TRANSACTION_TYPE)
+		{
+			//ONLY THE FIRST CHANGE SINCE THE LAST REBUILD WAKES THE GENERATOR
+			if(!this.templateChanged)
+			{
+				this.templateChanged = true;
+				this.wakeUp();
+			}
+		}
+		
+		if(message.getType() == ObserverMessage.LAST_BLOCK_TYPE || message.getType() == ObserverMessage.ADD_ACCOUNT_TYPE)
+		{
+			this.wakeUp();
+		}
+		
 		if(message.getType() == ObserverMessage.WALLET_STATUS || message.getType() == ObserverMessage.NETWORK_STATUS)
 		{
 			//WALLET ONCE UNLOCKED? WITHOUT UNLOCKING FORGING DISABLED 
@@ -569,4 +819,66 @@ public class BlockGenerator extends Thread implements Observer
 		}
 	}
 	
+	/**
+	 * Block of an account for the current tip, ordered by when it is due.
+	 */
+	private static class Candidate implements Comparable<Candidate>
+	{
+		private PrivateKeyAccount account;
+		private Block block;
+		
+		public Candidate(PrivateKeyAccount account, Block block)
+		{
+			this.account = account;
+			this.block = block;
+		}
+		
+		@Override
+		public int compareTo(Candidate other)
+		{
+			return Long.compare(this.block.getTimestamp(), other.block.getTimestamp());
+		}
+	}
+	
+	/**
+	 * Everything about the next block that depends only on the block it
+	 * follows, computed once per solving block and shared by all accounts.
+	 */
+	public static class Solving
+	{
+		private Block block;
+		private byte[] generatorSignature;
+		private int version;
+		private long generatingBalance;
+		private BigInteger target;
+		private byte[] atBytes;
+		private long atFees;
+		
+		public Solving(DBSet db, Block block)
+		{
+			this.block = block;
+			this.generatorSignature = Bytes.ensureCapacity(block.getGeneratorSignature(), Block.GENERATOR_SIGNATURE_LENGTH, 0);
+			this.version = block.getNextBlockVersion(db);
+			this.generatingBalance = getNextBlockGeneratingBalance(db, block);
+			
+			//CALCULATE TARGET OF A BALANCE OF ONE
+			byte[] targetBytes = new byte[32];
+			Arrays.fill(targetBytes, Byte.MAX_VALUE);
+			BigInteger baseTarget = BigInteger.valueOf(getBaseTarget(this.generatingBalance));
+			this.target = new BigInteger(1, targetBytes).divide(baseTarget);
+			
+			//RUN ATS ONCE, THEIR PAYLOAD DOES NOT DEPEND ON THE GENERATOR
+			if(this.version > 1)
+			{
+				AT_Block atBlock = AT_Controller.getCurrentBlockATs( AT_Constants.getInstance().MAX_PAYLOAD_FOR_BLOCK( block.getHeight() ) , block.getHeight() + 1 );
+				this.atBytes = atBlock.getBytesForBlock();
+				this.atFees = atBlock.getTotalFees();
+			}
+		}
+		
+		public Block getBlock()
+		{
+			return this.block;
+		}
+	}
 }
@@ -0,0 +1,153 @@
+package qora;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import qora.transaction.Transaction;
+
+/**
+ * Verifies transaction signatures on a pool with a thread per core.
+ * <p>
+ * Blocks are split into chunks that are verified in parallel, stopping as
+ * soon as one bad signature is found. Single transactions received from
+ * peers are verified on threads of their own, so the network threads are
+ * not held up by them. Their callbacks may block without starving the
+ * verification of blocks, which callers may wait for while holding locks
+ * those callbacks need.
+ */
+public class SignatureVerifier
+{
+	//TRANSACTIONS VERIFIED BY ONE TASK BEFORE SPLITTING
+	private static final int CHUNK_SIZE = 16;
+
+	//SUBMITTED TASKS PER THREAD BEFORE CALLERS VERIFY THEMSELVES
+	private static final int MAX_QUEUED_PER_THREAD = 64;
+
+	private static SignatureVerifier instance;
+
+	private ForkJoinPool pool;
+	private ThreadPoolExecutor executor;
+
+	public static synchronized SignatureVerifier getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new SignatureVerifier();
+		}
+
+		return instance;
+	}
+
+	private SignatureVerifier()
+	{
+		this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("SignatureVerifier-" + thread.getPoolIndex());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, null, false);
+		
+		//SINGLE TRANSACTIONS, WHEN FULL THE CALLER VERIFIES ITSELF
+		int threads = Runtime.getRuntime().availableProcessors();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PER_THREAD * threads), new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TransactionVerifier-" + this.count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	public boolean isSignatureValid(List<Transaction> transactions)
+	{
+		//NOT WORTH SPLITTING
+		if(transactions.size() <= CHUNK_SIZE)
+		{
+			return verify(transactions);
+		}
+
+		return this.pool.invoke(new VerifyTask(transactions));
+	}
+
+	/**
+	 * Verifies the signature of the transaction and hands the result to the
+	 * callback on the verifying thread, which is never one of the threads
+	 * verifying blocks. When too many transactions are waiting the
+	 * transaction is verified on the calling thread instead.
+	 */
+	public void verify(final Transaction transaction, final Callback callback)
+	{
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				callback.onVerified(transaction, transaction.isSignatureValid());
+			}
+		});
+	}
+
+	private static boolean verify(List<Transaction> transactions)
+	{
+		for(Transaction transaction: transactions)
+		{
+			if(!transaction.isSignatureValid())
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public interface Callback
+	{
+		void onVerified(Transaction transaction, boolean valid);
+	}
+
+	private static class VerifyTask extends RecursiveTask<Boolean>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private List<Transaction> transactions;
+
+		public VerifyTask(List<Transaction> transactions)
+		{
+			this.transactions = transactions;
+		}
+
+		@Override
+		protected Boolean compute()
+		{
+			if(this.transactions.size() <= CHUNK_SIZE)
+			{
+				return verify(this.transactions);
+			}
+
+			//SPLIT IN HALF
+			int middle = this.transactions.size() / 2;
+			VerifyTask second = new VerifyTask(this.transactions.subList(middle, this.transactions.size()));
+			second.fork();
+
+			if(!new VerifyTask(this.transactions.subList(0, middle)).compute())
+			{
+				//NO NEED TO WAIT FOR THE OTHER HALF
+				second.cancel(false);
+				return false;
+			}
+
+			return second.join();
+		}
+	}
+}
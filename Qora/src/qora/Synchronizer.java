@@ -9,7 +9,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import network.Peer;
-import network.message.BlockMessage;
+import network.PeerScores;
+import ntp.NTP;
+import network.message.BlockHeadersMessage;
 import network.message.Message;
 import network.message.MessageFactory;
 import network.message.SignaturesMessage;
@@ -23,12 +25,15 @@ import at.AT_Constants;
 
 import com.google.common.primitives.Bytes;
 
+import controller.Controller;
 import database.DBSet;
 
 public class Synchronizer
 {
 	
 	private static final Logger LOGGER = LogManager.getLogger(Synchronizer.class);
+	private static final int MAX_DOWNLOAD_PEERS = 8;
+	
 	private boolean run = true;
 	
 	public Synchronizer()
@@ -97,13 +102,8 @@ public class Synchronizer
 		//VALIDATE THE NEW BLOCKS
 		for(Block block: newBlocks)
 		{
-			//CHECK IF VALID
-			if(block.isValid(fork))
-			{
-				//PROCESS TO VALIDATE NEXT BLOCKS
-				block.process(fork);
-			}
-			else
+			//CHECK IF VALID AND PROCESS TO VALIDATE NEXT BLOCKS
+			if(!block.validateAndProcess(fork))
 			{
 				AT_API_Platform_Impl.getInstance().setDBSet( db );
 				//INVALID BLOCK THROW EXCEPTION
@@ -113,58 +113,82 @@ public class Synchronizer
 
 		AT_API_Platform_Impl.getInstance().setDBSet( db );
 		
-		//NEW BLOCKS ARE ALL VALID SO WE CAN ORPHAN THEM FOR REAL NOW
-		if(lastCommonBlock != null)
+		//ORPHAN AND PROCESS AS ONE WRITE BATCH SO A CRASH CANNOT LEAVE US IN BETWEEN
+		synchronized(this)
 		{
-			//GET STATES TO RESTORE
-			Map<String, byte[]> states = db.getATStateMap().getStates( lastCommonBlock.getHeight() );
-			
-			//HEIGHT TO ROLL BACK
-			int height = (int)(Math.round( lastCommonBlock.getHeight()/AT_Constants.STATE_STORE_DISTANCE))*AT_Constants.STATE_STORE_DISTANCE;
-
-			//GET LAST BLOCK
-			Block lastBlock = db.getBlockMap().getLastBlock();
-			
-			//ORPHAN LAST BLOCK UNTIL WE HAVE REACHED COMMON BLOCK
-			while(!Arrays.equals(lastBlock.getSignature(), lastCommonBlock.getSignature()))
+			//A FAILED REORGANIZATION MUST NOT TAKE EARLIER BLOCKS WITH IT
+			if(lastCommonBlock != null)
 			{
-				//ADD ORPHANED TRANSACTIONS
-				orphanedTransactions.addAll(lastBlock.getTransactions());
-				
-				lastBlock.orphan(db);
-				lastBlock = db.getBlockMap().getLastBlock();
+				db.beginIsolatedBatch();
 			}
-
-			while ( lastBlock.getHeight() >= height && lastBlock.getHeight() > 11 )
+			else
 			{
-				orphanedTransactions.addAll(lastBlock.getTransactions());
-				lastBlock.orphan();
-				lastBlock = db.getBlockMap().getLastBlock();
+				db.beginBatch();
 			}
 			
-			for ( String id : states.keySet() )
+			try
 			{
-				byte[] address = Base58.decode( id ); //25 BYTES
-				address = Bytes.ensureCapacity( address , AT_Constants.AT_ID_SIZE, 0 ); // 32 BYTES
-				AT at = db.getATMap().getAT( address );
+				//NEW BLOCKS ARE ALL VALID SO WE CAN ORPHAN THEM FOR REAL NOW
+				if(lastCommonBlock != null)
+				{
+					//GET STATES TO RESTORE
+					Map<String, byte[]> states = db.getATStateMap().getStates( lastCommonBlock.getHeight() );
+			
+					//HEIGHT TO ROLL BACK
+					int height = (int)(Math.round( lastCommonBlock.getHeight()/AT_Constants.STATE_STORE_DISTANCE))*AT_Constants.STATE_STORE_DISTANCE;
+
+					//GET LAST BLOCK
+					Block lastBlock = db.getBlockMap().getLastBlock();
+			
+					//ORPHAN LAST BLOCK UNTIL WE HAVE REACHED COMMON BLOCK
+					while(!Arrays.equals(lastBlock.getSignature(), lastCommonBlock.getSignature()))
+					{
+						//ADD ORPHANED TRANSACTIONS
+						orphanedTransactions.addAll(lastBlock.getTransactions());
 				
-				at.setState( states.get( id ) );
+						lastBlock.orphan(db);
+						lastBlock = db.getBlockMap().getLastBlock();
+					}
+
+					while ( lastBlock.getHeight() >= height && lastBlock.getHeight() > 11 )
+					{
+						orphanedTransactions.addAll(lastBlock.getTransactions());
+						lastBlock.orphan();
+						lastBlock = db.getBlockMap().getLastBlock();
+					}
+			
+					for ( String id : states.keySet() )
+					{
+						byte[] address = Base58.decode( id ); //25 BYTES
+						address = Bytes.ensureCapacity( address , AT_Constants.AT_ID_SIZE, 0 ); // 32 BYTES
+						AT at = db.getATMap().getAT( address );
 				
-				db.getATMap().update( at , height );
+						at.setState( states.get( id ) );
 				
-			}
+						db.getATMap().update( at , height );
+				
+					}
 
-			db.getATMap().deleteAllAfterHeight( height );
-			db.getATStateMap().deleteStatesAfter( height );
+					db.getATMap().deleteAllAfterHeight( height );
+					db.getATStateMap().deleteStatesAfter( height );
 
-		}
+				}
 		
-		//PROCESS THE NEW BLOCKS
-		for(Block block: newBlocks)
-		{
-			//SYNCHRONIZED PROCESSING
-			this.process(block);
-		}	
+				//PROCESS THE NEW BLOCKS
+				for(Block block: newBlocks)
+				{
+					//SYNCHRONIZED PROCESSING
+					this.process(db, block, false);
+				}
+				
+				db.commitBatch();
+			}
+			catch(Exception e)
+			{
+				db.rollbackBatch();
+				throw e;
+			}
+		}
 		
 		return orphanedTransactions;
 	}
@@ -181,45 +205,53 @@ public class Synchronizer
 		if(Arrays.equals(common.getSignature(), DBSet.getInstance().getBlockMap().getLastBlockSignature()))
 		{
 			//GET NEXT 500 SIGNATURES
-			signatures = this.getBlockSignatures(common, BlockChain.MAX_SIGNATURES, peer);
+			signatures = this.getCheckedSignatures(common, BlockChain.MAX_SIGNATURES, peer);
 			
 			//CREATE BLOCK BUFFER
-			BlockBuffer blockBuffer = new BlockBuffer(signatures, peer);
+			List<Peer> peers = this.getDownloadPeers(peer, common.getHeight() + signatures.size());
+			BlockBuffer blockBuffer = new BlockBuffer(signatures, peers);
 			
-			//GET AND PROCESS BLOCK BY BLOCK
-			for(byte[] signature: signatures)
+			try
 			{
-				//GET BLOCK
-				Block block = blockBuffer.getBlock(signature);
-				
-				if (block == null)
-				{
-					LOGGER.info("Failed to receive block from peer");
-					break;
-				}
-				
-				// We're shutting down - bail out
-				if (!this.run)
-				    break;
-
-				//PROCESS BLOCK
-				if(!this.process(block))
+				//GET AND PROCESS BLOCK BY BLOCK
+				for(byte[] signature: signatures)
 				{
-					//INVALID BLOCK THROW EXCEPTION
-					throw new Exception("Dishonest peer");
+					//GET BLOCK
+					Block block = blockBuffer.getBlock(signature);
+					
+					if (block == null)
+					{
+						LOGGER.info("Failed to receive block from peer");
+						break;
+					}
+					
+					// We're shutting down - bail out
+					if (!this.run)
+					    break;
+	
+					//PROCESS BLOCK, COMMITTED EVERY SYNCCOMMITINTERVAL BLOCKS
+					if(!this.process(DBSet.getInstance(), block, false))
+					{
+						PeerScores.getInstance().onInvalid(peer);
+						
+						//INVALID BLOCK THROW EXCEPTION
+						throw new Exception("Dishonest peer");
+					}
 				}
 			}
-			
-			//STOP BLOCKBUFFER
-			blockBuffer.stopThread();
+			finally
+			{
+				//STOP BLOCKBUFFER
+				blockBuffer.shutdown();
+			}
 		}
 		else
 		{
 			//GET SIGNATURES FROM COMMON HEIGHT UNTIL CURRENT HEIGHT
-			signatures = this.getBlockSignatures(common, DBSet.getInstance().getBlockMap().getLastBlock().getHeight() - common.getHeight(), peer);	
+			signatures = this.getCheckedSignatures(common, DBSet.getInstance().getBlockMap().getLastBlock().getHeight() - common.getHeight(), peer);	
 			
 			//GET THE BLOCKS FROM SIGNATURES
-			List<Block> blocks = this.getBlocks(signatures, peer);
+			List<Block> blocks = this.getBlocks(common, signatures, peer);
 							
 			//SYNCHRONIZE BLOCKS
 			List<Transaction> orphanedTransactions = this.synchronize(DBSet.getInstance(), common, blocks);
@@ -233,6 +265,184 @@ public class Synchronizer
 		}
 	}
 	
+	private List<Peer> getDownloadPeers(Peer peer, int height)
+	{
+		//PEER THAT GAVE US THE SIGNATURES GOES FIRST
+		List<Peer> peers = new ArrayList<Peer>();
+		peers.add(peer);
+		
+		//ADD OTHER PEERS THAT HAVE ALL THE BLOCKS
+		List<Peer> candidates = new ArrayList<Peer>();
+		Map<Peer, Integer> peerHeights = Controller.getInstance().getPeerHeights();
+		if(peerHeights != null)
+		{
+			synchronized(peerHeights)
+			{
+				for(Map.Entry<Peer, Integer> entry: peerHeights.entrySet())
+				{
+					if(entry.getKey() != peer && entry.getValue() >= height)
+					{
+						candidates.add(entry.getKey());
+					}
+				}
+			}
+		}
+		
+		//BEST SCORING FIRST
+		for(Peer candidate: PeerScores.getInstance().sort(candidates))
+		{
+			if(peers.size() >= MAX_DOWNLOAD_PEERS)
+			{
+				break;
+			}
+			
+			peers.add(candidate);
+		}
+		
+		return peers;
+	}
+	
+	/**
+	 * Signatures of the blocks of the peer following the common block. Peers
+	 * that can send headers send those instead, and the header chain is
+	 * checked before any block is downloaded.
+	 */
+	private List<byte[]> getCheckedSignatures(Block common, int amount, Peer peer) throws Exception
+	{
+		if(!Controller.getInstance().isPeerVersionAtLeast(peer, Controller.HEADERS_VERSION))
+		{
+			return this.getBlockSignatures(common, amount, peer);
+		}
+		
+		List<Block> headers = this.getBlockHeaders(common, amount, peer);
+		
+		//CHECK HEADER CHAIN BEFORE DOWNLOADING BLOCKS
+		if(!this.isHeaderChainValid(DBSet.getInstance(), common, headers))
+		{
+			PeerScores.getInstance().onInvalid(peer);
+			throw new Exception("Dishonest peer");
+		}
+		
+		List<byte[]> signatures = new ArrayList<byte[]>();
+		for(Block header: headers)
+		{
+			signatures.add(header.getSignature());
+		}
+		
+		return signatures;
+	}
+	
+	private List<Block> getBlockHeaders(Block start, int amount, Peer peer) throws Exception
+	{
+		//ASK NEXT 500 HEADERS SINCE START
+		List<Block> headers = this.getBlockHeaders(start.getSignature(), peer);
+		List<Block> nextHeaders;
+		if(headers.size() > 0 && headers.size() < amount)
+		{
+			do
+			{
+				nextHeaders = this.getBlockHeaders(headers.get(headers.size()-1).getSignature(), peer);
+				headers.addAll(nextHeaders);
+			}
+			while(headers.size() < amount && nextHeaders.size() > 0);
+		}
+		
+		return headers;
+	}
+	
+	private List<Block> getBlockHeaders(byte[] parent, Peer peer) throws Exception
+	{
+		//CREATE MESSAGE
+		Message message = MessageFactory.getInstance().createGetBlockHeadersMessage(parent);
+		
+		//SEND MESSAGE TO PEER
+		BlockHeadersMessage response = (BlockHeadersMessage) peer.getResponse(message);
+
+		if (response == null)
+			throw new Exception("Failed to communicate with peer");
+
+		return response.getHeaders();
+	}
+	
+	/**
+	 * Check what can be checked of a chain of headers without their
+	 * transactions: that every header follows the previous one, its
+	 * timestamp, generating balance, version and generator signature.
+	 * <p>
+	 * The proof hash needs the generating balance of the generator at that
+	 * height, so it is checked once the blocks are processed.
+	 *
+	 * @param parent block in the database the first header follows
+	 */
+	public boolean isHeaderChainValid(DBSet db, Block parent, List<Block> headers)
+	{
+		int parentHeight = parent.getHeight(db);
+		
+		Block previous = parent;
+		int previousHeight = parentHeight;
+		for(Block header: headers)
+		{
+			//CHECK IF HEADER FOLLOWS PREVIOUS
+			if(!Arrays.equals(header.getReference(), previous.getSignature()))
+			{
+				return false;
+			}
+			
+			//CHECK IF TIMESTAMP IS VALID -500 MS ERROR MARGIN TIME
+			if(header.getTimestamp() - 500 > NTP.getTime() || header.getTimestamp() < previous.getTimestamp())
+			{
+				return false;
+			}
+			
+			//CHECK IF TIMESTAMP REST SAME AS PREVIOUS TIMESTAMP REST
+			if(header.getTimestamp() % 1000 != previous.getTimestamp() % 1000)
+			{
+				return false;
+			}
+			
+			//CHECK IF GENERATING BALANCE IS CORRECT
+			long generatingBalance = previous.getGeneratingBalance();
+			if(previousHeight % BlockGenerator.RETARGET == 0)
+			{
+				//FIRST BLOCK OF TARGET IS A HEADER OR OURS
+				int firstHeight = previousHeight - BlockGenerator.RETARGET + 1;
+				Block firstBlock;
+				if(firstHeight > parentHeight)
+				{
+					firstBlock = headers.get(firstHeight - parentHeight - 1);
+				}
+				else
+				{
+					firstBlock = db.getBlockMap().get(db.getHeightMap().getBlockByHeight(firstHeight));
+				}
+				
+				generatingBalance = BlockGenerator.getRetargetedGeneratingBalance(previous.getGeneratingBalance(), previous.getTimestamp() - firstBlock.getTimestamp());
+			}
+			
+			if(header.getGeneratingBalance() != generatingBalance)
+			{
+				return false;
+			}
+			
+			//CHECK IF VERSION IS CORRECT
+			if(header.getVersion() != Block.getNextBlockVersion(previousHeight, previous.getTimestamp()))
+			{
+				return false;
+			}
+			
+			//CHECK GENERATOR SIGNATURE
+			if(!header.isGeneratorSignatureValid())
+			{
+				return false;
+			}
+			
+			previous = header;
+			previousHeight++;
+		}
+		
+		return true;
+	}
+	
 	private List<byte[]> getBlockSignatures(Block start, int amount, Peer peer) throws Exception
 	{
 		//ASK NEXT 500 HEADERS SINCE START
@@ -271,15 +481,49 @@ public class Synchronizer
 		
 		//GET HEADERS UNTIL COMMON BLOCK IS FOUND OR ALL BLOCKS HAVE BEEN CHECKED
 		List<byte[]> headers = this.getBlockSignatures(block.getSignature(), peer);
-		while(headers.size() == 0 && block.getHeight() > 1)
+		if(headers.size() == 0 && block.getHeight() > 1)
 		{
-			//GO 500 BLOCKS BACK
-			for(int i=0; i<BlockChain.MAX_SIGNATURES && block.getHeight() > 1; i++)
+			//GO 1, 2, 4, 8... BLOCKS BACK UNTIL PEER KNOWS THE BLOCK
+			int unknown = block.getHeight();
+			int known = 0;
+			for(int step=1; known == 0; step*=2)
 			{
-				block = block.getParent();
+				int height = Math.max(1, block.getHeight() - step);
+				headers = this.getBlockSignatures(height, peer);
+				if(headers.size() > 0)
+				{
+					known = height;
+				}
+				else if(height == 1)
+				{
+					break;
+				}
+				else
+				{
+					unknown = height;
+				}
+			}
+			
+			//NARROW DOWN UNTIL THE FORK IS WITHIN THE HEADERS
+			while(known > 0 && unknown - known > BlockChain.MAX_SIGNATURES)
+			{
+				int height = known + (unknown - known) / 2;
+				List<byte[]> middleHeaders = this.getBlockSignatures(height, peer);
+				if(middleHeaders.size() > 0)
+				{
+					known = height;
+					headers = middleHeaders;
+				}
+				else
+				{
+					unknown = height;
+				}
 			}
 			
-			headers = this.getBlockSignatures(block.getSignature(), peer);
+			if(known > 0)
+			{
+				block = DBSet.getInstance().getBlockMap().get(DBSet.getInstance().getHeightMap().getBlockByHeight(known));
+			}
 		}
 		
 		//CHECK IF NO HEADERS FOUND EVEN AFTER CHECKING WITH THE GENESISBLOCK
@@ -300,61 +544,98 @@ public class Synchronizer
 		
 		return block;
 	}
+	
+	private List<byte[]> getBlockSignatures(int height, Peer peer) throws Exception
+	{
+		return this.getBlockSignatures(DBSet.getInstance().getHeightMap().getBlockByHeight(height), peer);
+	}
 
-	private List<Block> getBlocks(List<byte[]> signatures, Peer peer) throws Exception {
+	private List<Block> getBlocks(Block common, List<byte[]> signatures, Peer peer) throws Exception {
 		
 		List<Block> blocks = new ArrayList<Block>();
 		
-		for(byte[] signature: signatures)
-		{
-			//ADD TO LIST
-			blocks.add(this.getBlock(signature, peer));	
-		}
-		
-		return blocks;
-	}
-	
-	private Block getBlock(byte[] signature, Peer peer) throws Exception
-	{
-		//CREATE MESSAGE
-		Message message = MessageFactory.getInstance().createGetBlockMessage(signature);
-		
-		//SEND MESSAGE TO PEER
-		BlockMessage response = (BlockMessage) peer.getResponse(message);
+		//DOWNLOAD FROM ALL PEERS THAT HAVE THE BLOCKS
+		List<Peer> peers = this.getDownloadPeers(peer, common.getHeight() + signatures.size());
+		BlockBuffer blockBuffer = new BlockBuffer(signatures, peers);
 		
-		//CHECK IF WE GOT RESPONSE
-		if(response == null)
+		try
 		{
-			//ERROR
-			throw new Exception("Peer timed out");
+			for(byte[] signature: signatures)
+			{
+				Block block = blockBuffer.getBlock(signature);
+				
+				//CHECK IF WE GOT RESPONSE
+				if(block == null)
+				{
+					//ERROR
+					throw new Exception("Peer timed out");
+				}
+				
+				//ADD TO LIST
+				blocks.add(block);
+			}
 		}
-		
-		//CHECK BLOCK SIGNATURE
-		if(!response.getBlock().isSignatureValid())
+		finally
 		{
-			throw new Exception("Invalid block");
+			//STOP BLOCKBUFFER
+			blockBuffer.shutdown();
 		}
 		
-		//ADD TO LIST
-		return response.getBlock();
+		return blocks;
 	}
 	
 	
-	//SYNCHRONIZED DO NOT PROCCESS A BLOCK AT THE SAME TIME
-	public synchronized boolean process(Block block) 
+	/**
+	 * Process a block that arrived on its own, like a new block of a peer or
+	 * one we generated. Blocks processed before it are written to disk first,
+	 * so a failure only undoes this block.
+	 */
+	public boolean process(Block block) 
+	{
+		return this.process(DBSet.getInstance(), block, true);
+	}
+	
+	/**
+	 * Process a block in its own write batch.
+	 * <p>
+	 * Blocks downloaded while synchronizing are not isolated, so they are
+	 * written to disk every <code>synccommitinterval</code> blocks. A failure
+	 * then returns to the last block written. Never processes two blocks at
+	 * the same time.
+	 * 
+	 * @param isolated write blocks processed before to disk first
+	 */
+	public synchronized boolean process(DBSet db, Block block, boolean isolated) 
 	{
 		//CHECK IF WE ARE STILL PROCESSING BLOCKS
 		if(this.run)
 		{
-			//SYNCHRONIZED MIGHT HAVE BEEN PROCESSING PREVIOUS BLOCK
-			if(block.isValid())
+			//PROCESS IN ITS OWN WRITE BATCH
+			if(isolated)
+			{
+				db.beginIsolatedBatch();
+			}
+			else
 			{
-				//PROCESS
-				DBSet.getInstance().getBlockMap().setProcessing(true);
-				block.process();		
-				DBSet.getInstance().getBlockMap().setProcessing(false);
+				db.beginBatch();
+			}
+			
+			try
+			{
+				//SYNCHRONIZED MIGHT HAVE BEEN PROCESSING PREVIOUS BLOCK
+				db.getBlockMap().setProcessing(true);
+				boolean valid = block.validateAndProcess(db);
+				db.getBlockMap().setProcessing(false);
 				
-				return true;
+				db.commitBatch();
+				
+				return valid;
+			}
+			catch(RuntimeException e)
+			{
+				//RETURN TO LAST BLOCK BOUNDARY
+				db.rollbackBatch();
+				throw e;
 			}
 		}
 		
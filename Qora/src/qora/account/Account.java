@@ -13,6 +13,8 @@ import qora.BlockGenerator;
 import qora.block.Block;
 import qora.transaction.Transaction;
 import utils.NumberAsString;
+import database.BalanceLedger;
+import database.BalanceMap;
 import database.DBSet;
 
 public class Account {
@@ -20,6 +22,7 @@ public class Account {
 	public static final int ADDRESS_LENGTH = 25;
 
 	protected String address;
+	private byte[] addressBytes;
 	
 	private byte[] lastBlockSignature;
 	private BigDecimal generatingBalance;
@@ -39,6 +42,21 @@ public class Account {
 		return address;
 	}
 	
+	/**
+	 * The decoded address, <code>null</code> if this is not a valid one.
+	 */
+	public byte[] getAddressBytes()
+	{
+		//DECODE ONCE
+		if(this.addressBytes == null)
+		{
+			byte[] bytes = BalanceLedger.toAddress(this.getAddress());
+			this.addressBytes = bytes == null ? new byte[0] : bytes;
+		}
+		
+		return this.addressBytes.length == 0 ? null : this.addressBytes;
+	}
+	
 	//BALANCE
 	
 	public BigDecimal getUnconfirmedBalance()
@@ -58,7 +76,7 @@ public class Account {
 	
 	public BigDecimal getConfirmedBalance(DBSet db)
 	{
-		return db.getBalanceMap().get(getAddress());
+		return db.getBalanceMap().get(this, BalanceMap.QORA_KEY);
 	}
 	
 	public BigDecimal getConfirmedBalance(long key)
@@ -68,7 +86,7 @@ public class Account {
 	
 	public BigDecimal getConfirmedBalance(long key, DBSet db)
 	{
-		return db.getBalanceMap().get(getAddress(), key);
+		return db.getBalanceMap().get(this, key);
 	}
 
 	public void setConfirmedBalance(BigDecimal amount)
@@ -79,7 +97,7 @@ public class Account {
 	public void setConfirmedBalance(BigDecimal amount, DBSet db)
 	{
 		//UPDATE BALANCE IN DB
-		db.getBalanceMap().set(getAddress(), amount);
+		db.getBalanceMap().set(this, BalanceMap.QORA_KEY, amount);
 	}
 	
 	public void setConfirmedBalance(long key, BigDecimal amount)
@@ -90,7 +108,7 @@ public class Account {
 	public void setConfirmedBalance(long key, BigDecimal amount, DBSet db)
 	{
 		//UPDATE BALANCE IN DB
-		db.getBalanceMap().set(getAddress(), key, amount);
+		db.getBalanceMap().set(this, key, amount);
 	}
 	
 	public BigDecimal getBalance(int confirmations)
@@ -157,6 +175,31 @@ public class Account {
 		//CONFIRMED BALANCE + ALL NEGATIVE AMOUNTS IN LAST 9 BLOCKS
 		BigDecimal balance = this.getConfirmedBalance(db);
 		
+		//BLOCKS ABOVE THE GENESIS BLOCK IN THAT WINDOW
+		int height = db.getHeightMap().get(db.getBlockMap().getLastBlockSignature());
+		int from = Math.max(2, height - BlockGenerator.RETARGET + 2);
+		
+		if(from >= db.getInboundAmountMap().getIndexedFrom())
+		{
+			balance = balance.subtract(db.getInboundAmountMap().get(this.getAddress(), from, height));
+		}
+		else
+		{
+			balance = this.subtractInboundAmounts(balance, db);
+		}
+		
+		//DO NOT GO BELOW 0
+		if(balance.compareTo(BigDecimal.ZERO) == -1)
+		{
+			balance = BigDecimal.ZERO.setScale(8);
+		}
+		
+		this.generatingBalance = balance;
+	}
+	
+	private BigDecimal subtractInboundAmounts(BigDecimal balance, DBSet db)
+	{
+		//WALK THE BLOCKS, THE INDEX DOES NOT GO BACK THAT FAR
 		Block block = db.getBlockMap().getLastBlock();
 		
 		for(int i=1; i<BlockGenerator.RETARGET && block != null && block.getHeight(db) > 1; i++)
@@ -185,13 +228,7 @@ public class Account {
 			block = block.getParent(db);
 		}
 		
-		//DO NOT GO BELOW 0
-		if(balance.compareTo(BigDecimal.ZERO) == -1)
-		{
-			balance = BigDecimal.ZERO.setScale(8);
-		}
-		
-		this.generatingBalance = balance;
+		return balance;
 	}
 	
 	public BigDecimal getGeneratingBalance()
@@ -5,9 +5,12 @@ import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ntp.NTP;
 
@@ -18,6 +21,7 @@ import org.json.simple.JSONObject;
 import org.mapdb.Fun.Tuple2;
 
 import qora.BlockGenerator;
+import qora.SignatureVerifier;
 import qora.account.Account;
 import qora.account.PublicKeyAccount;
 import qora.crypto.Base58;
@@ -70,9 +74,14 @@ public class Block {
 
 	private List<Transaction> transactions;	
 	private int transactionCount;
+	
+	//UNPARSED TRANSACTIONS ARE A SLICE OF THE DATA THE BLOCK WAS PARSED FROM
 	private byte[] rawTransactions;
+	private int rawTransactionsOffset;
+	private int rawTransactionsLength;
 
 	protected byte[] transactionsSignature;
+	private byte[] signature;
 
 	protected byte[] atBytes;
 	protected Long atFees;
@@ -151,9 +160,17 @@ public class Block {
 	}
 
 	public void setTransactionData(int transactionCount, byte[] rawTransactions)
+	{
+		this.setTransactionData(transactionCount, rawTransactions, 0, rawTransactions.length);
+	}
+
+	private synchronized void setTransactionData(int transactionCount, byte[] data, int offset, int length)
 	{
 		this.transactionCount = transactionCount;
-		this.rawTransactions = rawTransactions;
+		this.transactions = null;
+		this.rawTransactions = data;
+		this.rawTransactionsOffset = offset;
+		this.rawTransactionsLength = length;
 	}
 
 	public int getTransactionCount() 
@@ -170,7 +187,7 @@ public class Block {
 
 			try
 			{
-				int position = 0;
+				int position = this.rawTransactionsOffset;
 				for(int i=0; i<transactionCount; i++)
 				{
 					//GET TRANSACTION SIZE
@@ -192,6 +209,9 @@ public class Block {
 			{
 				//FAILED TO LOAD TRANSACTIONS
 			}
+			
+			//TRANSACTIONS ARE THE DATA FROM NOW ON
+			this.rawTransactions = null;
 		}
 
 		return this.transactions;
@@ -261,11 +281,17 @@ public class Block {
 	public void setTransactionsSignature(byte[] transactionsSignature) 
 	{
 		this.transactionsSignature = transactionsSignature;	
+		this.signature = null;
 	}
 
 	public byte[] getSignature()
 	{
-		return Bytes.concat(this.generatorSignature, this.transactionsSignature);
+		if(this.signature == null)
+		{
+			this.signature = Bytes.concat(this.generatorSignature, this.transactionsSignature);
+		}
+		
+		return this.signature;
 	}
 
 	//PARSE/CONVERT
@@ -278,6 +304,50 @@ public class Block {
 			throw new Exception("Data is less then minimum block length");
 		}
 
+		//PARSE HEADER
+		Block block = parseHeader(data);
+		int position = block.getHeaderLength();
+
+		//READ TRANSACTIONS COUNT
+		byte[] transactionCountBytes = Arrays.copyOfRange(data, position, position + TRANSACTIONS_COUNT_LENGTH);
+		int transactionCount = Ints.fromByteArray(transactionCountBytes);
+		position += TRANSACTIONS_COUNT_LENGTH;
+
+		//FIND END OF TRANSACTIONS
+		int end = position;
+		for(int i=0; i<transactionCount && end + TRANSACTION_SIZE_LENGTH <= data.length; i++)
+		{
+			int transactionLength = Ints.fromBytes(data[end], data[end + 1], data[end + 2], data[end + 3]);
+			if(transactionLength < 0 || transactionLength > data.length - end - TRANSACTION_SIZE_LENGTH)
+			{
+				//INVALID LENGTH, PARSING WILL FAIL HERE
+				end = data.length;
+				break;
+			}
+			
+			end += TRANSACTION_SIZE_LENGTH + transactionLength;
+		}
+
+		//SET TRANSACTIONDATA WITHOUT COPYING OR PARSING IT
+		block.setTransactionData(transactionCount, data, position, end - position);
+
+		return block;
+	}
+
+	/**
+	 * Parse the header of a block, everything up to the transactions, into a
+	 * block without transactions.
+	 * 
+	 * @see #toHeaderBytes()
+	 */
+	public static Block parseHeader(byte[] data) throws Exception
+	{
+		//CHECK IF WE HAVE MINIMUM HEADER LENGTH
+		if(data.length < BASE_LENGTH - TRANSACTIONS_COUNT_LENGTH)
+		{
+			throw new Exception("Data is less then minimum block header length");
+		}
+
 		int position = 0;
 
 		//READ VERSION
@@ -322,6 +392,11 @@ public class Block {
 			int atBytesCount = Ints.fromByteArray(atBytesCountBytes);
 			position += AT_BYTES_LENGTH;
 	
+			if(atBytesCount < 0 || atBytesCount > data.length - position - AT_FEES_LENGTH)
+			{
+				throw new Exception("Invalid AT bytes length");
+			}
+	
 			byte[] atBytes = Arrays.copyOfRange( data , position, position + atBytesCount);
 			position += atBytesCount;
 	
@@ -337,15 +412,6 @@ public class Block {
 			block = new Block(version, reference, timestamp, generatingBalance, generator, generatorSignature);
 		}
 
-		//READ TRANSACTIONS COUNT
-		byte[] transactionCountBytes = Arrays.copyOfRange(data, position, position + TRANSACTIONS_COUNT_LENGTH);
-		int transactionCount = Ints.fromByteArray(transactionCountBytes);
-		position += TRANSACTIONS_COUNT_LENGTH;
-
-		//SET TRANSACTIONDATA
-		byte[] rawTransactions = Arrays.copyOfRange(data, position, data.length);
-		block.setTransactionData(transactionCount, rawTransactions);
-
 		//SET TRANSACTIONS SIGNATURE
 		block.setTransactionsSignature(transactionsSignature);
 
@@ -391,6 +457,43 @@ public class Block {
 	}
 
 	public byte[] toBytes() 
+	{
+		byte[] data = this.toHeaderBytes();
+
+		//WRITE TRANSACTION COUNT
+		byte[] transactionCountBytes = Ints.toByteArray(this.getTransactionCount());
+		//transactionCountBytes = Bytes.ensureCapacity(transactionCountBytes, 4, 0);
+		data = Bytes.concat(data, transactionCountBytes);
+
+		//TRANSACTIONS NOT PARSED YET ARE WRITTEN AS THEY ARE
+		synchronized(this)
+		{
+			if(this.rawTransactions != null)
+			{
+				return Bytes.concat(data, Arrays.copyOfRange(this.rawTransactions, this.rawTransactionsOffset, this.rawTransactionsOffset + this.rawTransactionsLength));
+			}
+		}
+
+		for(Transaction transaction: this.getTransactions())
+		{
+			//WRITE TRANSACTION LENGTH
+			int transactionLength = transaction.getDataLength();
+			byte[] transactionLengthBytes = Ints.toByteArray(transactionLength);
+			//transactionLengthBytes = Bytes.ensureCapacity(transactionLengthBytes, 4, 0);
+			data = Bytes.concat(data, transactionLengthBytes);
+
+			//WRITE TRANSACTION
+			data = Bytes.concat(data, transaction.toBytes());
+		}
+
+		return data;
+	}
+
+	/**
+	 * Everything of the block that comes before the transactions, the
+	 * signatures and AT data included.
+	 */
+	public byte[] toHeaderBytes() 
 	{
 		byte[] data = new byte[0];
 
@@ -445,37 +548,35 @@ public class Block {
 			}
 		}
 
-		//WRITE TRANSACTION COUNT
-		byte[] transactionCountBytes = Ints.toByteArray(this.getTransactionCount());
-		//transactionCountBytes = Bytes.ensureCapacity(transactionCountBytes, 4, 0);
-		data = Bytes.concat(data, transactionCountBytes);
+		return data;
+	}
 
-		for(Transaction transaction: this.getTransactions())
-		{
-			//WRITE TRANSACTION LENGTH
-			int transactionLength = transaction.getDataLength();
-			byte[] transactionLengthBytes = Ints.toByteArray(transactionLength);
-			//transactionLengthBytes = Bytes.ensureCapacity(transactionLengthBytes, 4, 0);
-			data = Bytes.concat(data, transactionLengthBytes);
+	public int getHeaderLength()
+	{
+		int length = BASE_LENGTH - TRANSACTIONS_COUNT_LENGTH;
 
-			//WRITE TRANSACTION
-			data = Bytes.concat(data, transaction.toBytes());
+		if(this.version >= 2)
+		{
+			length += AT_LENGTH;
+			if (this.atBytes!=null)
+			{
+				length+=atBytes.length;
+			}
 		}
 
-		return data;
+		return length;
 	}
 
 	public int getDataLength()
 	{
 
-		int length = BASE_LENGTH;
+		int length = this.getHeaderLength() + TRANSACTIONS_COUNT_LENGTH;
 
-		if(this.version >= 2)
+		synchronized(this)
 		{
-			length += AT_LENGTH;
-			if (this.atBytes!=null)
+			if(this.rawTransactions != null)
 			{
-				length+=atBytes.length;
+				return length + this.rawTransactionsLength;
 			}
 		}
 
@@ -507,38 +608,26 @@ public class Block {
 	public boolean isSignatureValid()
 	{
 		//VALIDATE BLOCK SIGNATURE
-		byte[] data = new byte[0];
-
-		//WRITE PARENT GENERATOR SIGNATURE
-		byte[] generatorSignature = Arrays.copyOfRange(this.reference, 0, GENERATOR_SIGNATURE_LENGTH);
-		data = Bytes.concat(data, generatorSignature);
-
-		//WRITE GENERATING BALANCE
-		byte[] baseTargetBytes = Longs.toByteArray(this.generatingBalance);
-		data = Bytes.concat(data, baseTargetBytes);
-
-		//WRITE GENERATOR
-		byte[] generatorBytes = Bytes.ensureCapacity(this.generator.getPublicKey(), GENERATOR_LENGTH, 0);
-		data = Bytes.concat(data, generatorBytes);
+		if(!this.isGeneratorSignatureValid())
+		{
+			return false;
+		}
 
-		if(!Crypto.getInstance().verify(this.generator.getPublicKey(), this.generatorSignature, data))
+		//CHECK IF TRANSACTION SIGNATURES ARE VALID
+		List<Transaction> transactions = this.getTransactions();
+		if(!SignatureVerifier.getInstance().isSignatureValid(transactions))
 		{
 			return false;
 		}
 
 		//VALIDATE TRANSACTIONS SIGNATURE
-		data = this.generatorSignature;		
-		for(Transaction transaction: this.getTransactions())
+		byte[][] signatures = new byte[transactions.size() + 1][];
+		signatures[0] = this.generatorSignature;
+		for(int i=0; i<transactions.size(); i++)
 		{
-			//CHECK IF TRANSACTION SIGNATURE IS VALID
-			if(!transaction.isSignatureValid())
-			{
-				return false;
-			}
-
-			//ADD SIGNATURE TO DATA
-			data = Bytes.concat(data, transaction.getSignature());
+			signatures[i + 1] = transactions.get(i).getSignature();
 		}
+		byte[] data = Bytes.concat(signatures);
 
 		if(!Crypto.getInstance().verify(this.generator.getPublicKey(), this.transactionsSignature, data))
 		{
@@ -548,16 +637,46 @@ public class Block {
 		return true;
 	}
 
+	/**
+	 * Check the signature of the generator over the parent, generating
+	 * balance and generator. Needs the header only.
+	 */
+	public boolean isGeneratorSignatureValid()
+	{
+		byte[] data = new byte[0];
+
+		//WRITE PARENT GENERATOR SIGNATURE
+		byte[] generatorSignature = Arrays.copyOfRange(this.reference, 0, GENERATOR_SIGNATURE_LENGTH);
+		data = Bytes.concat(data, generatorSignature);
+
+		//WRITE GENERATING BALANCE
+		byte[] baseTargetBytes = Longs.toByteArray(this.generatingBalance);
+		data = Bytes.concat(data, baseTargetBytes);
+
+		//WRITE GENERATOR
+		byte[] generatorBytes = Bytes.ensureCapacity(this.generator.getPublicKey(), GENERATOR_LENGTH, 0);
+		data = Bytes.concat(data, generatorBytes);
+
+		return Crypto.getInstance().verify(this.generator.getPublicKey(), this.generatorSignature, data);
+	}
+
 	// canonical definition of block version release schedule
 	public int getNextBlockVersion(DBSet db)
 	{
-		int height = getHeight(db);
+		return getNextBlockVersion(this.getHeight(db), this.getTimestamp());
+	}
 
+	/**
+	 * Version of the block following a block at the given height and
+	 * timestamp.
+	 */
+	public static int getNextBlockVersion(int height, long timestamp)
+	{
 		if(height < Transaction.getAT_BLOCK_HEIGHT_RELEASE())
 		{
 			return 1;
 		}
-		else if(getTimestamp() < Transaction.getPOWFIX_RELEASE())
+		else if(timestamp < Transaction.getPOWFIX_RELEASE())
 		{
 			return 2;
 		}
@@ -573,39 +692,50 @@ public class Block {
 	}
 
 	public boolean isValid(DBSet db)
+	{
+		return this.validate(db) != null;
+	}
+
+	/**
+	 * Validates this block on top of the given database.
+	 *
+	 * @return fork of the database with the transactions of this block
+	 * processed, or null if the block is not valid
+	 */
+	protected DBSet validate(DBSet db)
 	{		
 		//CHECK IF PARENT EXISTS
 		if(this.reference == null || this.getParent(db) == null)
 		{
-			return false;
+			return null;
 		}
 
 		//CHECK IF TIMESTAMP IS VALID -500 MS ERROR MARGIN TIME
 		if(this.timestamp - 500 > NTP.getTime() || this.timestamp < this.getParent(db).timestamp)
 		{
-			return false;
+			return null;
 		}
 
 		//CHECK IF TIMESTAMP REST SAME AS PARENT TIMESTAMP REST
 		if(this.timestamp % 1000 != this.getParent(db).timestamp % 1000)
 		{
-			return false;
+			return null;
 		}
 
 		//CHECK IF GENERATING BALANCE IS CORRECT
 		if(this.generatingBalance != BlockGenerator.getNextBlockGeneratingBalance(db, this.getParent(db)))
 		{
-			return false;
+			return null;
 		}
 
 		//CHECK IF VERSION IS CORRECT
 		if(this.version != this.getParent(db).getNextBlockVersion(db))
 		{
-			return false;
+			return null;
 		}
 		if(this.version < 2 && (this.atBytes.length > 0 || this.atFees != 0))
 		{
-			return false;
+			return null;
 		}
 
 		//CREATE TARGET
@@ -631,13 +761,13 @@ public class Block {
 		//CHECK IF HASH LOWER THEN TARGET
 		if(hashValue.compareTo(target) >= 0)
 		{
-			return false;
+			return null;
 		}
 
 		//CHECK IF FIRST BLOCK OF USER	
 		if(hashValue.compareTo(lowerTarget) < 0)
 		{
-			return false;
+			return null;
 		}
 
 		if ( this.atBytes != null && this.atBytes.length > 0 )
@@ -651,7 +781,7 @@ public class Block {
 			catch(NoSuchAlgorithmException | AT_Exception e)
 			{
 				LOGGER.error(e.getMessage(),e);
-				return false;
+				return null;
 			}
 		}
 
@@ -662,7 +792,7 @@ public class Block {
 			//CHECK IF NOT GENESISTRANSACTION
 			if(transaction instanceof GenesisTransaction)
 			{
-				return false;
+				return null;
 			}
 
 			Integer min = 0;
@@ -677,18 +807,18 @@ public class Block {
 				DeployATTransaction atTx = (DeployATTransaction)transaction;
 				if ( atTx.isValid(fork, min) != Transaction.VALIDATE_OK )
 				{
-					return false;
+					return null;
 				}
 			}
 			else if(transaction.isValid(fork) != Transaction.VALIDATE_OK)
 			{
-				return false;
+				return null;
 			}
 
 			//CHECK TIMESTAMP AND DEADLINE
 			if(transaction.getTimestamp() > this.timestamp || transaction.getDeadline() <= this.timestamp)
 			{
-				return false;
+				return null;
 			}
 
 			//PROCESS TRANSACTION IN MEMORYDB TO MAKE SURE OTHER TRANSACTIONS VALIDATE PROPERLY
@@ -696,12 +826,12 @@ public class Block {
 				transaction.process(fork);
 			} catch (Exception e) {
 				LOGGER.error("Exception during transaction processing, tx " + Base58.encode(transaction.getSignature()), e);
-				return false;
+				return null;
 			}
 		}
 
 		//BLOCK IS VALID
-		return true;
+		return fork;
 	}
 
 	//PROCESS/ORPHAN
@@ -716,24 +846,42 @@ public class Block {
 		//PROCESS TRANSACTIONS
 		for(Transaction transaction: this.getTransactions())
 		{
-			//PROCESS
 			transaction.process(db);
+		}
 
-			//SET PARENT
-			db.getTransactionParentMap().set(transaction, this);
+		this.processBlock(db);
+	}
 
-			//REMOVE FROM UNCONFIRMED DATABASE
-			db.getTransactionMap().delete(transaction);
+	/**
+	 * Validates this block and, if it is valid, applies the state its
+	 * transactions produced during validation to the database instead of
+	 * processing them a second time.
+	 *
+	 * @return true if the block was valid and has been processed
+	 */
+	public boolean validateAndProcess(DBSet db)
+	{
+		DBSet fork = this.validate(db);
+		if(fork == null)
+		{
+			return false;
 		}
 
-		//DELETE CONFIRMED TRANSACTIONS FROM UNCONFIRMED TRANSACTIONS LIST
-		List<Transaction> unconfirmedTransactions = new ArrayList<Transaction>(db.getTransactionMap().getValues());
-		for(Transaction transaction: unconfirmedTransactions)
+		this.processBlock(fork);
+		fork.merge();
+
+		return true;
+	}
+
+	private void processBlock(DBSet db)
+	{
+		for(Transaction transaction: this.getTransactions())
 		{
-			if(db.getTransactionParentMap().contains(transaction.getSignature()))
-			{
-				db.getTransactionMap().delete(transaction);
-			}
+			//SET PARENT
+			db.getTransactionParentMap().set(transaction, this);
+
+			//REMOVE FROM UNCONFIRMED DATABASE WITH ANY CONFLICTING TRANSACTIONS
+			db.getTransactionMap().deleteConfirmed(transaction);
 		}
 
 		//PROCESS FEE
@@ -769,6 +917,12 @@ public class Block {
 			seq++;
 		}
 
+		//INDEX AMOUNTS RECEIVED FOR GENERATING BALANCES
+		for(Map.Entry<String, BigDecimal> inbound: this.getInboundAmounts(height, db).entrySet())
+		{
+			db.getInboundAmountMap().set(inbound.getKey(), height, inbound.getValue());
+		}
+
 		if(height % 2000 == 0) 
 		{
 			Controller.getInstance().blockchainSyncStatusUpdate(height);
@@ -824,6 +978,12 @@ public class Block {
 			this.generator.setConfirmedBalance(this.generator.getConfirmedBalance(db).subtract(blockFee), db);
 		}
 
+		//DELETE AMOUNTS RECEIVED, NEEDS THE AT TRANSACTIONS
+		for(String address: this.getInboundAmounts(this.getHeight(db), db).keySet())
+		{
+			db.getInboundAmountMap().delete(address, this.getHeight(db));
+		}
+
 		//DELETE AT TRANSACTIONS FROM DB
 		db.getATTransactionMap().delete(this.getHeight(db));
 		
@@ -846,6 +1006,52 @@ public class Block {
 		}
 	}
 
+	/**
+	 * Total positive amount every address received in this block, by its
+	 * transactions and by the AT transactions at its height.
+	 */
+	private Map<String, BigDecimal> getInboundAmounts(int height, DBSet db)
+	{
+		Map<String, BigDecimal> amounts = new HashMap<String, BigDecimal>();
+
+		for(Transaction transaction: this.getTransactions())
+		{
+			Set<Account> accounts = transaction.getInvolvedAccounts();
+			if(transaction instanceof DeployATTransaction)
+			{
+				accounts.add(((DeployATTransaction) transaction).getATaccount());
+			}
+
+			for(Account account: accounts)
+			{
+				if(transaction.isInvolved(account))
+				{
+					BigDecimal amount = transaction.getAmount(account);
+					if(amount.compareTo(BigDecimal.ZERO) == 1)
+					{
+						addAmount(amounts, account.getAddress(), amount);
+					}
+				}
+			}
+		}
+
+		for(AT_Transaction atTransaction: db.getATTransactionMap().getATTransactions(height).values())
+		{
+			if(atTransaction.getRecipient() != null)
+			{
+				addAmount(amounts, atTransaction.getRecipient(), BigDecimal.valueOf(atTransaction.getAmount(), 8));
+			}
+		}
+
+		return amounts;
+	}
+
+	private static void addAmount(Map<String, BigDecimal> amounts, String address, BigDecimal amount)
+	{
+		BigDecimal total = amounts.get(address);
+		amounts.put(address, total == null ? amount : total.add(amount));
+	}
+
 	private void orphanTransactions(List<Transaction> transactions, DBSet db)
 	{
 		//ORPHAN ALL TRANSACTIONS IN DB BACK TO FRONT
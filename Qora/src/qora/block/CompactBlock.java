@@ -0,0 +1,195 @@
+package qora.block;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.primitives.Bytes;
+
+import database.TransactionMap;
+import qora.crypto.Crypto;
+import qora.transaction.Transaction;
+
+/**
+ * A block as relayed between peers that already know most of its
+ * transactions.
+ * <p>
+ * Instead of the transactions only a short ID of every transaction is sent,
+ * salted per relay so nobody can make transactions collide in advance. The
+ * receiver finds them in its unconfirmed transactions and only asks the
+ * sender for those it does not have.
+ */
+public class CompactBlock
+{
+	public static final int SALT_LENGTH = 8;
+	public static final int SHORT_ID_LENGTH = 6;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private Block header;
+	private byte[] salt;
+	private long[] shortIds;
+
+	//FILLED IN BY THE RECEIVER
+	private Transaction[] transactions;
+	private int[] missing;
+
+	public CompactBlock(Block block)
+	{
+		this.salt = new byte[SALT_LENGTH];
+		RANDOM.nextBytes(this.salt);
+
+		List<Transaction> transactions = block.getTransactions();
+		this.shortIds = new long[transactions.size()];
+		for(int i=0; i<this.shortIds.length; i++)
+		{
+			this.shortIds[i] = getShortId(this.salt, transactions.get(i).getSignature());
+		}
+
+		this.header = block;
+	}
+
+	public CompactBlock(Block header, byte[] salt, long[] shortIds)
+	{
+		this.header = header;
+		this.salt = salt;
+		this.shortIds = shortIds;
+	}
+
+	public static long getShortId(byte[] salt, byte[] signature)
+	{
+		byte[] digest = Crypto.getInstance().digest(Bytes.concat(salt, signature));
+
+		long shortId = 0;
+		for(int i=0; i<SHORT_ID_LENGTH; i++)
+		{
+			shortId = (shortId << 8) | (digest[i] & 0xFF);
+		}
+
+		return shortId;
+	}
+
+	public Block getHeader()
+	{
+		return this.header;
+	}
+
+	public byte[] getSignature()
+	{
+		return this.header.getSignature();
+	}
+
+	public byte[] getSalt()
+	{
+		return this.salt;
+	}
+
+	public long[] getShortIds()
+	{
+		return this.shortIds;
+	}
+
+	/**
+	 * Look up the transactions of the block among the given unconfirmed
+	 * transactions. Short IDs are computed from the signatures the map is
+	 * keyed by, so only the transactions of the block are read. Short IDs
+	 * matching more than one of them are treated as missing.
+	 *
+	 * @return indexes of the transactions still missing
+	 */
+	public int[] fill(TransactionMap unconfirmed)
+	{
+		//INDEX THE ONES WE NEED BY SHORT ID
+		Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+		for(int i=0; i<this.shortIds.length; i++)
+		{
+			indexes.put(this.shortIds[i], i);
+		}
+
+		this.transactions = new Transaction[this.shortIds.length];
+		boolean[] collided = new boolean[this.shortIds.length];
+		for(byte[] signature: unconfirmed.getKeys())
+		{
+			Integer index = indexes.get(getShortId(this.salt, signature));
+			if(index != null)
+			{
+				if(this.transactions[index] != null)
+				{
+					collided[index] = true;
+				}
+				else
+				{
+					this.transactions[index] = unconfirmed.get(signature);
+				}
+			}
+		}
+
+		//COLLECT WHAT WE DO NOT HAVE
+		List<Integer> missing = new ArrayList<Integer>();
+		for(int i=0; i<this.transactions.length; i++)
+		{
+			if(this.transactions[i] == null || collided[i])
+			{
+				this.transactions[i] = null;
+				missing.add(i);
+			}
+		}
+
+		this.missing = new int[missing.size()];
+		for(int i=0; i<this.missing.length; i++)
+		{
+			this.missing[i] = missing.get(i);
+		}
+
+		return this.missing;
+	}
+
+	/**
+	 * Fill in the transactions the sender returned for the missing indexes.
+	 *
+	 * @return <code>false</code> if they do not match the short IDs
+	 */
+	public boolean fillMissing(List<Transaction> transactions)
+	{
+		if(this.missing == null || transactions.size() != this.missing.length)
+		{
+			return false;
+		}
+
+		for(int i=0; i<this.missing.length; i++)
+		{
+			int index = this.missing[i];
+			Transaction transaction = transactions.get(i);
+			if(getShortId(this.salt, transaction.getSignature()) != this.shortIds[index])
+			{
+				return false;
+			}
+
+			this.transactions[index] = transaction;
+		}
+
+		this.missing = new int[0];
+		return true;
+	}
+
+	/**
+	 * The full block, once all transactions are filled in.
+	 */
+	public Block toBlock() throws Exception
+	{
+		if(this.missing == null || this.missing.length > 0)
+		{
+			throw new IllegalStateException("Transactions missing");
+		}
+
+		Block block = Block.parseHeader(this.header.toHeaderBytes());
+		for(Transaction transaction: this.transactions)
+		{
+			block.addTransaction(transaction);
+		}
+
+		return block;
+	}
+}
@@ -316,6 +316,20 @@ public class GenesisBlock extends Block{
 		return true;
 	}
 	
+	@Override
+	public boolean validateAndProcess(DBSet db)
+	{
+		//GENESIS TRANSACTIONS ARE NOT VALIDATED ON A FORK
+		if(!this.isValid(db))
+		{
+			return false;
+		}
+		
+		this.process(db);
+		
+		return true;
+	}
+	
 	private static byte[] generateAccountSeed(byte[] seed, int nonce) 
 	{		
 		byte[] nonceBytes = Ints.toByteArray(nonce);
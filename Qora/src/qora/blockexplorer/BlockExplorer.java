@@ -26,6 +26,9 @@ import org.mapdb.Fun;
 import org.mapdb.Fun.Tuple2;
 import org.mapdb.Fun.Tuple6;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
 import at.AT;
 import at.AT_Transaction;
 import controller.Controller;
@@ -65,7 +68,6 @@ import utils.BlExpUnit;
 import utils.DateTimeFormat;
 import utils.GZIP;
 import utils.Pair;
-import utils.ReverseComparator;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class BlockExplorer
@@ -128,16 +130,23 @@ public class BlockExplorer
 			{
 				output.put("lastBlock", jsonQueryLastBlock());
 
+				int offset = 0;
+				if(info.getQueryParameters().containsKey("offset"))
+				{
+					offset = Integer.valueOf((info.getQueryParameters().getFirst("offset")));
+				}
+
 				if(info.getQueryParameters().containsKey("asset"))
 				{
 					output.putAll(jsonQueryTopRichest(
 							Integer.valueOf((info.getQueryParameters().getFirst("top"))),
+							offset,
 							Long.valueOf((info.getQueryParameters().getFirst("asset")))
 							));
 				}
 				else
 				{
-					output.putAll(jsonQueryTopRichest(Integer.valueOf((info.getQueryParameters().getFirst("top"))), 0l ));
+					output.putAll(jsonQueryTopRichest(Integer.valueOf((info.getQueryParameters().getFirst("top"))), offset, 0l ));
 				}
 
 				output.put("assets", jsonQueryAssetsLite());
@@ -1314,7 +1323,18 @@ public class BlockExplorer
 
 		int counter = start; 
 
-		do{
+		//READ THE PAGE AS ONE RANGE OF HEIGHTS
+		List<Block> blocks = Lists.newArrayList(Controller.getInstance().blocksBetween(start - 20, start));
+		Collections.reverse(blocks);
+
+		for(Block pageBlock: blocks)
+		{
+			if(pageBlock == null)
+			{
+				break;
+			}
+			block = pageBlock;
+
 			Map blockJSON=new LinkedHashMap();
 			blockJSON.put("height", counter);
 			blockJSON.put("signature", Base58.encode(block.getSignature()));
@@ -1353,9 +1373,7 @@ public class BlockExplorer
 			output.put(counter, blockJSON);
 
 			counter --;
-			block = block.getParent();
 		}
-		while(block != null && counter >= start - 20);
 
 
 		return output;
@@ -1378,38 +1396,30 @@ public class BlockExplorer
 	}
 
 	public Map jsonQueryTopRichest(int limit, long key)
+	{
+		return jsonQueryTopRichest(limit, 0, key);
+	}
+
+	public Map jsonQueryTopRichest(int limit, int offset, long key)
 	{
 		Map output=new LinkedHashMap();
 		Map balances=new LinkedHashMap();
-		BigDecimal all = BigDecimal.ZERO.setScale(8);
-		BigDecimal alloreders = BigDecimal.ZERO.setScale(8);
-
-		List<Tuple2<String, BigDecimal>> top100s = new ArrayList<Tuple2<String, BigDecimal>>();
 
+		//TOTALS ARE KEPT BY THE MAPS, RANKING COMES FROM THE ASSET INDEX
+		BigDecimal all = DBSet.getInstance().getBalanceMap().getTotal(key);
+		BigDecimal alloreders = DBSet.getInstance().getOrderMap().getTotalAmountLeft(key);
 
-		Collection<Tuple2<String, Long>> addrs = DBSet.getInstance().getBalanceMap().getKeys();
-		for (Tuple2<String, Long> addr : addrs) {
-			if(addr.b == key)
-			{
-				BigDecimal ball =  DBSet.getInstance().getBalanceMap().get(addr);
-				all = all.add(ball);
+		Iterator<Tuple2<String, BigDecimal>> top100s = DBSet.getInstance().getBalanceMap().getRanking(key);
+		Iterators.advance(top100s, offset);
 
-				top100s.add(Fun.t2(addr.a, ball));
-			}
-		}
-
-		Collection<Order> orders = DBSet.getInstance().getOrderMap().getValues();
-
-		for (Order order : orders) {
-			if(order.getHave() == key)
+		int couter = 0;
+		while (top100s.hasNext()) {
+			if(couter >= limit && limit != -2 && limit != -1) // -2 = all
 			{
-				alloreders = alloreders.add(order.getAmountLeft());
+				break;
 			}
-		}
-		Collections.sort(top100s, new ReverseComparator(new BigDecimalComparator())); 
 
-		int couter = 0;
-		for (Tuple2<String, BigDecimal> top100 : top100s) {
+			Tuple2<String, BigDecimal> top100 = top100s.next();
 			if(limit == -1) // allnotzero
 			{
 				if(top100.b.compareTo(BigDecimal.ZERO) <= 0)
@@ -1422,12 +1432,7 @@ public class BlockExplorer
 			Map balance=new LinkedHashMap();
 			balance.put("address", top100.a);
 			balance.put("balance", top100.b.toPlainString());
-			balances.put(couter, balance);
-
-			if(couter >= limit && limit != -2 && limit != -1) // -2 = all
-			{
-				break;
-			}
+			balances.put(offset + couter, balance);
 		}
 
 		output.put("all", all.toPlainString());
@@ -1436,6 +1441,7 @@ public class BlockExplorer
 		output.put("assetKey", key);
 		output.put("assetName", Controller.getInstance().getAsset(key).getName());
 		output.put("limit", limit);
+		output.put("offset", offset);
 		output.put("count", couter);
 
 		output.put("top", balances);
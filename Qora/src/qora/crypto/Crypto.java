@@ -1,5 +1,6 @@
 package qora.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -13,6 +14,8 @@ import qora.account.Account;
 import qora.account.PrivateKeyAccount;
 import utils.Pair;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.primitives.Bytes;
 
 public class Crypto {
@@ -20,9 +23,17 @@ public class Crypto {
 	public static final byte ADDRESS_VERSION = 58;
 	public static final byte AT_ADDRESS_VERSION = 23;
 	
+	private static final int VERIFIED_CACHE_SIZE = 100000;
+	
 	private static final Logger LOGGER = LogManager.getLogger(Crypto.class);
 	private static Crypto instance;
 	
+	//DIGESTS OF SIGNATURES WE ALREADY VERIFIED
+	private static final Cache<ByteBuffer, Boolean> verified = CacheBuilder.newBuilder()
+			.maximumSize(VERIFIED_CACHE_SIZE)
+			.recordStats()
+			.build();
+	
 	public static Crypto getInstance()
 	{
 		if(instance == null)
@@ -233,8 +244,21 @@ public class Crypto {
 	{
 		try 
 		{
+			//CHECK IF WE VERIFIED THIS BEFORE
+			ByteBuffer key = ByteBuffer.wrap(this.digest(Bytes.concat(publicKey, signature, this.digest(message))));
+			if(verified.getIfPresent(key) != null)
+			{
+				return true;
+			}
+			
 			//VERIFY SIGNATURE
-			return Ed25519.verify(signature, message, publicKey);	
+			if(!Ed25519.verify(signature, message, publicKey))
+			{
+				return false;
+			}
+			
+			verified.put(key, Boolean.TRUE);
+			return true;
 		}
 		catch(Exception e)
 		{
@@ -243,4 +267,14 @@ public class Crypto {
 		}
 	}
 	
+	public long getVerifiedCacheHits()
+	{
+		return verified.stats().hitCount();
+	}
+	
+	public long getVerifiedCacheMisses()
+	{
+		return verified.stats().missCount();
+	}
+	
 }
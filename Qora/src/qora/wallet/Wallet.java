@@ -461,25 +461,43 @@ public class Wallet extends Observable implements Observer
 			Controller.getInstance().setNeedSync(false);
 			Controller.getInstance().setProcessingWalletSynchronize(true);
 			this.syncHeight = 1;
-			do
+			
+			//GENESIS BLOCK
+			this.update(this, new ObserverMessage(ObserverMessage.ADD_BLOCK_TYPE, block));
+			
+			//READ BLOCKS IN ORDER OF HEIGHT UNTIL WE HAVE CAUGHT UP
+			int height = 1;
+			while(height < Controller.getInstance().getHeight())
 			{
-				//UPDATE
-				this.update(this, new ObserverMessage(ObserverMessage.ADD_BLOCK_TYPE, block));
-				
-				if(block.getHeight() % 2000 == 0) 
+				int to = Controller.getInstance().getHeight();
+				for(Block next: Controller.getInstance().blocksBetween(height + 1, to))
 				{
-					this.syncHeight = block.getHeight();
+					if(next == null)
+					{
+						break;
+					}
 					
-					Controller.getInstance().walletSyncStatusUpdate(this.syncHeight);
+					//UPDATE
+					this.update(this, new ObserverMessage(ObserverMessage.ADD_BLOCK_TYPE, next));
+					height++;
 					
-					LOGGER.info("Synchronize wallet: " + this.syncHeight);
-					this.database.commit();
+					if(height % 2000 == 0) 
+					{
+						this.syncHeight = height;
+						
+						Controller.getInstance().walletSyncStatusUpdate(this.syncHeight);
+						
+						LOGGER.info("Synchronize wallet: " + this.syncHeight);
+						this.database.commit();
+					}
 				}
 				
-				//LOAD NEXT
-				block = block.getChild();
+				//CHAIN MAY HAVE BEEN REORGANIZED BELOW US
+				if(height < to)
+				{
+					break;
+				}
 			}
-			while(block != null);
 			
 		}finally{
 			Controller.getInstance().setProcessingWalletSynchronize(false);
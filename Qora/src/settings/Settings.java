@@ -39,6 +39,7 @@ public class Settings {
 	private static final int DEFAULT_MAX_SENT_PEERS = 20;
 	private static final int DEFAULT_CONNECTION_TIMEOUT = 10000;
 	private static final int DEFAULT_PING_INTERVAL = 30000;
+	private static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 16;
 	private static final boolean DEFAULT_TRYING_CONNECT_TO_BAD_PEERS = true;
 
 	//TESTNET 
@@ -67,6 +68,7 @@ public class Settings {
 	
 	private static final boolean DEFAULT_GENERATOR_KEY_CACHING = false;
 	private static final boolean DEFAULT_CHECKPOINTING = true;
+	private static final int DEFAULT_SYNC_COMMIT_INTERVAL = 50;
 
 	private static final boolean DEFAULT_SOUND_RECEIVE_COIN = true;
 	private static final boolean DEFAULT_SOUND_MESSAGE = true;
@@ -503,6 +505,16 @@ public class Settings {
 		return DEFAULT_CONNECTION_TIMEOUT;
 	}
 	
+	public int getMaxRequestsInFlight()
+	{
+		if(this.settingsJSON.containsKey("maxrequestsinflight"))
+		{
+			return ((Long) this.settingsJSON.get("maxrequestsinflight")).intValue();
+		}
+		
+		return DEFAULT_MAX_REQUESTS_IN_FLIGHT;
+	}
+	
 	public boolean isTryingConnectToBadPeers()
 	{
 		if(this.settingsJSON.containsKey("tryingconnecttobadpeers"))
@@ -677,6 +689,16 @@ public class Settings {
 		return DEFAULT_CHECKPOINTING;
 	}
 	
+	public int getSyncCommitInterval()
+	{
+		if(this.settingsJSON.containsKey("synccommitinterval"))
+		{
+			return ((Long) this.settingsJSON.get("synccommitinterval")).intValue();
+		}
+		
+		return DEFAULT_SYNC_COMMIT_INTERVAL;
+	}
+	
 	public boolean isSoundReceivePaymentEnabled() 
 	{
 		if(this.settingsJSON.containsKey("soundreceivepayment"))
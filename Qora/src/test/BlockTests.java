@@ -3,18 +3,26 @@ package test;
 import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import ntp.NTP;
 
 import org.junit.Test;
 
 import database.DBSet;
+import network.message.CompactBlockMessage;
+import network.message.Message;
+import network.message.MessageFactory;
 import qora.BlockGenerator;
 import qora.account.Account;
 import qora.account.PrivateKeyAccount;
 import qora.block.Block;
 import qora.block.BlockFactory;
+import qora.block.CompactBlock;
 import qora.block.GenesisBlock;
 import qora.crypto.Crypto;
 import qora.transaction.GenesisTransaction;
@@ -446,6 +454,62 @@ public class BlockTests
 		assertEquals(true, Arrays.equals(block.getSignature(), databaseSet.getBlockMap().getLastBlock().getSignature()));
 	}
 	
+	@Test
+	public void generatingBalance()
+	{
+		//CREATE EMPTY MEMORY DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+										
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+										
+		//CREATE KNOWN ACCOUNT
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+												
+		//PROCESS GENESIS TRANSACTION TO MAKE SURE GENERATOR HAS FUNDS
+		Transaction transaction = new GenesisTransaction(generator, BigDecimal.valueOf(1000).setScale(8), NTP.getTime());
+		transaction.process(databaseSet);
+								
+		//GENERATE NEXT BLOCK
+		BlockGenerator blockGenerator = new BlockGenerator();
+		Block block = blockGenerator.generateNextBlock(databaseSet, generator, genesisBlock);
+		
+		//GENERATE PAYMENT TO AN ACCOUNT WITH FUNDS
+		Account recipient = new Account("XUi2oga2pnGNcZ9es6pBqxydtRZKWdkL2g");
+		new GenesisTransaction(recipient, BigDecimal.valueOf(1000).setScale(8), NTP.getTime()).process(databaseSet);
+		long timestamp = block.getTimestamp();
+		byte[] signature = PaymentTransaction.generateSignature(databaseSet, generator, recipient, BigDecimal.valueOf(100).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp);
+		Transaction payment = new PaymentTransaction(generator, recipient, BigDecimal.valueOf(100).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp, generator.getLastReference(databaseSet), signature);
+		block.addTransaction(payment);	
+		block.setTransactionsSignature(blockGenerator.calculateTransactionsSignature(block, generator));
+		
+		//PROCESS BLOCK
+		block.process(databaseSet);
+		
+		//CHECK AMOUNT RECEIVED IS INDEXED
+		assertEquals(true, databaseSet.getInboundAmountMap().get(recipient.getAddress(), 2).compareTo(BigDecimal.valueOf(100)) == 0);
+		assertEquals(true, databaseSet.getInboundAmountMap().get(generator.getAddress(), 2).compareTo(BigDecimal.ZERO) == 0);
+		
+		//CHECK AMOUNT RECEIVED DOES NOT COUNT
+		assertEquals(true, recipient.getConfirmedBalance(databaseSet).compareTo(BigDecimal.valueOf(1100)) == 0);
+		assertEquals(true, recipient.getGeneratingBalance(databaseSet).compareTo(BigDecimal.valueOf(1000)) == 0);
+		assertEquals(true, generator.getGeneratingBalance(databaseSet).compareTo(generator.getConfirmedBalance(databaseSet)) == 0);
+		
+		//CHECK FORK SEES THE SAME
+		DBSet fork = databaseSet.fork();
+		assertEquals(true, new Account(recipient.getAddress()).getGeneratingBalance(fork).compareTo(BigDecimal.valueOf(1000)) == 0);
+		
+		//ORPHAN BLOCK
+		block.orphan(databaseSet);
+		
+		//CHECK AMOUNT RECEIVED IS REMOVED
+		assertEquals(true, databaseSet.getInboundAmountMap().get(recipient.getAddress(), 2).compareTo(BigDecimal.ZERO) == 0);
+		assertEquals(true, recipient.getGeneratingBalance(databaseSet).compareTo(BigDecimal.valueOf(1000)) == 0);
+	}
+	
 	@Test
 	public void orphanBlock()
 	{
@@ -521,4 +585,68 @@ public class BlockTests
 		//CHECK LAST BLOCK
 		assertEquals(true, Arrays.equals(genesisBlock.getSignature(), databaseSet.getBlockMap().getLastBlock().getSignature()));
 	}
+	
+	@Test
+	public void compactBlock() throws Exception
+	{
+		//CREATE EMPTY MEMORY DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+				
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+				
+		//CREATE KNOWN ACCOUNT
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+						
+		//PROCESS GENESIS TRANSACTION TO MAKE SURE GENERATOR HAS FUNDS
+		Transaction transaction = new GenesisTransaction(generator, BigDecimal.valueOf(1000).setScale(8), NTP.getTime());
+		transaction.process(databaseSet);
+				
+		//GENERATE NEXT BLOCK WITH 5 PAYMENTS
+		BlockGenerator blockGenerator = new BlockGenerator();
+		Block newBlock = blockGenerator.generateNextBlock(databaseSet, generator, genesisBlock);
+		DBSet fork = databaseSet.fork();
+		List<Transaction> payments = new ArrayList<Transaction>();
+		for(int i=0; i<5; i++)
+		{
+			long timestamp = newBlock.getTimestamp() - 10 + i;
+			Account recipient = new Account("QgcphUTiVHHfHg8e1LVgg5jujVES7ZDUTr");
+			byte[] signature = PaymentTransaction.generateSignature(fork, generator, recipient, BigDecimal.valueOf(1).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp);
+			Transaction payment = new PaymentTransaction(generator, recipient, BigDecimal.valueOf(1).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp, generator.getLastReference(fork), signature);
+			payment.process(fork);
+			
+			newBlock.addTransaction(payment);
+			payments.add(payment);
+		}
+		newBlock.setTransactionsSignature(Crypto.getInstance().sign(generator, newBlock.getGeneratorSignature()));
+		
+		//SEND AS COMPACT BLOCK AND PARSE AGAIN
+		Message message = MessageFactory.getInstance().createCompactBlockMessage(newBlock);
+		byte[] rawMessage = message.toBytes();
+		DataInputStream stream = new DataInputStream(new ByteArrayInputStream(rawMessage, Message.MAGIC_LENGTH, rawMessage.length - Message.MAGIC_LENGTH));
+		CompactBlock compactBlock = ((CompactBlockMessage) MessageFactory.getInstance().parse(null, stream)).getCompactBlock();
+		
+		//CHECK HEADER AND SIZE
+		assertEquals(true, Arrays.equals(newBlock.getSignature(), compactBlock.getSignature()));
+		assertEquals(5, compactBlock.getShortIds().length);
+		assertEquals(true, rawMessage.length < newBlock.toBytes().length);
+		
+		//RECEIVER KNOWS ALL BUT THE SECOND AND FOURTH PAYMENT
+		DBSet receiver = DBSet.createEmptyDatabaseSet();
+		receiver.getTransactionMap().add(payments.get(0));
+		receiver.getTransactionMap().add(payments.get(2));
+		receiver.getTransactionMap().add(payments.get(4));
+		int[] missing = compactBlock.fill(receiver.getTransactionMap());
+		assertEquals(true, Arrays.equals(new int[]{1, 3}, missing));
+		
+		//WRONG TRANSACTIONS ARE REFUSED
+		assertEquals(false, compactBlock.fillMissing(Arrays.asList(payments.get(3), payments.get(1))));
+		
+		//MISSING TRANSACTIONS COMPLETE THE BLOCK
+		assertEquals(true, compactBlock.fillMissing(Arrays.asList(payments.get(1), payments.get(3))));
+		assertEquals(true, Arrays.equals(newBlock.toBytes(), compactBlock.toBlock().toBytes()));
+	}
 }
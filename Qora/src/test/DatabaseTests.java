@@ -3,10 +3,33 @@ package test;
 import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
 
 import org.junit.Test;
+import org.mapdb.Fun.Tuple2;
 
+import com.google.common.primitives.Longs;
+
+import qora.account.Account;
+import qora.account.PublicKeyAccount;
+import qora.assets.Order;
+import qora.block.Block;
+import qora.block.GenesisBlock;
+import qora.crypto.Crypto;
+import qora.transaction.PaymentTransaction;
+import qora.transaction.Transaction;
+import database.BalanceLedger;
+import database.BalanceMap;
+import database.DBMap;
 import database.DBSet;
+import database.NameExchangeMap;
+import utils.ObserverMessage;
 
 
 public class DatabaseTests {
@@ -53,4 +76,418 @@ public class DatabaseTests {
 		//CHECK VALUE IN FORK
 		assertEquals(BigDecimal.ZERO, fork2.getBalanceMap().get("test"));
 	}	
+	
+	@Test
+	public void databaseBatchRollback() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		
+		//SET BALANCE AND WRITE TO DISK
+		databaseSet.getBalanceMap().set("test", BigDecimal.ONE);
+		databaseSet.flush();
+		
+		//CHANGE BALANCE IN BATCH
+		databaseSet.beginBatch();
+		databaseSet.getBalanceMap().set("test", BigDecimal.TEN);
+		databaseSet.getBalanceMap().set("test2", BigDecimal.TEN);
+		
+		//CHECK VALUE IN BATCH
+		assertEquals(BigDecimal.TEN, databaseSet.getBalanceMap().get("test"));
+		
+		//ROLLBACK
+		databaseSet.rollbackBatch();
+		
+		//CHECK VALUES ARE BACK TO LAST COMMIT
+		assertEquals(BigDecimal.ONE, databaseSet.getBalanceMap().get("test"));
+		assertEquals(false, databaseSet.getBalanceMap().contains(new Tuple2<String, Long>("test2", BalanceMap.QORA_KEY)));
+	}
+	
+	@Test
+	public void databaseIsolatedBatchRollback() 
+	{
+		//CREATE DATABASE THAT COMMITS EVERY 10 BLOCKS
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		databaseSet.setCommitInterval(10);
+		
+		//BLOCKS N-3 TO N-1 ARE NOT ON DISK YET
+		for(int i=1; i<=3; i++)
+		{
+			databaseSet.beginBatch();
+			databaseSet.getBalanceMap().set("test", BigDecimal.valueOf(i));
+			databaseSet.commitBatch();
+		}
+		
+		//BLOCK N FAILS
+		databaseSet.beginIsolatedBatch();
+		databaseSet.getBalanceMap().set("test", BigDecimal.valueOf(4));
+		databaseSet.getBalanceMap().set("test2", BigDecimal.TEN);
+		databaseSet.rollbackBatch();
+		
+		//CHECK ONLY BLOCK N IS UNDONE
+		assertEquals(BigDecimal.valueOf(3), databaseSet.getBalanceMap().get("test"));
+		assertEquals(false, databaseSet.getBalanceMap().contains(new Tuple2<String, Long>("test2", BalanceMap.QORA_KEY)));
+		
+		//WITHOUT ISOLATION THE UNCOMMITTED BLOCKS ARE LOST TOO
+		databaseSet.beginBatch();
+		databaseSet.getBalanceMap().set("test", BigDecimal.valueOf(5));
+		databaseSet.commitBatch();
+		databaseSet.beginBatch();
+		databaseSet.getBalanceMap().set("test", BigDecimal.valueOf(6));
+		databaseSet.rollbackBatch();
+		assertEquals(BigDecimal.valueOf(3), databaseSet.getBalanceMap().get("test"));
+	}
+	
+	@Test
+	public void databaseBatchLocksReaders() throws Exception
+	{
+		//CREATE DATABASE
+		final DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		final boolean[] locked = new boolean[1];
+		Thread reader = new Thread() {
+			public void run() {
+				locked[0] = databaseSet.getReadLock().tryLock();
+				if(locked[0])
+				{
+					databaseSet.getReadLock().unlock();
+				}
+			}
+		};
+		
+		//NESTED BATCH KEEPS READERS OUT
+		databaseSet.beginBatch();
+		databaseSet.beginBatch();
+		databaseSet.commitBatch();
+		reader.start();
+		reader.join();
+		assertEquals(false, locked[0]);
+		
+		//READERS ALLOWED AGAIN AFTER OUTER BATCH
+		databaseSet.commitBatch();
+		reader = new Thread(reader);
+		reader.start();
+		reader.join();
+		assertEquals(true, locked[0]);
+		
+		//ROLLBACK RELEASES EVERYTHING
+		databaseSet.beginBatch();
+		databaseSet.beginBatch();
+		databaseSet.rollbackBatch();
+		reader = new Thread(reader);
+		reader.start();
+		reader.join();
+		assertEquals(true, locked[0]);
+	}
+	
+	@Test
+	public void databaseForkMerge() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		databaseSet.getNameExchangeMap().set("a", BigDecimal.ONE);
+		databaseSet.getNameExchangeMap().set("b", BigDecimal.valueOf(3));
+		databaseSet.getNameExchangeMap().set("c", BigDecimal.valueOf(5));
+		
+		//CHANGE FORK
+		DBSet fork = databaseSet.fork();
+		fork.getNameExchangeMap().set("d", BigDecimal.valueOf(2));
+		fork.getNameExchangeMap().set("c", BigDecimal.ZERO);
+		fork.getNameExchangeMap().delete("b");
+		
+		//CHECK FORK
+		assertEquals(false, fork.getNameExchangeMap().contains("b"));
+		assertEquals(Arrays.asList("a", "c", "d"), keys(fork.getNameExchangeMap().getIterator(DBMap.DEFAULT_INDEX, false)));
+		assertEquals(Arrays.asList("c", "a", "d"), keys(fork.getNameExchangeMap().getIterator(NameExchangeMap.AMOUNT_INDEX, false)));
+		assertEquals(Arrays.asList("d", "a", "c"), keys(fork.getNameExchangeMap().getIterator(NameExchangeMap.AMOUNT_INDEX, true)));
+		
+		//CHECK DB UNTOUCHED
+		assertEquals(Arrays.asList("a", "b", "c"), keys(databaseSet.getNameExchangeMap().getIterator(NameExchangeMap.AMOUNT_INDEX, false)));
+		
+		//MERGE
+		fork.merge();
+		
+		//CHECK DB
+		assertEquals(false, databaseSet.getNameExchangeMap().contains("b"));
+		assertEquals(BigDecimal.ZERO, databaseSet.getNameExchangeMap().get("c"));
+		assertEquals(Arrays.asList("c", "a", "d"), keys(databaseSet.getNameExchangeMap().getIterator(NameExchangeMap.AMOUNT_INDEX, false)));
+	}
+	
+	@Test
+	public void databaseLastBlockNotified() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		final List<byte[]> tips = new ArrayList<byte[]>();
+		databaseSet.getBlockMap().addObserver(new Observer() {
+			@Override
+			public void update(Observable observable, Object arg) {
+				ObserverMessage message = (ObserverMessage) arg;
+				if(message.getType() == ObserverMessage.LAST_BLOCK_TYPE)
+				{
+					tips.add((byte[]) message.getValue());
+				}
+			}
+		});
+		
+		//FORK HAS NO TIP OF ITS OWN
+		Block block = new GenesisBlock();
+		DBSet fork = databaseSet.fork();
+		fork.getBlockMap().setLastBlock(block);
+		assertEquals(0, tips.size());
+		
+		//MERGE MOVES THE TIP
+		fork.merge();
+		assertEquals(1, tips.size());
+		assertEquals(true, Arrays.equals(block.getSignature(), tips.get(0)));
+		
+		//SETTING IT DIRECTLY MOVES IT AS WELL
+		databaseSet.getBlockMap().setLastBlock(block);
+		assertEquals(2, tips.size());
+	}
+	
+	@Test
+	public void databaseBalanceLedger() 
+	{
+		//FILL WELL PAST THE INITIAL CAPACITY
+		BalanceLedger ledger = new BalanceLedger();
+		List<byte[]> addresses = new ArrayList<byte[]>();
+		for(int i=0; i<1000; i++)
+		{
+			byte[] address = BalanceLedger.toAddress(Crypto.getInstance().getAddress(Crypto.getInstance().digest(Longs.toByteArray(i))));
+			addresses.add(address);
+			ledger.put(address, "" + i, BalanceMap.QORA_KEY, i);
+			ledger.put(address, "" + i, 1l, -i);
+		}
+		assertEquals(2000, ledger.size());
+		
+		//REMOVE EVERY OTHER
+		for(int i=0; i<1000; i+=2)
+		{
+			assertEquals(true, ledger.remove(addresses.get(i), BalanceMap.QORA_KEY));
+		}
+		assertEquals(1500, ledger.size());
+		
+		//CHECK ALL
+		for(int i=0; i<1000; i++)
+		{
+			int slot = ledger.find(addresses.get(i), BalanceMap.QORA_KEY);
+			assertEquals(i % 2 == 1, slot >= 0);
+			if(slot >= 0)
+			{
+				assertEquals(i, ledger.getUnits(slot));
+			}
+			assertEquals(-i, ledger.getUnits(ledger.find(addresses.get(i), 1l)));
+		}
+		
+		//AMOUNTS TOO LARGE FOR UNITS
+		assertEquals(true, BalanceLedger.fits(BigDecimal.valueOf(9999999999l).setScale(8)));
+		assertEquals(false, BalanceLedger.fits(BigDecimal.valueOf(10000000000l).setScale(8)));
+		assertEquals(BigDecimal.valueOf(12345, 8), BalanceLedger.toAmount(BalanceLedger.toUnits(BigDecimal.valueOf(12345, 8))));
+	}
+	
+	@Test
+	public void databaseForkBalances() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		Account account = new Account("XUi2oga2pnGNcZ9es6pBqxydtRZKWdkL2g");
+		account.setConfirmedBalance(BigDecimal.valueOf(10).setScale(8), databaseSet);
+		
+		//CHANGE FORK
+		DBSet fork = databaseSet.fork();
+		account.setConfirmedBalance(account.getConfirmedBalance(fork).add(BigDecimal.ONE), fork);
+		account.setConfirmedBalance(5l, BigDecimal.valueOf(Long.MAX_VALUE), fork);
+		
+		//CHECK FORK
+		assertEquals(true, account.getConfirmedBalance(fork).compareTo(BigDecimal.valueOf(11)) == 0);
+		assertEquals(true, account.getConfirmedBalance(5l, fork).compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) == 0);
+		assertEquals(true, fork.getBalanceMap().get(account.getAddress()).compareTo(BigDecimal.valueOf(11)) == 0);
+		
+		//CHECK DB UNTOUCHED
+		assertEquals(true, account.getConfirmedBalance(databaseSet).compareTo(BigDecimal.valueOf(10)) == 0);
+		assertEquals(true, account.getConfirmedBalance(5l, databaseSet).compareTo(BigDecimal.ZERO) == 0);
+		
+		//FORK OF THE FORK ITERATES THE BALANCES ITS PARENT KEEPS IN THE LEDGER
+		Account other = new Account("QgcphUTiVHHfHg8e1LVgg5jujVES7ZDUTr");
+		other.setConfirmedBalance(BigDecimal.valueOf(3).setScale(8), fork);
+		List<Tuple2<String, Long>> keys = new ArrayList<Tuple2<String, Long>>();
+		Iterator<Tuple2<String, Long>> iterator = fork.fork().getBalanceMap().getIterator(DBMap.DEFAULT_INDEX, false);
+		while(iterator.hasNext())
+		{
+			keys.add(iterator.next());
+		}
+		assertEquals(true, keys.contains(new Tuple2<String, Long>(other.getAddress(), BalanceMap.QORA_KEY)));
+		assertEquals(true, keys.contains(new Tuple2<String, Long>(account.getAddress(), BalanceMap.QORA_KEY)));
+		
+		//MERGE
+		fork.merge();
+		
+		//CHECK DB
+		assertEquals(true, account.getConfirmedBalance(databaseSet).compareTo(BigDecimal.valueOf(11)) == 0);
+		assertEquals(true, account.getConfirmedBalance(5l, databaseSet).compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) == 0);
+	}
+	
+	@Test
+	public void databaseRichList() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		Account first = new Account("XUi2oga2pnGNcZ9es6pBqxydtRZKWdkL2g");
+		Account second = new Account("QgcphUTiVHHfHg8e1LVgg5jujVES7ZDUTr");
+		Account third = new Account("QRZ5Ggk6o5wwEgzL4Wo3xmueXuDEgwLeyQ");
+		first.setConfirmedBalance(7l, BigDecimal.valueOf(10).setScale(8), databaseSet);
+		second.setConfirmedBalance(7l, BigDecimal.valueOf(30).setScale(8), databaseSet);
+		third.setConfirmedBalance(7l, BigDecimal.valueOf(20).setScale(8), databaseSet);
+		first.setConfirmedBalance(8l, BigDecimal.valueOf(99).setScale(8), databaseSet);
+		
+		//CHECK RANKING
+		List<Tuple2<String, BigDecimal>> top = databaseSet.getBalanceMap().getTop(7l, 0, 10);
+		assertEquals(3, top.size());
+		assertEquals(second.getAddress(), top.get(0).a);
+		assertEquals(third.getAddress(), top.get(1).a);
+		assertEquals(first.getAddress(), top.get(2).a);
+		assertEquals(true, top.get(0).b.compareTo(BigDecimal.valueOf(30)) == 0);
+		
+		top = databaseSet.getBalanceMap().getTop(7l, 1, 1);
+		assertEquals(1, top.size());
+		assertEquals(third.getAddress(), top.get(0).a);
+		
+		//CHECK TOTALS
+		assertEquals(true, databaseSet.getBalanceMap().getTotal(7l).compareTo(BigDecimal.valueOf(60)) == 0);
+		assertEquals(true, databaseSet.getBalanceMap().getTotal(8l).compareTo(BigDecimal.valueOf(99)) == 0);
+		
+		//CHANGE IN FORK
+		DBSet fork = databaseSet.fork();
+		first.setConfirmedBalance(7l, BigDecimal.valueOf(50).setScale(8), fork);
+		assertEquals(true, databaseSet.getBalanceMap().getTotal(7l).compareTo(BigDecimal.valueOf(60)) == 0);
+		
+		//MERGE
+		fork.merge();
+		
+		//CHECK DB
+		top = databaseSet.getBalanceMap().getTop(7l, 0, 10);
+		assertEquals(3, top.size());
+		assertEquals(first.getAddress(), top.get(0).a);
+		assertEquals(true, databaseSet.getBalanceMap().getTotal(7l).compareTo(BigDecimal.valueOf(100)) == 0);
+		
+		//ORDERS
+		Order order = new Order(BigInteger.ONE, first, 7l, 8l, BigDecimal.valueOf(5).setScale(8), BigDecimal.ONE.setScale(8), 0l);
+		databaseSet.getOrderMap().add(order);
+		databaseSet.getOrderMap().add(new Order(BigInteger.TEN, second, 7l, 8l, BigDecimal.valueOf(3).setScale(8), BigDecimal.ONE.setScale(8), 0l));
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(7l).compareTo(BigDecimal.valueOf(8)) == 0);
+		
+		//FULFILL PART
+		databaseSet.getOrderMap().add(new Order(BigInteger.ONE, first, 7l, 8l, BigDecimal.valueOf(5).setScale(8), BigDecimal.valueOf(2).setScale(8), BigDecimal.ONE.setScale(8), 0l));
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(7l).compareTo(BigDecimal.valueOf(6)) == 0);
+		
+		//COMPLETE
+		databaseSet.getOrderMap().delete(order);
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(7l).compareTo(BigDecimal.valueOf(3)) == 0);
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(8l).compareTo(BigDecimal.ZERO) == 0);
+	}
+	
+	@Test
+	public void databaseOrderTotals() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		Account account = new Account("XUi2oga2pnGNcZ9es6pBqxydtRZKWdkL2g");
+		databaseSet.getOrderMap().add(new Order(BigInteger.ONE, account, 7l, 8l, BigDecimal.valueOf(5).setScale(8), BigDecimal.ONE.setScale(8), 0l));
+		
+		//FULFILL PART OF THE STORED ORDER IN PLACE
+		Order order = databaseSet.getOrderMap().get(BigInteger.ONE);
+		order.setFulfilled(BigDecimal.valueOf(2).setScale(8));
+		databaseSet.getOrderMap().add(order);
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(7l).compareTo(BigDecimal.valueOf(3)) == 0);
+		
+		//AND THE REST
+		order = databaseSet.getOrderMap().get(BigInteger.ONE);
+		order.setFulfilled(BigDecimal.valueOf(5).setScale(8));
+		databaseSet.getOrderMap().delete(order);
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(7l).compareTo(BigDecimal.ZERO) == 0);
+		
+		//ORDERS MERGED FROM A FORK
+		DBSet fork = databaseSet.fork();
+		fork.getOrderMap().add(new Order(BigInteger.TEN, account, 7l, 8l, BigDecimal.valueOf(4).setScale(8), BigDecimal.ONE.setScale(8), 0l));
+		fork.merge();
+		assertEquals(true, databaseSet.getOrderMap().getTotalAmountLeft(7l).compareTo(BigDecimal.valueOf(4)) == 0);
+	}
+	
+	@Test
+	public void databaseHeightRange() 
+	{
+		//CREATE DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		for(int height=1; height<=10; height++)
+		{
+			databaseSet.getHeightMap().set(new byte[]{(byte) height}, height);
+		}
+		
+		//CHECK RANGE
+		List<byte[]> signatures = new ArrayList<byte[]>(databaseSet.getHeightMap().getBlocksByHeight(3, 5));
+		assertEquals(3, signatures.size());
+		assertArrayEquals(new byte[]{3}, signatures.get(0));
+		assertArrayEquals(new byte[]{5}, signatures.get(2));
+		
+		//REPLACE BLOCK AT HEIGHT 4 IN FORK
+		DBSet fork = databaseSet.fork();
+		fork.getHeightMap().set(new byte[]{44}, 4);
+		fork.getHeightMap().set(new byte[]{4}, 40);
+		
+		//CHECK FORK
+		assertArrayEquals(new byte[]{44}, fork.getHeightMap().getBlockByHeight(4));
+		signatures = new ArrayList<byte[]>(fork.getHeightMap().getBlocksByHeight(3, 5));
+		assertEquals(3, signatures.size());
+		assertArrayEquals(new byte[]{44}, signatures.get(1));
+		
+		//CHECK DB UNTOUCHED
+		assertArrayEquals(new byte[]{4}, databaseSet.getHeightMap().getBlockByHeight(4));
+	}
+	
+	@Test
+	public void databaseConfirmedTransactions() 
+	{
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		
+		//TWO TRANSACTIONS SPENDING THE SAME REFERENCE AND ONE OF ANOTHER CREATOR
+		PublicKeyAccount creator = new PublicKeyAccount(new byte[32]);
+		PublicKeyAccount other = new PublicKeyAccount(new byte[]{1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1});
+		byte[] reference = new byte[64];
+		Transaction first = payment(creator, reference, (byte) 1);
+		Transaction second = payment(creator, reference, (byte) 2);
+		Transaction third = payment(other, reference, (byte) 3);
+		databaseSet.getTransactionMap().add(first);
+		databaseSet.getTransactionMap().add(second);
+		databaseSet.getTransactionMap().add(third);
+		
+		//CONFIRM FIRST IN FORK
+		DBSet fork = databaseSet.fork();
+		fork.getTransactionMap().deleteConfirmed(first);
+		assertEquals(false, fork.getTransactionMap().contains(first));
+		assertEquals(false, fork.getTransactionMap().contains(second));
+		assertEquals(true, fork.getTransactionMap().contains(third));
+		assertEquals(3, databaseSet.getTransactionMap().size());
+		
+		//CONFIRM FIRST IN DB
+		databaseSet.getTransactionMap().deleteConfirmed(first);
+		assertEquals(1, databaseSet.getTransactionMap().size());
+		assertEquals(true, databaseSet.getTransactionMap().contains(third));
+	}
+	
+	private static Transaction payment(PublicKeyAccount creator, byte[] reference, byte id)
+	{
+		byte[] signature = new byte[64];
+		signature[0] = id;
+		return new PaymentTransaction(creator, creator, BigDecimal.ONE.setScale(8), BigDecimal.ONE.setScale(8), 1000L, reference, signature);
+	}
+	
+	private static List<String> keys(Iterator<String> iterator)
+	{
+		List<String> keys = new ArrayList<String>();
+		while(iterator.hasNext())
+		{
+			keys.add(iterator.next());
+		}
+		return keys;
+	}
 }
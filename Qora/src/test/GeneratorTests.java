@@ -3,6 +3,10 @@ package test;
 import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import ntp.NTP;
 
@@ -66,6 +70,45 @@ public class GeneratorTests {
 		}
 	}
 	
+	@Test
+	public void generateNewBlocks() 
+	{
+		//CREATE EMPTY MEMORY DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+		
+		//CREATE KNOWN ACCOUNTS WITH FUNDS
+		List<PrivateKeyAccount> generators = new ArrayList<PrivateKeyAccount>();
+		for(int i=0; i<8; i++)
+		{
+			byte[] seed = Crypto.getInstance().digest(("test" + i).getBytes());
+			byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+			PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+			new GenesisTransaction(generator, BigDecimal.valueOf(1000 * (i + 1)).setScale(8), NTP.getTime()).process(databaseSet);
+			generators.add(generator);
+		}
+		
+		//GENERATE BLOCKS OF ALL ACCOUNTS AT ONCE
+		BlockGenerator blockGenerator = new BlockGenerator();
+		Map<PrivateKeyAccount, Block> blocks = blockGenerator.generateNextBlocks(databaseSet, generators, new BlockGenerator.Solving(databaseSet, genesisBlock));
+		assertEquals(generators.size(), blocks.size());
+		
+		//CHECK SAME AS ONE BY ONE
+		for(PrivateKeyAccount generator: generators)
+		{
+			Block block = blocks.get(generator);
+			Block expected = blockGenerator.generateNextBlock(databaseSet, generator, genesisBlock);
+			
+			assertEquals(true, Arrays.equals(expected.getGeneratorSignature(), block.getGeneratorSignature()));
+			assertEquals(expected.getTimestamp(), block.getTimestamp());
+			assertEquals(expected.getGeneratingBalance(), block.getGeneratingBalance());
+			assertEquals(true, block.isGeneratorSignatureValid());
+		}
+	}
+	
 	@Test
 	public void addTransactions()
 	{
@@ -165,5 +208,118 @@ public class GeneratorTests {
 		assertEquals(true, newBlock.isValid(databaseSet));
 	}
 	
+	@Test
+	public void validateAndProcessBlock()
+	{
+		//CREATE EMPTY MEMORY DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+				
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+				
+		//CREATE KNOWN ACCOUNT
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+						
+		//PROCESS GENESIS TRANSACTION TO MAKE SURE GENERATOR HAS FUNDS
+		Transaction transaction = new GenesisTransaction(generator, BigDecimal.valueOf(100000).setScale(8), NTP.getTime());
+		transaction.process(databaseSet);
+				
+		//GENERATE NEXT BLOCK
+		BlockGenerator blockGenerator = new BlockGenerator();
+		Block newBlock = blockGenerator.generateNextBlock(databaseSet, generator, genesisBlock);
+		
+		//ADD 10 UNCONFIRMED VALID TRANSACTIONS	
+		byte[] recipientSeed = Crypto.getInstance().digest("recipient".getBytes());
+		Account recipient = new PrivateKeyAccount(Crypto.getInstance().createKeyPair(recipientSeed).getA());
+		DBSet snapshot = databaseSet.fork();
+		for(int i=0; i<10; i++)
+		{
+			long timestamp = newBlock.getTimestamp() - 10 + i;
+			byte[] signature = PaymentTransaction.generateSignature(snapshot, generator, recipient, BigDecimal.valueOf(1).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp);
+				
+			//CREATE VALID PAYMENT
+			Transaction payment = new PaymentTransaction(generator, recipient, BigDecimal.valueOf(1).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp, generator.getLastReference(snapshot), signature);
+		
+			//PROCESS IN DB
+			payment.process(snapshot);
+			
+			//ADD TO UNCONFIRMED TRANSACTIONS
+			blockGenerator.addUnconfirmedTransaction(databaseSet, payment, false);
+		}
+		
+		//ADD UNCONFIRMED TRANSACTIONS TO BLOCK
+		blockGenerator.addUnconfirmedTransactions(databaseSet, newBlock);
+		assertEquals(10, newBlock.getTransactionCount());
+		
+		//ADD TRANSACTION SIGNATURE
+		byte[] transactionsSignature = Crypto.getInstance().sign(generator, newBlock.getGeneratorSignature());
+		newBlock.setTransactionsSignature(transactionsSignature);
+		
+		//VALIDATE AND PROCESS IN ONE GO
+		assertEquals(true, newBlock.validateAndProcess(databaseSet));
+		
+		//CHECK BLOCK AND TRANSACTIONS ARE APPLIED
+		assertEquals(true, Arrays.equals(newBlock.getSignature(), databaseSet.getBlockMap().getLastBlockSignature()));
+		assertEquals(2, newBlock.getHeight(databaseSet));
+		assertEquals(0, BigDecimal.valueOf(10).compareTo(recipient.getConfirmedBalance(databaseSet)));
+		assertEquals(0, databaseSet.getTransactionMap().size());
+		assertEquals(true, Arrays.equals(newBlock.getSignature(), databaseSet.getTransactionParentMap().get(newBlock.getTransactions().get(0).getSignature())));
+	}
+	
+	@Test
+	public void addChainedTransactions()
+	{
+		//CREATE EMPTY MEMORY DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+				
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+				
+		//CREATE KNOWN ACCOUNT
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+						
+		//PROCESS GENESIS TRANSACTION TO MAKE SURE GENERATOR HAS FUNDS
+		Transaction transaction = new GenesisTransaction(generator, BigDecimal.valueOf(100000).setScale(8), NTP.getTime());
+		transaction.process(databaseSet);
+				
+		//GENERATE NEXT BLOCK
+		BlockGenerator blockGenerator = new BlockGenerator();
+		Block newBlock = blockGenerator.generateNextBlock(databaseSet, generator, genesisBlock);
+		
+		//ADD 10 CHAINED TRANSACTIONS, EACH PAYING A HIGHER FEE THAN THE ONE IT REFERENCES
+		byte[] recipientSeed = Crypto.getInstance().digest("recipient".getBytes());
+		Account recipient = new PrivateKeyAccount(Crypto.getInstance().createKeyPair(recipientSeed).getA());
+		DBSet snapshot = databaseSet.fork();
+		for(int i=0; i<10; i++)
+		{
+			long timestamp = newBlock.getTimestamp() - 10 + i;
+			BigDecimal fee = BigDecimal.valueOf(i + 1).setScale(8);
+			byte[] signature = PaymentTransaction.generateSignature(snapshot, generator, recipient, BigDecimal.valueOf(1).setScale(8), fee, timestamp);
+				
+			//CREATE VALID PAYMENT
+			Transaction payment = new PaymentTransaction(generator, recipient, BigDecimal.valueOf(1).setScale(8), fee, timestamp, generator.getLastReference(snapshot), signature);
+		
+			//PROCESS IN DB
+			payment.process(snapshot);
+			
+			//ADD TO UNCONFIRMED TRANSACTIONS
+			blockGenerator.addUnconfirmedTransaction(databaseSet, payment, false);
+		}
+		
+		//ALL TRANSACTIONS ARE ADDED IN REFERENCE ORDER
+		blockGenerator.addUnconfirmedTransactions(databaseSet, newBlock);
+		assertEquals(10, newBlock.getTransactionCount());
+		assertEquals(0, BigDecimal.valueOf(1).setScale(8).compareTo(newBlock.getTransactions().get(0).getFee()));
+		
+		//CHECK IF BLOCK IS VALID
+		assertEquals(true, newBlock.isValid(databaseSet));
+	}
+	
 	//TODO CALCULATETRANSACTIONSIGNATURE
 }
@@ -0,0 +1,218 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.primitives.Ints;
+
+import controller.Controller;
+import network.ConnectionCallback;
+import network.MessageFilter;
+import network.Peer;
+import network.PeerScores;
+import network.message.Message;
+import network.message.MessageFactory;
+import qora.crypto.Crypto;
+
+public class NetworkTests {
+
+	private static byte[] hash(int i)
+	{
+		return Crypto.getInstance().digest(Ints.toByteArray(i));
+	}
+	
+	@Test
+	public void messageFilter() 
+	{
+		MessageFilter filter = new MessageFilter(100);
+		
+		//NEW HASHES ARE ADDED ONCE
+		for(int i=0; i<100; i++)
+		{
+			assertEquals(true, filter.add(hash(i)));
+		}
+		
+		for(int i=0; i<100; i++)
+		{
+			assertEquals(false, filter.add(hash(i)));
+		}
+		
+		assertEquals(200, filter.getCheckedCount());
+		assertEquals(100, filter.getDuplicateCount());
+		assertEquals(0.5, filter.getHitRate(), 0);
+		
+		//FIRST GENERATION IS REMEMBERED WHILE THE NEXT FILLS UP
+		for(int i=100; i<199; i++)
+		{
+			assertEquals(true, filter.add(hash(i)));
+		}
+		
+		assertEquals(true, filter.contains(hash(0)));
+		assertEquals(true, filter.contains(hash(198)));
+		
+		//OLDEST ARE FORGOTTEN FIRST
+		assertEquals(true, filter.add(hash(199)));
+		
+		assertEquals(false, filter.contains(hash(0)));
+		assertEquals(false, filter.contains(hash(99)));
+		assertEquals(true, filter.contains(hash(100)));
+		assertEquals(true, filter.contains(hash(199)));
+	}
+	
+	@Test
+	public void peerScores() throws Exception
+	{
+		PeerScores scores = PeerScores.getInstance();
+		Peer fast = new Peer(InetAddress.getByName("10.0.20.1"));
+		Peer slow = new Peer(InetAddress.getByName("10.0.20.2"));
+		Peer unknown = new Peer(InetAddress.getByName("10.0.20.3"));
+		
+		//SAME BLOCKS, DELIVERED IN 100 MS AND IN 5 SECONDS
+		for(int i=0; i<10; i++)
+		{
+			scores.onResponse(fast, 100000, 100);
+			scores.onResponse(slow, 100000, 5000);
+		}
+		
+		assertEquals(true, scores.getScore(fast) > scores.getScore(unknown));
+		assertEquals(true, scores.getScore(unknown) > scores.getScore(slow));
+		assertEquals(Arrays.asList(fast, unknown, slow), scores.sort(Arrays.asList(slow, unknown, fast)));
+		
+		//INVALID DATA CUTS THE SCORE
+		double validScore = scores.getScore(fast);
+		scores.onInvalid(fast);
+		scores.onInvalid(fast);
+		double invalidScore = scores.getScore(fast);
+		assertEquals(true, invalidScore < validScore / 2);
+		
+		//GOOD BEHAVIOUR EARNS IT BACK
+		for(int i=0; i<10; i++)
+		{
+			scores.onResponse(fast, 100000, 100);
+		}
+		assertEquals(true, scores.getScore(fast) > invalidScore);
+		
+		//FAILING REQUESTS STALL A PEER
+		assertEquals(false, scores.isStalled(fast));
+		for(int i=0; i<5; i++)
+		{
+			scores.onFailure(fast);
+		}
+		assertEquals(true, scores.isStalled(fast));
+		assertEquals(false, scores.isStalled(unknown));
+		
+		//ANSWERED PINGS LET A STALLED PEER RECOVER WITHOUT REQUESTS
+		for(int i=0; i<5; i++)
+		{
+			scores.onPing(fast, 100);
+		}
+		assertEquals(false, scores.isStalled(fast));
+	}
+	
+	private static int count(List<Message> messages, int type)
+	{
+		int count = 0;
+		synchronized(messages)
+		{
+			for(Message message: messages)
+			{
+				if(message.getType() == type)
+				{
+					count++;
+				}
+			}
+		}
+		
+		return count;
+	}
+	
+	@Test
+	public void overlappingRequests() throws Exception
+	{
+		//ANSWER PINGS AND REQUESTS FOR PEERS LIKE THE CONTROLLER DOES
+		final List<Message> received = Collections.synchronizedList(new ArrayList<Message>());
+		ConnectionCallback callback = new ConnectionCallback() {
+			public void onConnect(Peer peer) {}
+			public void onDisconnect(Peer peer) {}
+			public void onError(Peer peer, String error) {}
+			public boolean isConnectedTo(InetAddress address) { return false; }
+			public boolean isConnectedTo(Peer peer) { return false; }
+			public List<Peer> getActiveConnections() { return new ArrayList<Peer>(); }
+			
+			public void onMessage(Message message) {
+				received.add(message);
+				
+				Message response = null;
+				if(message.getType() == Message.PING_TYPE)
+				{
+					response = MessageFactory.getInstance().createPingMessage();
+				}
+				else if(message.getType() == Message.GET_PEERS_TYPE)
+				{
+					response = MessageFactory.getInstance().createPeersMessage(new ArrayList<Peer>());
+				}
+				
+				if(response != null)
+				{
+					response.setId(message.getId());
+					message.getSender().sendMessage(response);
+				}
+			}
+		};
+		
+		//LISTEN WHERE THE DIALING PEER CONNECTS TO
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Controller.getInstance().getNetworkPort()));
+		
+		Peer dialing = new Peer(InetAddress.getLoopbackAddress());
+		Peer accepting = null;
+		try
+		{
+			dialing.connect(callback);
+			accepting = new Peer(callback, server.accept());
+			
+			for(int i=0; i<100 && !dialing.hasPinger(); i++)
+			{
+				Thread.sleep(50);
+			}
+			assertEquals(true, dialing.hasPinger());
+			
+			//BOTH SIDES PINGED RIGHT AWAY, NOW BOTH REQUEST AT ONCE
+			CompletableFuture<Message> dialingRequest = dialing.request(MessageFactory.getInstance().createGetPeersMessage());
+			CompletableFuture<Message> acceptingRequest = accepting.request(MessageFactory.getInstance().createGetPeersMessage());
+			
+			//CHECK EVERY REQUEST GOT ITS OWN ANSWER
+			assertEquals(Message.PEERS_TYPE, dialingRequest.get(10, TimeUnit.SECONDS).getType());
+			assertEquals(Message.PEERS_TYPE, acceptingRequest.get(10, TimeUnit.SECONDS).getType());
+			
+			//CHECK REQUESTS OF THE OTHER SIDE WERE NOT TAKEN FOR ANSWERS
+			for(int i=0; i<100 && count(received, Message.PING_TYPE) < 2; i++)
+			{
+				Thread.sleep(50);
+			}
+			assertEquals(2, count(received, Message.PING_TYPE));
+			assertEquals(2, count(received, Message.GET_PEERS_TYPE));
+		}
+		finally
+		{
+			dialing.close();
+			if(accepting != null)
+			{
+				accepting.close();
+			}
+			server.close();
+		}
+	}
+}
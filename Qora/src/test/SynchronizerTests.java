@@ -15,6 +15,7 @@ import qora.BlockGenerator;
 import qora.Synchronizer;
 import qora.account.PrivateKeyAccount;
 import qora.block.Block;
+import qora.block.BlockFactory;
 import qora.block.GenesisBlock;
 import qora.crypto.Crypto;
 import qora.transaction.GenesisTransaction;
@@ -234,5 +235,107 @@ public class SynchronizerTests {
 			e.printStackTrace();
 			fail("Exception during synchronize");
 		}	
-	}	
+	}
+	
+	@Test
+	public void checkHeaderChain()
+	{
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+		
+		//CREATE KNOWN ACCOUNT
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+				
+		//PROCESS GENESIS TRANSACTION TO MAKE SURE GENERATOR HAS FUNDS
+		Transaction transaction = new GenesisTransaction(generator, BigDecimal.valueOf(1000).setScale(8), NTP.getTime());
+		transaction.process(databaseSet);
+		
+		//GENERATE 12 BLOCKS ON FORK, PAST A RETARGET
+		DBSet fork = databaseSet.fork();
+		Block lastBlock = genesisBlock;
+		BlockGenerator blockGenerator = new BlockGenerator();
+		List<Block> headers = new ArrayList<Block>();
+		for(int i=0; i<12; i++)
+		{	
+			//GENERATE NEXT BLOCK
+			Block newBlock = blockGenerator.generateNextBlock(fork, generator, lastBlock);
+			
+			//ADD TRANSACTION SIGNATURE
+			byte[] transactionsSignature = Crypto.getInstance().sign(generator, newBlock.getGeneratorSignature());
+			newBlock.setTransactionsSignature(transactionsSignature);
+			
+			//PROCESS NEW BLOCK
+			newBlock.process(fork);
+			
+			//ADD TO LIST
+			headers.add(newBlock);
+			
+			//LAST BLOCK IS NEW BLOCK
+			lastBlock = newBlock;
+		}
+		
+		//CHECK HEADERS FOLLOWING OUR GENESIS BLOCK
+		Synchronizer synchronizer = new Synchronizer();
+		assertEquals(true, synchronizer.isHeaderChainValid(databaseSet, genesisBlock, headers));
+		
+		//CHECK HEADERS WITH A BLOCK LEFT OUT
+		List<Block> gap = new ArrayList<Block>(headers);
+		gap.remove(5);
+		assertEquals(false, synchronizer.isHeaderChainValid(databaseSet, genesisBlock, gap));
+		
+		//CHECK HEADERS WITH A CHANGED GENERATING BALANCE
+		Block header = headers.get(5);
+		Block changed = BlockFactory.getInstance().create(header.getVersion(), header.getReference(), header.getTimestamp(), header.getGeneratingBalance() + 1, header.getGenerator(), header.getGeneratorSignature());
+		List<Block> tampered = new ArrayList<Block>(headers);
+		tampered.set(5, changed);
+		assertEquals(false, synchronizer.isHeaderChainValid(databaseSet, genesisBlock, tampered));
+	}
+	
+	@Test
+	public void synchronizeCommitInterval()
+	{
+		//CREATE DATABASE THAT COMMITS EVERY 3 BLOCKS
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+		databaseSet.setCommitInterval(3);
+		
+		//PROCESS GENESISBLOCK
+		GenesisBlock genesisBlock = new GenesisBlock();
+		genesisBlock.process(databaseSet);
+		databaseSet.flush();
+		
+		//CREATE KNOWN ACCOUNT WITH FUNDS
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount generator = new PrivateKeyAccount(privateKey);
+		Transaction transaction = new GenesisTransaction(generator, BigDecimal.valueOf(1000).setScale(8), NTP.getTime());
+		transaction.process(databaseSet);
+		
+		//PROCESS BLOCKS AS DOWNLOADED WHILE SYNCHRONIZING
+		Synchronizer synchronizer = new Synchronizer();
+		BlockGenerator blockGenerator = new BlockGenerator();
+		Block lastBlock = genesisBlock;
+		for(int i=1; i<=5; i++)
+		{
+			Block newBlock = blockGenerator.generateNextBlock(databaseSet, generator, lastBlock);
+			newBlock.setTransactionsSignature(Crypto.getInstance().sign(generator, newBlock.getGeneratorSignature()));
+			
+			assertEquals(true, synchronizer.process(databaseSet, newBlock, false));
+			lastBlock = newBlock;
+			
+			//CHECK BLOCKS ARE WRITTEN EVERY 3 BLOCKS, NOT ONE BY ONE
+			assertEquals(i % 3, databaseSet.getUncommittedBlocks());
+		}
+		
+		//A BLOCK ON ITS OWN WRITES THOSE BEFORE IT FIRST
+		Block newBlock = blockGenerator.generateNextBlock(databaseSet, generator, lastBlock);
+		newBlock.setTransactionsSignature(Crypto.getInstance().sign(generator, newBlock.getGeneratorSignature()));
+		assertEquals(true, synchronizer.process(databaseSet, newBlock, true));
+		assertEquals(1, databaseSet.getUncommittedBlocks());
+		assertEquals(7, databaseSet.getBlockMap().getLastBlock().getHeight(databaseSet));
+	}
 }
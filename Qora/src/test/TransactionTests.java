@@ -201,6 +201,49 @@ public class TransactionTests {
 		assertEquals(false, payment.isSignatureValid());
 	}
 	
+	@Test
+	public void validateSignatureCachePaymentTransaction()
+	{
+	
+		//CREATE EMPTY MEMORY DATABASE
+		DBSet databaseSet = DBSet.createEmptyDatabaseSet();
+	
+		//CREATE KNOWN ACCOUNT
+		byte[] seed = Crypto.getInstance().digest("test".getBytes());
+		byte[] privateKey = Crypto.getInstance().createKeyPair(seed).getA();
+		PrivateKeyAccount sender = new PrivateKeyAccount(privateKey);
+	
+		//CREATE PAYMENT
+		Account recipient = new Account("XUi2oga2pnGNcZ9es6pBqxydtRZKWdkL2g");
+		long timestamp = NTP.getTime();
+		byte[] signature = PaymentTransaction.generateSignature(databaseSet, sender, recipient, BigDecimal.valueOf(100).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp);
+		Transaction payment = new PaymentTransaction(sender, recipient, BigDecimal.valueOf(100).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp, sender.getLastReference(databaseSet), signature);
+	
+		//FIRST CHECK IS A CACHE MISS
+		long hits = Crypto.getInstance().getVerifiedCacheHits();
+		long misses = Crypto.getInstance().getVerifiedCacheMisses();
+		assertEquals(true, payment.isSignatureValid());
+		assertEquals(hits, Crypto.getInstance().getVerifiedCacheHits());
+		assertEquals(misses + 1, Crypto.getInstance().getVerifiedCacheMisses());
+	
+		//SECOND CHECK IS A CACHE HIT
+		assertEquals(true, payment.isSignatureValid());
+		assertEquals(hits + 1, Crypto.getInstance().getVerifiedCacheHits());
+		assertEquals(misses + 1, Crypto.getInstance().getVerifiedCacheMisses());
+	
+		//TAMPERED SIGNATURE IS NOT A CACHE HIT
+		byte[] tampered = Arrays.copyOf(signature, signature.length);
+		tampered[0] ^= 1;
+		payment = new PaymentTransaction(sender, recipient, BigDecimal.valueOf(100).setScale(8), BigDecimal.valueOf(1).setScale(8), timestamp, sender.getLastReference(databaseSet), tampered);
+		assertEquals(false, payment.isSignatureValid());
+		assertEquals(hits + 1, Crypto.getInstance().getVerifiedCacheHits());
+		assertEquals(misses + 2, Crypto.getInstance().getVerifiedCacheMisses());
+	
+		//NOR IS IT CACHED AFTER FAILING
+		assertEquals(false, payment.isSignatureValid());
+		assertEquals(hits + 1, Crypto.getInstance().getVerifiedCacheHits());
+	}
+	
 	@Test
 	public void validatePaymentTransaction() 
 	{
@@ -61,6 +61,7 @@ public class ObserverMessage {
 	
 	public static final int WALLET_SYNC_STATUS = 43;
 	public static final int BLOCKCHAIN_SYNC_STATUS = 44;
+	public static final int LAST_BLOCK_TYPE = 45;
 		
 	private int type;
 	private Object value;